@@ -0,0 +1,112 @@
+package org.leibnizcenter.cfg.benchmarks;
+
+import org.leibnizcenter.cfg.earleyparser.chart.ChartWithInputPosition;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.token.Token;
+import org.leibnizcenter.cfg.token.TokenWithCategories;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the three phases of processing a single token: predict, scan and complete, on the last token of the input.
+ * <p>
+ * A phase takes microseconds and changes the chart it runs on, so every phase needs a chart that is filled up to the
+ * phase before it. Before each iteration, {@link ChartState} fills a pool of {@value #POOL_SIZE} such charts, and the
+ * iteration then runs the measured phase once on every chart in the pool. Only the phase itself is timed.
+ * <p>
+ * {@code -prof gc} measures allocation over the whole iteration, so its {@code gc.alloc.rate.norm} includes filling
+ * the pool. Use {@link org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions.Builder#withInstrumentation
+ * instrumentation} for the allocation of a single phase.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class ChartBenchmark {
+    static final int POOL_SIZE = 8;
+
+    @Benchmark
+    @OperationsPerInvocation(POOL_SIZE)
+    public void predict(PredictState state) {
+        for (ChartWithInputPosition<String> filled : state.pool)
+            filled.chart.predict(filled.chartIndex, state.lastToken);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POOL_SIZE)
+    public void scan(ScanState state) {
+        for (ChartWithInputPosition<String> filled : state.pool)
+            filled.chart.scan(filled.chartIndex, state.lastToken);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POOL_SIZE)
+    public void complete(CompleteState state) {
+        for (ChartWithInputPosition<String> filled : state.pool)
+            filled.chart.complete(filled.chartIndex, state.lastToken);
+    }
+
+    /**
+     * Pool of charts that are filled with all tokens before the last one
+     */
+    @State(Scope.Thread)
+    public abstract static class ChartState {
+        @Param({"AMBIGUOUS", "DOCUMENT", "GENERATED"})
+        public GrammarFamily grammarFamily;
+
+        @Param({"10", "50"})
+        public int length;
+
+        Grammar<String> grammar;
+        List<Token<String>> tokens;
+        TokenWithCategories<String> lastToken;
+        @SuppressWarnings("unchecked")
+        final ChartWithInputPosition<String>[] pool = new ChartWithInputPosition[POOL_SIZE];
+
+        @Setup(Level.Trial)
+        public void setUpGrammar() {
+            grammar = grammarFamily.grammar();
+            tokens = grammarFamily.tokens(length);
+            final Token<String> last = tokens.get(tokens.size() - 1);
+            lastToken = new TokenWithCategories<>(last, grammar.getCategories(last));
+        }
+
+        @Setup(Level.Iteration)
+        public void fillPool() {
+            for (int c = 0; c < pool.length; c++) {
+                pool[c] = new ChartWithInputPosition<>(grammar, grammarFamily.goal(), null);
+                for (int i = 0; i < tokens.size() - 1; i++) pool[c].next(tokens.get(i));
+                runPhasesBefore(pool[c]);
+            }
+        }
+
+        abstract void runPhasesBefore(ChartWithInputPosition<String> filled);
+    }
+
+    @State(Scope.Thread)
+    public static class PredictState extends ChartState {
+        @Override
+        void runPhasesBefore(ChartWithInputPosition<String> filled) {
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ScanState extends ChartState {
+        @Override
+        void runPhasesBefore(ChartWithInputPosition<String> filled) {
+            filled.chart.predict(filled.chartIndex, lastToken);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CompleteState extends ChartState {
+        @Override
+        void runPhasesBefore(ChartWithInputPosition<String> filled) {
+            filled.chart.predict(filled.chartIndex, lastToken);
+            filled.chart.scan(filled.chartIndex, lastToken);
+        }
+    }
+}
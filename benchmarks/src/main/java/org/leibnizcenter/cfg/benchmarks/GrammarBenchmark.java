@@ -0,0 +1,58 @@
+package org.leibnizcenter.cfg.benchmarks;
+
+import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.token.Token;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building a grammar, which computes the left-corner and unit closures, and looking up the terminals for
+ * tokens
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class GrammarBenchmark {
+    private static final int TOKEN_COUNT = 1000;
+
+    @Param({"AMBIGUOUS", "DOCUMENT", "GENERATED"})
+    public GrammarFamily grammarFamily;
+
+    /**
+     * 0 measures the terminal index alone, the default measures the token cache
+     */
+    @Param({"0", "10000"})
+    public int tokenCacheSize;
+
+    private Grammar.Builder<String> builder;
+    private Grammar<String> grammar;
+    private List<Token<String>> tokens;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        builder = grammarFamily.builder().withTokenCacheSize(tokenCacheSize);
+        grammar = builder.build();
+        tokens = grammarFamily.tokens(TOKEN_COUNT);
+    }
+
+    @Benchmark
+    public Grammar<String> build() {
+        return builder.build();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Set<Terminal<String>> getCategories() {
+        final Token<String> token = tokens.get(next);
+        next = (next + 1) % TOKEN_COUNT;
+        return grammar.getCategories(token);
+    }
+}
@@ -0,0 +1,227 @@
+package org.leibnizcenter.cfg.benchmarks;
+
+import org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.token.Token;
+
+import java.util.*;
+
+/**
+ * Grammars to benchmark on, with a way to generate inputs of a given length for each
+ */
+public enum GrammarFamily {
+    /**
+     * Highly ambiguous S → S S grammar, in which the number of parses grows exponentially with the input length
+     */
+    AMBIGUOUS {
+        private final NonTerminal S = Category.nonTerminal("S");
+
+        @Override
+        public Grammar.Builder<String> builder() {
+            final NonTerminal A = Category.nonTerminal("A");
+            final NonTerminal B = Category.nonTerminal("B");
+            final NonTerminal C = Category.nonTerminal("C");
+            final NonTerminal D = Category.nonTerminal("D");
+            final Category a = new ExactStringTerminal("a");
+            return new Grammar.Builder<String>("ambiguous")
+                    .withSemiring(LogSemiring.get())
+                    .addRule(1.0, S, A)
+                    .addRule(0.1, S, S, S)
+                    .addRule(1.0, A, B)
+                    .addRule(0.5, A, D)
+                    .addRule(0.5, B, C)
+                    .addRule(1.0, B, a)
+                    .addRule(0.5, C, a)
+                    .addRule(0.5, D, a);
+        }
+
+        @Override
+        public NonTerminal goal() {
+            return S;
+        }
+
+        @Override
+        public List<Token<String>> tokens(int length) {
+            final List<Token<String>> tokens = new ArrayList<>(length);
+            final Token<String> a = new Token<>("a");
+            for (int i = 0; i < length; i++) tokens.add(a);
+            return tokens;
+        }
+    },
+    /**
+     * Grammar for the sections and text blocks of a document
+     */
+    DOCUMENT {
+        private final NonTerminal DOCUMENT = new NonTerminal("#root");
+
+        @Override
+        public Grammar.Builder<String> builder() {
+            final NonTerminal DOCUMENT_BODY = new NonTerminal("DocumentContent");
+            final NonTerminal SECTION_BLOB = new NonTerminal("Sections");
+            final NonTerminal SECTION = new NonTerminal("Section");
+            final NonTerminal SECTION_TITLE = new NonTerminal("SectionTitle");
+            final NonTerminal SECTION_CONTENT = new NonTerminal("SectionContent");
+            final NonTerminal SECTION_SEQUENCE = new NonTerminal("SECTION_SEQUENCE");
+            final NonTerminal TEXT_BLOB = new NonTerminal("Text");
+            final NonTerminal SECTION_TITLE_TEXT = new NonTerminal("SECTION_TITLE_TEXT");
+
+            final ExactStringTerminal TERMINAL_NUMBERING = new ExactStringTerminal("NR");
+            final ExactStringTerminal TERMINAL_SECTION_TITLE = new ExactStringTerminal("SECTION_TITLE");
+            final ExactStringTerminal TERMINAL_TEXT = new ExactStringTerminal("TEXT_BLOCK");
+            final ExactStringTerminal TERMINAL_NEWLINE = new ExactStringTerminal("NEWLINE");
+
+            return new Grammar.Builder<String>("document")
+                    .withSemiring(LogSemiring.get())
+                    .addRule(1.0, DOCUMENT, DOCUMENT_BODY)
+
+                    .addRule(0.7, DOCUMENT_BODY, SECTION_SEQUENCE)
+                    .addRule(0.1, DOCUMENT_BODY, TEXT_BLOB, SECTION_SEQUENCE)
+                    .addRule(0.1, DOCUMENT_BODY, SECTION_SEQUENCE, TEXT_BLOB)
+                    .addRule(0.1, DOCUMENT_BODY, TEXT_BLOB, SECTION_SEQUENCE, TEXT_BLOB)
+
+                    .addRule(1.0, SECTION_SEQUENCE, SECTION_BLOB)
+
+                    .addRule(0.3, SECTION_BLOB, SECTION_BLOB, SECTION_BLOB)
+                    .addRule(0.3, SECTION_BLOB, SECTION)
+                    .addRule(0.2, SECTION_BLOB, SECTION, TEXT_BLOB)
+                    .addRule(0.2, SECTION_BLOB, TEXT_BLOB, SECTION)
+
+                    .addRule(0.99, SECTION, SECTION_TITLE, SECTION_CONTENT)
+                    .addRule(1 - 0.99, SECTION, SECTION_TITLE)
+
+                    .addRule(0.4, SECTION_CONTENT, SECTION_CONTENT, SECTION_CONTENT)
+                    .addRule(0.4, SECTION_CONTENT, TEXT_BLOB)
+                    .addRule(0.2, SECTION_CONTENT, SECTION_SEQUENCE)
+
+                    .addRule(0.5, TEXT_BLOB, TEXT_BLOB, TEXT_BLOB)
+                    .addRule(0.3, TEXT_BLOB, TERMINAL_TEXT)
+                    .addRule(0.2, TEXT_BLOB, TERMINAL_NEWLINE)
+
+                    .addRule(0.2, SECTION_TITLE, TERMINAL_NUMBERING)
+                    .addRule(0.3, SECTION_TITLE, SECTION_TITLE_TEXT)
+                    .addRule(0.5, SECTION_TITLE, TERMINAL_NUMBERING, SECTION_TITLE_TEXT)
+
+                    .addRule(0.9, SECTION_TITLE_TEXT, TERMINAL_SECTION_TITLE)
+                    .addRule(0.1, SECTION_TITLE_TEXT, TERMINAL_NEWLINE, SECTION_TITLE_TEXT);
+        }
+
+        @Override
+        public NonTerminal goal() {
+            return DOCUMENT;
+        }
+
+        /**
+         * Repeats a section: a numbered title followed by a few lines of text
+         */
+        @Override
+        public List<Token<String>> tokens(int length) {
+            final String[] section = {"NEWLINE", "NR", "SECTION_TITLE", "TEXT_BLOCK", "TEXT_BLOCK", "NEWLINE", "TEXT_BLOCK"};
+            final List<Token<String>> tokens = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) tokens.add(new Token<>(section[i % section.length]));
+            return tokens;
+        }
+    },
+    /**
+     * Randomly generated grammar with {@value #GENERATED_RULE_COUNT} rules, for measuring how the parser scales with
+     * grammar size. Generated from a fixed seed, so every run benchmarks the same grammar.
+     */
+    GENERATED {
+        private static final int NON_TERMINAL_COUNT = 250;
+        private static final int WORD_COUNT = 1000;
+        private static final int LEXICAL_RULES_PER_NON_TERMINAL = 4;
+        private static final int BINARY_RULES_PER_NON_TERMINAL = GENERATED_RULE_COUNT / NON_TERMINAL_COUNT - LEXICAL_RULES_PER_NON_TERMINAL;
+
+        @Override
+        public Grammar.Builder<String> builder() {
+            final NonTerminal[] nonTerminals = new NonTerminal[NON_TERMINAL_COUNT];
+            for (int i = 0; i < nonTerminals.length; i++) nonTerminals[i] = nonTerminal(i);
+            final int[][][] binaryRules = binaryRules();
+
+            final Grammar.Builder<String> builder = new Grammar.Builder<String>("generated").withSemiring(LogSemiring.get());
+            final double probability = 1.0 / (LEXICAL_RULES_PER_NON_TERMINAL + BINARY_RULES_PER_NON_TERMINAL);
+            for (int n = 0; n < nonTerminals.length; n++) {
+                for (int r = 0; r < LEXICAL_RULES_PER_NON_TERMINAL; r++)
+                    builder.addRule(probability, nonTerminals[n], new ExactStringTerminal(word(n, r)));
+                for (int[] right : binaryRules[n])
+                    builder.addRule(probability, nonTerminals[n], nonTerminals[right[0]], nonTerminals[right[1]]);
+            }
+            return builder;
+        }
+
+        @Override
+        public NonTerminal goal() {
+            return nonTerminal(0);
+        }
+
+        /**
+         * Samples a derivation of the goal with given number of leaves, so that the input is in the language
+         */
+        @Override
+        public List<Token<String>> tokens(int length) {
+            final int[][][] binaryRules = binaryRules();
+            final Random random = new Random(SEED + length);
+            final List<Token<String>> tokens = new ArrayList<>(length);
+            final Deque<int[]> toExpand = new ArrayDeque<>();
+            toExpand.push(new int[]{0, length});
+            while (!toExpand.isEmpty()) {
+                final int[] nonTerminalAndLength = toExpand.pop();
+                final int n = nonTerminalAndLength[0];
+                final int leaves = nonTerminalAndLength[1];
+                if (leaves == 1) {
+                    tokens.add(new Token<>(word(n, random.nextInt(LEXICAL_RULES_PER_NON_TERMINAL))));
+                } else {
+                    final int[] right = binaryRules[n][random.nextInt(BINARY_RULES_PER_NON_TERMINAL)];
+                    final int leftLeaves = 1 + random.nextInt(leaves - 1);
+                    toExpand.push(new int[]{right[1], leaves - leftLeaves});
+                    toExpand.push(new int[]{right[0], leftLeaves});
+                }
+            }
+            return tokens;
+        }
+
+        /**
+         * @return For every non-terminal, the right hand sides of its binary rules
+         */
+        private int[][][] binaryRules() {
+            final Random random = new Random(SEED);
+            final int[][][] rules = new int[NON_TERMINAL_COUNT][BINARY_RULES_PER_NON_TERMINAL][];
+            for (int[][] rulesForNonTerminal : rules)
+                for (int r = 0; r < rulesForNonTerminal.length; r++)
+                    rulesForNonTerminal[r] = new int[]{random.nextInt(NON_TERMINAL_COUNT), random.nextInt(NON_TERMINAL_COUNT)};
+            return rules;
+        }
+
+        private NonTerminal nonTerminal(int n) {
+            return Category.nonTerminal(n == 0 ? "S" : "N" + n);
+        }
+
+        /**
+         * Spreads the words over the non-terminals, so that every word is in the lexicon
+         */
+        private String word(int nonTerminal, int r) {
+            return "w" + ((nonTerminal * LEXICAL_RULES_PER_NON_TERMINAL + r) % WORD_COUNT);
+        }
+    };
+
+    public static final int GENERATED_RULE_COUNT = 5000;
+    private static final long SEED = 42L;
+
+    /**
+     * @return Builder for this grammar. Building it is part of what {@link GrammarBenchmark} measures.
+     */
+    public abstract Grammar.Builder<String> builder();
+
+    public Grammar<String> grammar() {
+        return builder().build();
+    }
+
+    public abstract NonTerminal goal();
+
+    /**
+     * @return Input of given length, the same for every call
+     */
+    public abstract List<Token<String>> tokens(int length);
+}
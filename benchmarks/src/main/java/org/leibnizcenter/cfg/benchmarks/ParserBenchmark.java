@@ -0,0 +1,45 @@
+package org.leibnizcenter.cfg.benchmarks;
+
+import org.leibnizcenter.cfg.earleyparser.ParseTreeWithScore;
+import org.leibnizcenter.cfg.earleyparser.Parser;
+import org.leibnizcenter.cfg.token.Token;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing a whole input, end to end
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class ParserBenchmark {
+    @Param({"AMBIGUOUS", "DOCUMENT", "GENERATED"})
+    public GrammarFamily grammarFamily;
+
+    @Param({"10", "50", "100"})
+    public int length;
+
+    private Parser<String> parser;
+    private List<Token<String>> tokens;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        parser = new Parser<>(grammarFamily.grammar());
+        tokens = grammarFamily.tokens(length);
+    }
+
+    @Benchmark
+    public double recognize() {
+        return parser.recognize(grammarFamily.goal(), tokens);
+    }
+
+    @Benchmark
+    public ParseTreeWithScore getViterbiParseWithScore() {
+        return parser.getViterbiParseWithScore(grammarFamily.goal(), tokens);
+    }
+}
@@ -106,6 +106,15 @@ public interface DblSemiring {
 
     double toProbability(double x);
 
+    /**
+     * Override for semirings that can represent probabilities too small for a double
+     *
+     * @return Natural logarithm of the probability that given element represents
+     */
+    default double toLogProbability(double x) {
+        return Math.log(toProbability(x));
+    }
+
     /**
      * @return As in {@link Double#compare(double, double)}
      */
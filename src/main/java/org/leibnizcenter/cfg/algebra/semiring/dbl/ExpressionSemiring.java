@@ -5,7 +5,8 @@ import org.leibnizcenter.cfg.earleyparser.Atom;
 import java.text.DecimalFormat;
 
 /**
- * Semiring for abstract expression trees
+ * Semiring for abstract expression trees. The parser only uses the operations on doubles; the operations that build
+ * {@link Resolvable} expressions are deprecated.
  * <p>
  * Created by Maarten on 24-8-2016.
  */
@@ -22,6 +23,10 @@ public abstract class ExpressionSemiring implements DblSemiring {
     /*     NOTE:
      *   Checking for multiplicative and additive identities doesn't seem to add any performance in practice!
      */
+    /**
+     * @deprecated Builds {@link Resolvable} expressions, which the parser no longer uses
+     */
+    @Deprecated
     public Resolvable times(double r1, Resolvable r2, Resolvable r3) {
         if (r1 == ONE) return times(r2, r3);
         else if (isMultiplicativeIdentity(r2)) return times(r1, r3);
@@ -43,6 +48,10 @@ public abstract class ExpressionSemiring implements DblSemiring {
         return new Times(r1, r2);
     }
 
+    /**
+     * @deprecated Builds {@link Resolvable} expressions, which the parser no longer uses
+     */
+    @Deprecated
     public Resolvable times(double r1, Resolvable r2) {
         if (r1 == ONE) return r2;
         else if (isMultiplicativeIdentity(r2)) return new Atom(r1);
@@ -50,6 +59,10 @@ public abstract class ExpressionSemiring implements DblSemiring {
             return new DblTimes(r1, r2);
     }
 
+    /**
+     * @deprecated Builds {@link Resolvable} expressions, which the parser no longer uses
+     */
+    @Deprecated
     public Resolvable plus(Resolvable r1, Resolvable r2) {
         if (isAdditiveIdentity(r1)) return r2;
         else if (isAdditiveIdentity(r2)) return r1;
@@ -57,6 +70,10 @@ public abstract class ExpressionSemiring implements DblSemiring {
             return new Plus(r1, r2);
     }
 
+    /**
+     * @deprecated Builds {@link Resolvable} expressions, which the parser no longer uses
+     */
+    @Deprecated
     public Resolvable plus(Resolvable r1, double r2) {
         if (r2 == ZERO)
             return r1;
@@ -29,7 +29,9 @@ public class LogSemiring extends ExpressionSemiring {
         if (!member(w1) || !member(w2)) return Double.NEGATIVE_INFINITY;
         else if (w1 == ZERO) return w2;
         else if (w2 == ZERO) return w1;
-        else return -Math.log(Math.exp(-w1) + Math.exp(-w2));
+        // Factor out the larger probability, so that this doesn't underflow for tiny probabilities
+        else if (w1 < w2) return w1 - Math.log1p(Math.exp(w1 - w2));
+        else return w2 - Math.log1p(Math.exp(w2 - w1));
     }
 
     @Override
@@ -66,6 +68,11 @@ public class LogSemiring extends ExpressionSemiring {
         return Math.exp(-x);
     }
 
+    @Override
+    public double toLogProbability(double x) {
+        return -x;
+    }
+
     @Override
     public int compare(double x, double y) {
         return Double.compare(y, x);
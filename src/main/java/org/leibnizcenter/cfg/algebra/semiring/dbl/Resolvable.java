@@ -1,7 +1,11 @@
 package org.leibnizcenter.cfg.algebra.semiring.dbl;
 
 /**
+ * Node of a semiring expression that is resolved to a value later
+ *
+ * @deprecated The parser resolves all scores right away, so it no longer builds expressions
  */
+@Deprecated
 public abstract class Resolvable {
     protected boolean lock = false;
     protected double cached = Double.NaN;
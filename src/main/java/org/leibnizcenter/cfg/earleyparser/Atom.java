@@ -5,7 +5,10 @@ import org.leibnizcenter.cfg.algebra.semiring.dbl.Resolvable;
 /**
  * Atomic value
  * Created by maarten on 21/01/17.
+ *
+ * @deprecated Leaf of a {@link Resolvable} expression, which the parser no longer builds
  */
+@Deprecated
 public class Atom extends Resolvable {
     public final double value;
 
@@ -1,6 +1,5 @@
 package org.leibnizcenter.cfg.earleyparser;
 
-import org.leibnizcenter.cfg.algebra.semiring.dbl.Resolvable;
 import org.leibnizcenter.cfg.earleyparser.chart.state.State;
 
 /**
@@ -11,24 +10,6 @@ import org.leibnizcenter.cfg.earleyparser.chart.state.State;
 public class Complete {
 
 
-    public static class Delta {
-        public final State state;
-        public final Resolvable addForward;
-        public final Resolvable addInner;
-        public final boolean newCompletedStateNoUnitProduction;
-
-        public Delta(State state, Resolvable addInner, Resolvable addForward, boolean newCompletedStateNoUnitProduction) {
-            this.state = state;
-            this.addInner = addInner;
-            this.addForward = addForward;
-            this.newCompletedStateNoUnitProduction = newCompletedStateNoUnitProduction;
-        }
-
-        public State getState() {
-            return state;
-        }
-    }
-
     public static class ViterbiDelta {
         public final State resultingState;
         public final State.ViterbiScore newViterbiScore;
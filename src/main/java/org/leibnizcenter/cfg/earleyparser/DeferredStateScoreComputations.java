@@ -9,7 +9,11 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
+ * Sums of scores for states, kept as expressions that are resolved later
+ *
+ * @deprecated The parser no longer builds deferred score expressions: completion adds inner and forward scores in place.
  */
+@Deprecated
 public class DeferredStateScoreComputations {
     public final Map<State, ExpressionWrapper> states;
     private final ExpressionSemiring semiring;
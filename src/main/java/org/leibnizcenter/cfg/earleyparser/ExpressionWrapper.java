@@ -3,6 +3,12 @@ package org.leibnizcenter.cfg.earleyparser;
 
 import org.leibnizcenter.cfg.algebra.semiring.dbl.Resolvable;
 
+/**
+ * Score that is either a literal or an expression that is resolved later
+ *
+ * @deprecated Only used by {@link DeferredStateScoreComputations}, which the parser no longer uses
+ */
+@Deprecated
 @SuppressWarnings("WeakerAccess")
 public class ExpressionWrapper extends Resolvable {
     private double literal = Double.NaN;
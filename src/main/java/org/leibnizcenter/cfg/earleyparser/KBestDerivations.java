@@ -0,0 +1,285 @@
+package org.leibnizcenter.cfg.earleyparser;
+
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.ExpressionSemiring;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.KleeneClosure;
+import org.leibnizcenter.cfg.category.nonterminal.NonLexicalToken;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.earleyparser.callbacks.ScanProbability;
+import org.leibnizcenter.cfg.earleyparser.chart.Chart;
+import org.leibnizcenter.cfg.earleyparser.chart.state.ScannedToken;
+import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+import org.leibnizcenter.cfg.earleyparser.chart.statesets.StateSets;
+import org.leibnizcenter.cfg.errors.IssueRequest;
+import org.leibnizcenter.cfg.token.Token;
+import org.leibnizcenter.cfg.token.TokenWithCategories;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Enumerates the derivations of states in a parsed chart in order of decreasing probability, using the lazy
+ * algorithm from Huang &amp; Chiang, "Better k-best parsing" (2005). The chart is read as a hypergraph in which every
+ * state is a node:
+ * </p>
+ * <ul>
+ * <li>A predicted state <code>k: X<sub>k</sub> → ·λ</code> has a single derivation</li>
+ * <li>A scanned state <code>i: X<sub>k</sub> → λt·μ</code> has a single incoming edge, from the state it was
+ * scanned from</li>
+ * <li>A state <code>i: X<sub>k</sub> → λY·μ</code> has an incoming edge for every completed state
+ * <code>i: Y<sub>j</sub> → ν·</code> that has a predecessor <code>j: X<sub>k</sub> → λ·Yμ</code> in the chart</li>
+ * </ul>
+ * <p>
+ * The score of the best derivation of a state is its Viterbi score, so the incoming edges of a state are only
+ * collected when a derivation of that state is asked for, and the next best derivation of a state is only computed
+ * when a derivation that contains it is asked for.
+ * </p>
+ * <p>
+ * Derivations that go around a cycle of unit productions with probability one are not enumerated.
+ * </p>
+ */
+final class KBestDerivations<T> {
+    private final Chart<T> chart;
+    private final StateSets<T> stateSets;
+    private final ExpressionSemiring semiring;
+    private final ScanProbability<T> scanProbability;
+    private final Map<State, Node> nodes = new HashMap<>();
+    private final Comparator<Derivation> bestFirst;
+
+    KBestDerivations(Chart<T> chart) {
+        this.chart = chart;
+        this.stateSets = chart.stateSets;
+        this.semiring = chart.grammar.semiring;
+        this.scanProbability = chart.parseOptions != null ? chart.parseOptions.scanProbability : null;
+        this.bestFirst = (d1, d2) -> semiring.compare(d2.score, d1.score);
+    }
+
+    /**
+     * @param n Rank of the derivation, starting at 0 for the Viterbi derivation
+     * @return The n-th best derivation of given state, or null if the state has no more than n derivations
+     */
+    Derivation get(State state, int n) {
+        return get(getNode(state), n);
+    }
+
+    private Node getNode(State state) {
+        return nodes.computeIfAbsent(state, s -> new Node(s, stateSets.getViterbiScoreDbl(s)));
+    }
+
+    private Derivation get(Node node, int n) {
+        if (n < node.derivations.size()) return node.derivations.get(n);
+        // Asked for a derivation that depends on itself
+        if (node.enumerating) return null;
+
+        node.enumerating = true;
+        if (node.candidates == null) initialize(node);
+        while (node.derivations.size() <= n) {
+            while (node.expanded < node.derivations.size())
+                pushSuccessors(node, node.derivations.get(node.expanded++));
+            final Derivation next = node.candidates.poll();
+            if (next == null) break;
+            node.derivations.add(next);
+        }
+        node.enumerating = false;
+        return n < node.derivations.size() ? node.derivations.get(n) : null;
+    }
+
+    /**
+     * Adds the best derivation over every incoming edge as a candidate
+     */
+    private void initialize(Node node) {
+        node.candidates = new PriorityQueue<>(bestFirst);
+        final State state = node.state;
+        if (state.ruleDotPosition <= 0) {
+            node.candidates.add(new Derivation(null, null, node.viterbi));
+            return;
+        }
+
+        final Category prefixEnd = state.rule.getRight()[state.ruleDotPosition - 1];
+        if (prefixEnd instanceof Terminal) {
+            // An error token may span multiple tokens, in which case the dot stays put
+            final int preScanDot = prefixEnd instanceof NonLexicalToken
+                    && state.ruleDotPosition + state.ruleStartPosition != state.position
+                    ? state.ruleDotPosition
+                    : state.ruleDotPosition - 1;
+            final State preScanState = stateSets.get(state.position - 1, state.ruleStartPosition, preScanDot, state.rule);
+            if (preScanState != null) addEdge(node, new ScanEdge(state, prefixEnd, getNode(preScanState)));
+        } else {
+            if (!(prefixEnd instanceof NonTerminal)) throw new IssueRequest("Something went terribly wrong.");
+            for (State completed : stateSets.completedStates.getCompletedStates(state.position, (NonTerminal) prefixEnd))
+                if (completed.ruleStartPosition >= state.ruleStartPosition) {
+                    final State predecessor = stateSets.get(completed.ruleStartPosition, state.ruleStartPosition, state.ruleDotPosition - 1, state.rule);
+                    if (predecessor != null) addEdge(node, new Edge(getNode(predecessor), getNode(completed)));
+                }
+        }
+    }
+
+    private void addEdge(Node head, Edge edge) {
+        for (Node tail : edge.tails) if (Double.isNaN(tail.viterbi)) return;
+        final int[] best = new int[edge.tails.length];
+        edge.seen.add(key(best));
+        head.candidates.add(new Derivation(edge, best, score(edge, best)));
+    }
+
+    /**
+     * Adds the derivations that use the next best derivation of one of the tails of given derivation as candidates
+     */
+    private void pushSuccessors(Node node, Derivation derivation) {
+        final Edge edge = derivation.edge;
+        if (edge == null) return;
+        for (int t = 0; t < edge.tails.length; t++) {
+            final int[] successor = derivation.tails.clone();
+            successor[t]++;
+            if (edge.seen.add(key(successor)) && get(edge.tails[t], successor[t]) != null)
+                node.candidates.add(new Derivation(edge, successor, score(edge, successor)));
+        }
+    }
+
+    private static long key(int[] tails) {
+        return tails.length == 1 ? tails[0] : ((long) tails[0] << 32) | (tails[1] & 0xFFFFFFFFL);
+    }
+
+    private double score(Edge edge, int[] tails) {
+        final double predecessor = score(edge.tails[0], tails[0]);
+        return edge.tails.length == 1
+                ? ((ScanEdge) edge).score(predecessor)
+                // Same order as when the chart computes Viterbi scores, so the best derivation gets the same score
+                : semiring.times(score(edge.tails[1], tails[1]), predecessor);
+    }
+
+    private double score(Node node, int n) {
+        return n == 0 ? node.viterbi : node.derivations.get(n).score;
+    }
+
+    /**
+     * @return Parse tree of given derivation of given state
+     */
+    ParseTree getParseTree(State state, Derivation derivation) {
+        // Finished subtrees whose parent is not finished yet, as in Parser#getViterbiParse(State, Chart)
+        final List<ParseTree> subtrees = new ArrayList<>();
+        final Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(getNode(state), derivation));
+        while (true) {
+            final Frame frame = stack.peek();
+            final Edge edge = frame.derivation.edge;
+            if (edge == null) {
+                stack.pop();
+                final ParseTree tree = ParseTree.takeChildren(frame.category, subtrees, frame.children);
+                if (stack.isEmpty()) return tree;
+                subtrees.add(tree);
+                stack.peek().children++;
+                continue;
+            }
+
+            final int[] tails = frame.derivation.tails;
+            if (edge.tails.length == 1) {
+                final ScannedToken<T> scannedToken = stateSets.getScannedToken(frame.node.state);
+                subtrees.add(new ParseTree.Leaf<>(scannedToken));
+                frame.children++;
+            } else {
+                final Node completed = edge.tails[1];
+                stack.push(new Frame(completed, get(completed, tails[1])));
+            }
+            frame.node = edge.tails[0];
+            frame.derivation = get(frame.node, tails[0]);
+        }
+    }
+
+    /**
+     * A derivation of a state: an incoming edge and the rank of the derivation of each of its tails
+     */
+    static final class Derivation {
+        /**
+         * Null for predicted states
+         */
+        private final Edge edge;
+        private final int[] tails;
+        final double score;
+
+        private Derivation(Edge edge, int[] tails, double score) {
+            this.edge = edge;
+            this.tails = tails;
+            this.score = score;
+        }
+    }
+
+    private static final class Node {
+        private final State state;
+        private final double viterbi;
+        /**
+         * Derivations found so far, best first
+         */
+        private final List<Derivation> derivations = new ArrayList<>(1);
+        private PriorityQueue<Derivation> candidates;
+        /**
+         * Number of derivations whose successors are candidates
+         */
+        private int expanded;
+        private boolean enumerating;
+
+        private Node(State state, double viterbi) {
+            this.state = state;
+            this.viterbi = viterbi;
+        }
+    }
+
+    /**
+     * Completion: the tails are the predecessor state and the completed state
+     */
+    private static class Edge {
+        final Node[] tails;
+        /**
+         * Ranks of the tail derivations that have been candidates
+         */
+        final TLongSet seen = new TLongHashSet(4);
+
+        Edge(Node... tails) {
+            this.tails = tails;
+        }
+    }
+
+    private final class ScanEdge extends Edge {
+        private final double scanProbability;
+        private final double kleeneContinuation;
+
+        private ScanEdge(State scanned, Category scannedCategory, Node preScan) {
+            super(preScan);
+            final State preScanState = preScan.state;
+            this.kleeneContinuation = scannedCategory instanceof KleeneClosure
+                    && preScanState.position > preScanState.ruleDotPosition + preScanState.ruleStartPosition
+                    ? preScanState.rule.probabilityAsSemiringElement
+                    : Double.NaN;
+            if (KBestDerivations.this.scanProbability == null) this.scanProbability = Double.NaN;
+            else {
+                final Token<T> token = stateSets.getScannedToken(scanned).scannedToken;
+                this.scanProbability = Scan.getScanProb(
+                        KBestDerivations.this.scanProbability,
+                        new TokenWithCategories<>(token, chart.grammar.getCategories(token)),
+                        preScanState.position
+                );
+            }
+        }
+
+        private double score(double preScan) {
+            return Scan.calculateInnerScore(scanProbability, semiring, Double.isNaN(kleeneContinuation)
+                    ? preScan
+                    : semiring.times(preScan, kleeneContinuation));
+        }
+    }
+
+    private final class Frame {
+        private final Category category;
+        private Node node;
+        private Derivation derivation;
+        private int children;
+
+        private Frame(Node node, Derivation derivation) {
+            this.category = node.state.rule.left;
+            this.node = node;
+            this.derivation = derivation;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.leibnizcenter.cfg.earleyparser;
+
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.earleyparser.chart.Chart;
+import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+
+/**
+ * Thrown when a parse hits one of the limits in its {@link org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions
+ * ParseOptions}: a timeout, a maximum number of states, or a cancellation. Carries statistics of the parse so far,
+ * and the partial chart, from which {@link #getBestPartialParse(NonTerminal) the best analysis of a prefix} of the
+ * input can be recovered.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ParseAbortedException extends RuntimeException {
+    public enum Reason {
+        TIMEOUT, STATE_LIMIT, CANCELLED
+    }
+
+    public final Reason reason;
+    /**
+     * Chart position that was being processed when the parse was aborted
+     */
+    public final int position;
+    /**
+     * Last chart position up to which predict, scan and complete had finished, so that the chart is complete up to
+     * this position
+     */
+    public final int lastFinishedPosition;
+    /**
+     * Number of states created in the chart
+     */
+    public final long createdStates;
+    public final long elapsedNanos;
+    private final transient Chart<?> chart;
+
+    public ParseAbortedException(Reason reason, int position, int lastFinishedPosition, long createdStates, long elapsedNanos, Chart<?> chart) {
+        super("Parse aborted (" + reason + ") at position " + position
+                + " after " + createdStates + " states and " + (elapsedNanos / 1000000) + " ms");
+        this.reason = reason;
+        this.position = position;
+        this.lastFinishedPosition = lastFinishedPosition;
+        this.createdStates = createdStates;
+        this.elapsedNanos = elapsedNanos;
+        this.chart = chart;
+    }
+
+    /**
+     * @return Chart as it was when the parse was aborted. Positions after {@link #lastFinishedPosition} may be
+     * incomplete. Null if this exception was deserialized.
+     */
+    public Chart<?> getChart() {
+        return chart;
+    }
+
+    /**
+     * Degrades to the best analysis of the longest prefix of the input that given goal derives, within the part of
+     * the chart that was finished. Needs the chart positions of that prefix, so is not available when
+     * {@link org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions.Builder#withStreaming streaming}.
+     *
+     * @param goal Goal category, typically the one that was parsed for
+     * @return Viterbi parse of the longest prefix that given goal derives, or null if there is none
+     */
+    public ParseTreeWithScore getBestPartialParse(NonTerminal goal) {
+        if (chart == null) return null;
+        for (int end = lastFinishedPosition; end > 0; end--) {
+            State best = null;
+            double bestScore = Double.NaN;
+            for (State state : chart.stateSets.completedStates.getCompletedStates(end, goal)) {
+                if (state.ruleStartPosition != 0) continue;
+                final double score = chart.stateSets.getViterbiScoreDbl(state);
+                if (best == null || chart.grammar.semiring.compare(score, bestScore) > 0) {
+                    best = state;
+                    bestScore = score;
+                }
+            }
+            if (best != null)
+                return new ParseTreeWithScore(Parser.getViterbiParse(best, chart), chart.getViterbiScore(best), chart.grammar.semiring);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,343 @@
+package org.leibnizcenter.cfg.earleyparser;
+
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.DblSemiring;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.NonLexicalToken;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.earleyparser.callbacks.ScanProbability;
+import org.leibnizcenter.cfg.earleyparser.chart.Chart;
+import org.leibnizcenter.cfg.earleyparser.chart.state.ScannedToken;
+import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+import org.leibnizcenter.cfg.earleyparser.chart.statesets.StateSets;
+import org.leibnizcenter.cfg.errors.IssueRequest;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.rule.Rule;
+import org.leibnizcenter.cfg.token.Token;
+import org.leibnizcenter.cfg.token.TokenWithCategories;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Shared packed parse forest (SPPF) that represents all parses of a sentence, built from a parsed chart. Its size is
+ * polynomial in the length of the sentence, even when the number of parses is exponential.
+ * </p>
+ * <p>
+ * A {@link SymbolNode} stands for a category over a span of the input, and an {@link IntermediateNode} stands for a
+ * rule whose right hand side has been parsed up to a dot position over a span. Every alternative analysis of a node
+ * is a {@link PackedNode}, which is binarized: it has the analysis of the right hand side up to its last symbol as
+ * its left child, and the last symbol as its right child. So trees are shared between alternatives wherever they
+ * overlap.
+ * </p>
+ * <p>
+ * Scores are inner scores as semiring elements, so the score of the {@link #getRoot() root} is the probability of
+ * the sentence. The score of a terminal is the probability of scanning its token. Unit productions may make the
+ * forest cyclic.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public class ParseForest {
+    public final DblSemiring semiring;
+    private final SymbolNode root;
+    private final List<Node> nodes;
+
+    private ParseForest(DblSemiring semiring, SymbolNode root, List<Node> nodes) {
+        this.semiring = semiring;
+        this.root = root;
+        this.nodes = Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * @param chart Parsed chart with inner scores
+     * @param goal  Goal category
+     * @param end   Position in the chart after the last token
+     * @return Forest of all parses of given goal over the whole input
+     */
+    static <T> ParseForest create(Chart<T> chart, NonTerminal goal, int end) {
+        return new Builder<>(chart).build(goal, end);
+    }
+
+    /**
+     * @return Node for the goal category over the whole input, or null if the input does not match the goal
+     */
+    public SymbolNode getRoot() {
+        return root;
+    }
+
+    /**
+     * @return All nodes in this forest, in breadth-first order from the root
+     */
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return Probability of the sentence, which is the sum of the probabilities of all parses
+     */
+    public double getProbability() {
+        return root == null ? 0.0 : semiring.toProbability(root.innerScore);
+    }
+
+    public static abstract class Node {
+        public final int start;
+        public final int end;
+        /**
+         * Inner score of this node as a semiring element, which is the total score of all its analyses
+         */
+        public final double innerScore;
+        final List<PackedNode> alternatives = new ArrayList<>(1);
+
+        private Node(int start, int end, double innerScore) {
+            this.start = start;
+            this.end = end;
+            this.innerScore = innerScore;
+        }
+
+        /**
+         * @return Alternative analyses of this node. Empty for terminals.
+         */
+        public List<PackedNode> getAlternatives() {
+            return Collections.unmodifiableList(alternatives);
+        }
+
+        public boolean isAmbiguous() {
+            return alternatives.size() > 1;
+        }
+    }
+
+    /**
+     * A category over a span of the input
+     */
+    public static final class SymbolNode extends Node {
+        public final Category category;
+        /**
+         * Scanned token if the category is a terminal, null otherwise
+         */
+        public final Token<?> token;
+
+        private SymbolNode(Category category, int start, int end, double innerScore, Token<?> token) {
+            super(start, end, innerScore);
+            this.category = category;
+            this.token = token;
+        }
+
+        @Override
+        public String toString() {
+            return category + "(" + start + ", " + end + ")";
+        }
+    }
+
+    /**
+     * A rule that is parsed up to its dot position, over a span of the input
+     */
+    public static final class IntermediateNode extends Node {
+        public final Rule rule;
+        public final int ruleDotPosition;
+
+        private IntermediateNode(Rule rule, int ruleDotPosition, int start, int end, double innerScore) {
+            super(start, end, innerScore);
+            this.rule = rule;
+            this.ruleDotPosition = ruleDotPosition;
+        }
+
+        @Override
+        public String toString() {
+            return rule.toString(ruleDotPosition) + "(" + start + ", " + end + ")";
+        }
+    }
+
+    /**
+     * One analysis of a node
+     */
+    public static final class PackedNode {
+        public final Rule rule;
+        /**
+         * Position where the last symbol of the analysis starts
+         */
+        public final int pivot;
+        /**
+         * Analysis of the right hand side before the last symbol, or null if the last symbol is the first one
+         */
+        public final IntermediateNode left;
+        /**
+         * Last symbol of the analysis
+         */
+        public final SymbolNode right;
+        /**
+         * Total score of the parses that use this analysis, as a semiring element
+         */
+        public final double innerScore;
+
+        private PackedNode(Rule rule, int pivot, IntermediateNode left, SymbolNode right, double innerScore) {
+            this.rule = rule;
+            this.pivot = pivot;
+            this.left = left;
+            this.right = right;
+            this.innerScore = innerScore;
+        }
+
+        /**
+         * @return Children of this analysis, left to right
+         */
+        public List<Node> getChildren() {
+            return left == null ? Collections.singletonList(right) : Arrays.asList(left, right);
+        }
+    }
+
+    private static final class SymbolKey {
+        private final Category category;
+        private final int start;
+        private final int end;
+
+        private SymbolKey(Category category, int start, int end) {
+            this.category = category;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final SymbolKey that = (SymbolKey) o;
+            return start == that.start && end == that.end && category.equals(that.category);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * category.hashCode() + start) + end;
+        }
+    }
+
+    /**
+     * Adds the reachable nodes breadth-first, with a work list instead of recursion
+     */
+    private static final class Builder<T> {
+        private final StateSets<T> stateSets;
+        private final Grammar<T> grammar;
+        private final DblSemiring semiring;
+        private final ScanProbability<T> scanProbability;
+        private final Map<SymbolKey, SymbolNode> symbolNodes = new HashMap<>();
+        private final Map<State, IntermediateNode> intermediateNodes = new HashMap<>();
+        private final List<Node> nodes = new ArrayList<>();
+        /**
+         * States whose alternatives are to be added to the node at the same index in {@link #nodes}
+         */
+        private final List<Collection<State>> states = new ArrayList<>();
+
+        private Builder(Chart<T> chart) {
+            this.stateSets = chart.stateSets;
+            this.grammar = chart.grammar;
+            this.semiring = chart.grammar.semiring;
+            this.scanProbability = chart.parseOptions != null ? chart.parseOptions.scanProbability : null;
+        }
+
+        private ParseForest build(NonTerminal goal, int end) {
+            final Collection<State> completed = getCompletedStates(goal, 0, end);
+            if (completed.isEmpty()) return new ParseForest(semiring, null, Collections.emptyList());
+
+            final SymbolNode root = getSymbolNode(goal, 0, end, null);
+            for (int i = 0; i < nodes.size(); i++) {
+                final Node node = nodes.get(i);
+                for (State state : states.get(i)) addAlternatives(node, state);
+                states.set(i, null);
+            }
+            return new ParseForest(semiring, root, nodes);
+        }
+
+        private Collection<State> getCompletedStates(NonTerminal category, int start, int end) {
+            final List<State> completed = new ArrayList<>();
+            for (State state : stateSets.completedStates.getCompletedStates(end, category))
+                if (state.ruleStartPosition == start) completed.add(state);
+            return completed;
+        }
+
+        private SymbolNode getSymbolNode(Category category, int start, int end, Token<T> token) {
+            final SymbolKey key = new SymbolKey(category, start, end);
+            SymbolNode node = symbolNodes.get(key);
+            if (node == null) {
+                if (category instanceof NonTerminal) {
+                    final Collection<State> completed = getCompletedStates((NonTerminal) category, start, end);
+                    double inner = semiring.zero();
+                    for (State state : completed) inner = semiring.plus(inner, stateSets.innerScores.get(state));
+                    node = new SymbolNode(category, start, end, inner, null);
+                    add(node, completed);
+                } else {
+                    final double scanned = token == null ? Double.NaN
+                            : Scan.getScanProb(scanProbability, new TokenWithCategories<>(token, grammar.getCategories(token)), start);
+                    node = new SymbolNode(category, start, end, Double.isNaN(scanned) ? semiring.one() : scanned, token);
+                    add(node, Collections.emptyList());
+                }
+                symbolNodes.put(key, node);
+            }
+            return node;
+        }
+
+        /**
+         * @return Node for given state, or null for a predicted state
+         */
+        private IntermediateNode getIntermediateNode(State state) {
+            if (state.ruleDotPosition <= 0) return null;
+            IntermediateNode node = intermediateNodes.get(state);
+            if (node == null) {
+                node = new IntermediateNode(state.rule, state.ruleDotPosition, state.ruleStartPosition, state.position, stateSets.innerScores.get(state));
+                add(node, Collections.singletonList(state));
+                intermediateNodes.put(state, node);
+            }
+            return node;
+        }
+
+        private void add(Node node, Collection<State> statesToExpand) {
+            nodes.add(node);
+            states.add(statesToExpand);
+        }
+
+        /**
+         * Adds the analyses of given state to given node
+         */
+        private void addAlternatives(Node node, State state) {
+            final Rule rule = state.rule;
+            final int start = state.ruleStartPosition;
+            final int dot = state.ruleDotPosition;
+            final Category prefixEnd = rule.getRight()[dot - 1];
+            if (prefixEnd instanceof Terminal) {
+                // An error token may span multiple tokens, in which case the dot stays put
+                final int preScanDot = prefixEnd instanceof NonLexicalToken && dot + start != state.position ? dot : dot - 1;
+                final State preScanState = stateSets.get(state.position - 1, start, preScanDot, rule);
+                if (preScanState == null) return;
+                final ScannedToken<T> scannedToken = stateSets.getScannedToken(state);
+                node.alternatives.add(new PackedNode(
+                        rule,
+                        state.position - 1,
+                        getIntermediateNode(preScanState),
+                        getSymbolNode(prefixEnd, state.position - 1, state.position, scannedToken == null ? null : scannedToken.scannedToken),
+                        stateSets.innerScores.get(state)
+                ));
+            } else {
+                if (!(prefixEnd instanceof NonTerminal)) throw new IssueRequest("Something went terribly wrong.");
+                final TIntSet pivots = new TIntHashSet();
+                for (State completed : stateSets.completedStates.getCompletedStates(state.position, (NonTerminal) prefixEnd)) {
+                    final int pivot = completed.ruleStartPosition;
+                    if (pivot < start || !pivots.add(pivot)) continue;
+                    final State predecessor = stateSets.get(pivot, start, dot - 1, rule);
+                    if (predecessor == null) continue;
+                    final SymbolNode completedNode = getSymbolNode(prefixEnd, pivot, state.position, null);
+                    node.alternatives.add(new PackedNode(
+                            rule,
+                            pivot,
+                            getIntermediateNode(predecessor),
+                            completedNode,
+                            semiring.times(stateSets.innerScores.get(predecessor), completedNode.innerScore)
+                    ));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.leibnizcenter.cfg.earleyparser;
+
+import org.leibnizcenter.cfg.algebra.semiring.dbl.DblSemiring;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions;
+import org.leibnizcenter.cfg.earleyparser.chart.ChartWithInputPosition;
+import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.token.Token;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Parses a stream of tokens one token at a time, and reports the prefix probability and surprisal of every token
+ * as it comes in.
+ * <p>
+ * The prefix probability of <code>w<sub>0</sub> ... w<sub>i</sub></code> is the probability that the goal category
+ * derives a string that starts with these tokens. Following Stolcke (1995), it is the sum of the forward scores of
+ * the states that have just scanned <code>w<sub>i</sub></code>. The surprisal of <code>w<sub>i</sub></code> is
+ * <code>-log<sub>2</sub> P(w<sub>i</sub> | w<sub>0</sub> ... w<sub>i-1</sub>)</code>, the difference of two
+ * consecutive log prefix probabilities. Both are computed in log space, so they don't underflow on long streams
+ * if the grammar uses the {@link org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring LogSemiring}.
+ * <p>
+ * Combine with {@link ParseOptions.Builder#withStreaming(boolean) streaming} to parse unbounded streams in bounded
+ * memory. Note that {@link ParseOptions.Builder#withBeam beam pruning} lowers prefix probabilities, because pruned
+ * states don't contribute. Not thread-safe.
+ */
+public class ParseSession<T> {
+    private static final double LN_2 = Math.log(2.0);
+
+    private final Grammar<T> grammar;
+    private final ChartWithInputPosition<T> chart;
+    private double prefixLogProbability = 0.0;
+
+    public ParseSession(Grammar<T> grammar, NonTerminal goal) {
+        this(grammar, goal, null);
+    }
+
+    /**
+     * @throws IllegalArgumentException If given options {@link ParseOptions.Builder#withViterbiOnly only compute
+     *                                  Viterbi scores}, because prefix probabilities are sums of forward scores
+     */
+    public ParseSession(Grammar<T> grammar, NonTerminal goal, ParseOptions<T> parseOptions) {
+        this.grammar = grammar;
+        this.chart = new ChartWithInputPosition<>(grammar, goal, parseOptions);
+        if (chart.chart.isViterbiOnly())
+            throw new IllegalArgumentException("Prefix probabilities need forward scores, which are not computed when only computing Viterbi scores");
+    }
+
+    /**
+     * Parses the next token
+     *
+     * @return Prefix probability and surprisal after given token. If the token was dropped (see
+     * {@link org.leibnizcenter.cfg.earleyparser.scan.ScanMode#DROP}), the prefix probability does not change and
+     * the surprisal is 0.
+     */
+    public PrefixProbability<T> next(Token<T> token) {
+        final int chartIndexBefore = chart.chartIndex;
+        chart.next(token);
+
+        final double previous = prefixLogProbability;
+        if (chart.chartIndex != chartIndexBefore) prefixLogProbability = computePrefixLogProbability();
+
+        final double surprisal = previous == Double.NEGATIVE_INFINITY
+                ? Double.POSITIVE_INFINITY
+                : (previous - prefixLogProbability) / LN_2;
+        return new PrefixProbability<>(token, chart.tokenIndex - 1, prefixLogProbability, surprisal);
+    }
+
+    private double computePrefixLogProbability() {
+        final DblSemiring semiring = grammar.semiring;
+        final Set<State> states = chart.chart.getStates(chart.chartIndex);
+        double prefixScore = semiring.zero();
+        if (states != null) for (State state : states)
+            if (isJustScanned(state))
+                prefixScore = semiring.plus(prefixScore, chart.chart.getForwardScore(state));
+        return semiring.toLogProbability(prefixScore);
+    }
+
+    private static boolean isJustScanned(State state) {
+        return state.ruleDotPosition > 0 && state.rule.right[state.ruleDotPosition - 1] instanceof Terminal;
+    }
+
+    /**
+     * @return Probability that the goal derives a string that starts with the tokens so far
+     */
+    public double getPrefixProbability() {
+        return Math.exp(prefixLogProbability);
+    }
+
+    /**
+     * @return Natural logarithm of {@link #getPrefixProbability()}
+     */
+    public double getPrefixLogProbability() {
+        return prefixLogProbability;
+    }
+
+    /**
+     * @return Probability that the goal derives exactly the tokens so far
+     */
+    public double getSentenceProbability() {
+        final Collection<State> completed = chart.chart.stateSets.completedStates.getCompletedStates(chart.chartIndex, Category.START);
+        double score = grammar.semiring.zero();
+        for (State state : completed) score = grammar.semiring.plus(score, chart.chart.getForwardScore(state));
+        return grammar.semiring.toProbability(score);
+    }
+
+    /**
+     * @return Chart that this session fills
+     */
+    public ChartWithInputPosition<T> getChart() {
+        return chart;
+    }
+
+    /**
+     * Prefix probability and surprisal after a token
+     */
+    public static class PrefixProbability<T> {
+        public final Token<T> token;
+        /**
+         * Position of the token in the token stream
+         */
+        public final int tokenIndex;
+        /**
+         * Natural logarithm of the prefix probability up to and including the token
+         */
+        public final double logProbability;
+        /**
+         * Surprisal of the token in bits
+         */
+        public final double surprisal;
+
+        PrefixProbability(Token<T> token, int tokenIndex, double logProbability, double surprisal) {
+            this.token = token;
+            this.tokenIndex = tokenIndex;
+            this.logProbability = logProbability;
+            this.surprisal = surprisal;
+        }
+
+        public double getProbability() {
+            return Math.exp(logProbability);
+        }
+
+        @Override
+        public String toString() {
+            return "PrefixProbability{" +
+                    "token=" + token +
+                    ", tokenIndex=" + tokenIndex +
+                    ", p=" + getProbability() +
+                    ", surprisal=" + surprisal +
+                    '}';
+        }
+    }
+}
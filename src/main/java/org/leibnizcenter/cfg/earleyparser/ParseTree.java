@@ -8,6 +8,7 @@ import org.leibnizcenter.cfg.earleyparser.chart.state.State;
 import org.leibnizcenter.cfg.grammar.Grammar;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.function.BiFunction;
@@ -56,6 +57,20 @@ public abstract class ParseTree {
         this.children = children;
     }
 
+    /**
+     * Moves the last trees of given list into the children of a new node. The trees are assumed to have been added
+     * right to left, so the last tree in the list becomes the leftmost child.
+     *
+     * @param subtrees Trees to take the children from
+     * @param count    Number of children
+     * @return Node with exactly <code>count</code> children, backed by an array
+     */
+    static NonLeaf takeChildren(Category category, List<ParseTree> subtrees, int count) {
+        final ParseTree[] children = new ParseTree[count];
+        for (int i = 0; i < count; i++) children[i] = subtrees.remove(subtrees.size() - 1);
+        return new NonLeaf(category, Arrays.asList(children));
+    }
+
     private static Stream<ParseTree> getFlattenedStream(
             BiFunction<List<ParseTree>, ParseTree, FlattenOption> subTreesToKeep,
             List<ParseTree> parents,
@@ -95,10 +110,6 @@ public abstract class ParseTree {
         return children;
     }
 
-    void addRightMost(ParseTree tree) {
-        children.add(tree);
-    }
-
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
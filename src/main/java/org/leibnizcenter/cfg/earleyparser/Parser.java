@@ -4,18 +4,26 @@ import org.leibnizcenter.cfg.category.Category;
 import org.leibnizcenter.cfg.category.nonterminal.NonLexicalToken;
 import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
 import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.earleyparser.callbacks.BatchParseCallback;
 import org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions;
 import org.leibnizcenter.cfg.earleyparser.callbacks.ScanProbability;
 import org.leibnizcenter.cfg.earleyparser.chart.Chart;
 import org.leibnizcenter.cfg.earleyparser.chart.ChartWithInputPosition;
-import org.leibnizcenter.cfg.earleyparser.chart.state.ScannedToken;
 import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+import org.leibnizcenter.cfg.earleyparser.scan.ScanMode;
 import org.leibnizcenter.cfg.earleyparser.chart.statesets.StateSets;
 import org.leibnizcenter.cfg.errors.IssueRequest;
 import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.rule.Rule;
 import org.leibnizcenter.cfg.token.Token;
 
-import java.util.Collection;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.leibnizcenter.cfg.util.Collections2.isFilled;
 
@@ -28,7 +36,12 @@ import static org.leibnizcenter.cfg.util.Collections2.isFilled;
 @SuppressWarnings({"WeakerAccess", "unused"})
 public class Parser<T> {
     private final Grammar<T> grammar;
-
+    private volatile Recognizer<T> recognizer;
+    /**
+     * Cleared state sets of an earlier parse on the current thread, for the next parse whose chart is not handed out.
+     * Null while a parse on the current thread is using them.
+     */
+    private final ThreadLocal<StateSets<T>> spareStateSets = new ThreadLocal<>();
 
     public Parser(Grammar<T> grammar) {
         this.grammar = grammar;
@@ -146,90 +159,59 @@ public class Parser<T> {
     }
 
     /**
-     * Performs the backward part of the forward-backward algorithm
+     * Performs the backward part of the forward-backward algorithm. Follows the Viterbi back-pointers with an explicit
+     * stack, so that the depth of the tree is not limited by the call stack.
      */
     public static ParseTree getViterbiParse(State state, Chart chart) {
-        if (state.ruleDotPosition <= 0)
-            // Prediction state
-            return new ParseTree.NonLeaf(state.rule.left);
-        else {
-            Category prefixEnd = state.rule.getRight()[state.ruleDotPosition - 1];
-
-
-            if (prefixEnd instanceof NonLexicalToken) {
-                // Scanned terminal state
-                ScannedToken scannedToken = chart.stateSets.getScannedToken(state);
-//                if (scannedToken.scannedCategory instanceof NonLexicalToken)
-//                    System.out.println(scannedToken.scannedToken);
-                // let \'a = \, call
-                final int position = state.position;
-
-                final int previousDotPosition = state.ruleDotPosition + state.ruleStartPosition == state.position ? state.ruleDotPosition - 1 : state.ruleDotPosition;
-                State state1 = State.create(
-                        state.position - 1,
-                        state.ruleStartPosition,
-                        previousDotPosition,
-                        state.rule
-                );
-                ParseTree T = getViterbiParse(
-                        state1,
-                        chart
-                );
-                if (scannedToken == null) {
-                    throw new NullPointerException();
-                }
-                //noinspection unchecked
-                T.addRightMost(new ParseTree.Leaf<>(scannedToken));
-                return T;
-            } else if (prefixEnd instanceof Terminal) {
-                // Scanned terminal state
-                ScannedToken scannedState = chart.stateSets.getScannedToken(state);
-//                if (scannedState.scannedCategory instanceof NonLexicalToken)
-//                    System.out.println(scannedState.scannedToken);
-                // let \'a = \, call
-                final int position = state.position;
-
-                State preScanState = State.create(
-                        state.position - 1,
-                        state.ruleStartPosition,
-                        state.ruleDotPosition - 1,
-                        state.rule
-                );
-                ParseTree T = getViterbiParse(
-                        preScanState,
-                        chart
-                );
+        final StateSets<?> stateSets = chart.stateSets;
+        // Finished subtrees whose parent is not finished yet. The children of a node are found right to left, so the
+        // leftmost child of the topmost frame is last.
+        final List<ParseTree> subtrees = new ArrayList<>();
+        final Deque<ViterbiFrame> stack = new ArrayDeque<>();
+        stack.push(new ViterbiFrame(state));
+        while (true) {
+            final ViterbiFrame frame = stack.peek();
+            final State s = frame.state;
+            if (s.ruleDotPosition <= 0) {
+                // Prediction state: all children are found
+                stack.pop();
+                final ParseTree tree = frame.toTree(subtrees);
+                if (stack.isEmpty()) return tree;
+                subtrees.add(tree);
+                stack.peek().children++;
+                continue;
+            }
+
+            final Category prefixEnd = s.rule.getRight()[s.ruleDotPosition - 1];
+            if (prefixEnd instanceof Terminal) {
+                // Scanned terminal state. An error token may span multiple tokens, in which case the dot stays put.
+                final int previousDotPosition = prefixEnd instanceof NonLexicalToken
+                        && s.ruleDotPosition + s.ruleStartPosition != s.position
+                        ? s.ruleDotPosition
+                        : s.ruleDotPosition - 1;
                 //noinspection unchecked
-                T.addRightMost(new ParseTree.Leaf<>(scannedState));
-                return T;
+                subtrees.add(new ParseTree.Leaf<>(stateSets.getScannedToken(s)));
+                frame.children++;
+                frame.state = getState(stateSets, s.position - 1, s.ruleStartPosition, previousDotPosition, s.rule);
             } else {
                 if (!(prefixEnd instanceof NonTerminal)) throw new IssueRequest("Something went terribly wrong.");
 
-                // Completed non-terminal state
-                State.ViterbiScore viterbi = chart.getViterbiScore(state); // must exist
-
-                // Completed state that led to the current state
-                State origin = viterbi.origin;
-
-                // Recurse for predecessor state (before the completion happened)
-                State predecessor = State.create(
-                        origin.ruleStartPosition,
-                        state.ruleStartPosition,
-                        state.ruleDotPosition - 1,
-                        state.rule
-                );
-                ParseTree T = getViterbiParse(
-                        predecessor
-                        , chart);
-                // Recurse for completed state
-                ParseTree Tprime = getViterbiParse(origin, chart);
-
-                T.addRightMost(Tprime);
-                return T;
+                // Completed non-terminal state: the completed state that led to the current state is the next child
+                final State origin = chart.getViterbiScore(s).origin;
+                frame.state = getState(stateSets, origin.ruleStartPosition, s.ruleStartPosition, s.ruleDotPosition - 1, s.rule);
+                stack.push(new ViterbiFrame(origin));
             }
         }
     }
 
+    /**
+     * @return The state with given properties in the chart, or a new one if it is not in the chart
+     */
+    private static State getState(StateSets<?> stateSets, int position, int ruleStart, int ruleDotPosition, Rule rule) {
+        final State state = stateSets.get(position, ruleStart, ruleDotPosition, rule);
+        return state != null ? state : State.create(position, ruleStart, ruleDotPosition, rule);
+    }
+
     /**
      * Parses the given list of tokens and returns he parse probability
      *
@@ -246,23 +228,48 @@ public class Parser<T> {
      *
      * @param goal   Goal category, typically S for Sentence
      * @param tokens list of tokens to parse
-     * @return Probability that given string of tokens mathces given non-terminal with given grammar
+     * @return Probability that given string of tokens mathces given non-terminal with given grammar, or the
+     * probability of the best parse if the options only {@link ParseOptions.Builder#withViterbiOnly compute Viterbi scores}
      */
     public double recognize(NonTerminal goal,
                             Iterable<Token<T>> tokens,
                             @SuppressWarnings("SameParameterValue") ParseOptions<T> callbacks) {
-        final ChartWithInputPosition<T> parse = parseAndCountTokens(goal, tokens, callbacks);
+        final ChartWithInputPosition<T> parse = parseReusingStateSets(goal, tokens, callbacks);
         final Collection<State> completedStates = parse.chart.stateSets.completedStates.getCompletedStates(parse.chartIndex, Category.START);
+        final double probability;
         if (isFilled(completedStates)) {
             if (completedStates.size() > 1)
                 throw new IssueRequest("Multiple final states found. This is likely an error.");
-            return completedStates.stream().mapToDouble(finalState ->
+            probability = completedStates.stream().mapToDouble(finalState ->
                     grammar.semiring.toProbability(
-                            parse.chart.getForwardScore(finalState)
+                            parse.chart.isViterbiOnly()
+                                    ? parse.chart.getViterbiScore(finalState).probabilityAsSemiringElement
+                                    : parse.chart.getForwardScore(finalState)
                     )).sum();
         } else {
-            return 0.0;
+            probability = 0.0;
+        }
+        recycle(parse);
+        return probability;
+    }
+
+    /**
+     * Decides whether the given list of tokens matches given goal, without computing any probabilities or parse
+     * trees. Much quicker than {@link #recognize(NonTerminal, Iterable)} for checking grammaticality. Tokens that
+     * match no terminal in the grammar are not accepted, and rules with an {@link NonLexicalToken error} category
+     * only match as in {@link org.leibnizcenter.cfg.earleyparser.scan.ScanMode#STRICT strict} scan mode.
+     *
+     * @param goal   Goal category, typically S for Sentence
+     * @param tokens list of tokens to parse
+     * @return Whether given string of tokens matches given non-terminal with given grammar
+     */
+    public boolean accepts(NonTerminal goal, Iterable<Token<T>> tokens) {
+        Recognizer<T> recognizer = this.recognizer;
+        if (recognizer == null) {
+            recognizer = new Recognizer<>(grammar);
+            this.recognizer = recognizer;
         }
+        return recognizer.accepts(goal, tokens);
     }
 
     public Chart<T> parse(NonTerminal S,
@@ -299,15 +306,19 @@ public class Parser<T> {
             Iterable<Token<T>> tokens,
             ParseOptions<T> callbacks
     ) {
-        ChartWithInputPosition<T> chart = parseAndCountTokens(S, tokens, callbacks);
+        if (callbacks != null && callbacks.streaming)
+            throw new IllegalArgumentException("Can't reconstruct parse trees when streaming, because earlier chart positions are evicted");
+        ChartWithInputPosition<T> chart = parseReusingStateSets(S, tokens, callbacks);
         final StateSets<T> stateSets = chart.chart.stateSets;
         final Collection<State> completedStates = stateSets.completedStates.getCompletedStates(chart.chartIndex, Category.START);
 
         IssueRequest.ensure(completedStates.size() <= 1, "Found more than one Viterbi parse. This is a bug.");
 
-        return completedStates.stream().findAny()
+        final ParseTreeWithScore parse = completedStates.stream().findAny()
                 .map(state -> new ParseTreeWithScore(getViterbiParse(state, chart.chart), chart.chart.getViterbiScore(state), grammar.semiring))
                 .orElseThrow(() -> new RuntimeException("Could not parse sentence with goal " + S));
+        recycle(chart);
+        return parse;
     }
 
     public Chart<T> parse(NonTerminal S,
@@ -331,6 +342,181 @@ public class Parser<T> {
         ).chart;
     }
 
+    /**
+     * Parses many sentences concurrently against the grammar of this parser, which may be shared between threads.
+     * Every sentence gets its own chart.
+     *
+     * @param goal         Goal category, typically S for Sentence
+     * @param sentences    Sentences to parse
+     * @param parseOptions Options to use for every sentence. Note that callbacks in these options may be called from
+     *                     multiple threads at the same time.
+     * @param executor     Executor to run the parses on
+     * @return For every sentence, in input order, a future that completes with its Viterbi parse, or completes
+     * exceptionally if the sentence could not be parsed. To handle results as they arrive, attach a callback to each
+     * future. All sentences are submitted at once and the list keeps every result, so the whole batch is in memory
+     * until the caller drops the list. For large corpora, use
+     * {@link #parseAll(NonTerminal, Iterable, ParseOptions, Executor, int, BatchParseCallback)} instead.
+     */
+    public List<CompletableFuture<ParseTreeWithScore>> parseAll(NonTerminal goal,
+                                                                Iterable<? extends Iterable<Token<T>>> sentences,
+                                                                ParseOptions<T> parseOptions,
+                                                                Executor executor) {
+        final List<CompletableFuture<ParseTreeWithScore>> futures = new ArrayList<>();
+        for (Iterable<Token<T>> sentence : sentences)
+            futures.add(parseAsync(goal, sentence, parseOptions, executor));
+        return futures;
+    }
+
+    /**
+     * @see #parseAll(NonTerminal, Iterable, ParseOptions, Executor)
+     */
+    public List<CompletableFuture<ParseTreeWithScore>> parseAll(NonTerminal goal,
+                                                                Stream<? extends Iterable<Token<T>>> sentences,
+                                                                ParseOptions<T> parseOptions,
+                                                                Executor executor) {
+        return sentences
+                .map(sentence -> parseAsync(goal, sentence, parseOptions, executor))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Parses many sentences concurrently, with at most {@code maxConcurrentParses} sentences in flight at any time.
+     * Sentences are taken from {@code sentences} only when a parse slot is free, and every result is handed to
+     * {@code onParsed} and then dropped, so memory use depends on the number of concurrent parses rather than on the
+     * size of the batch. Returns when every sentence is parsed.
+     *
+     * @param goal                Goal category, typically S for Sentence
+     * @param sentences           Sentences to parse, which may be read lazily
+     * @param parseOptions        Options to use for every sentence. Note that callbacks in these options may be called
+     *                            from multiple threads at the same time.
+     * @param executor            Executor to run the parses on
+     * @param maxConcurrentParses Maximum number of sentences that are submitted to the executor but not yet parsed,
+     *                            typically the parallelism of the executor
+     * @param onParsed            Receives the result of every sentence. May be called from multiple threads at the
+     *                            same time.
+     * @throws InterruptedException If the calling thread was interrupted while waiting for a parse slot
+     */
+    public void parseAll(NonTerminal goal,
+                         Iterable<? extends Iterable<Token<T>>> sentences,
+                         ParseOptions<T> parseOptions,
+                         Executor executor,
+                         int maxConcurrentParses,
+                         BatchParseCallback onParsed) throws InterruptedException {
+        if (maxConcurrentParses <= 0)
+            throw new IllegalArgumentException("Maximum number of concurrent parses must be positive: " + maxConcurrentParses);
+        final Semaphore slots = new Semaphore(maxConcurrentParses);
+        int index = 0;
+        for (Iterable<Token<T>> sentence : sentences) {
+            slots.acquire();
+            final int sentenceIndex = index++;
+            try {
+                parseAsync(goal, sentence, parseOptions, executor).whenComplete((parse, error) -> {
+                    try {
+                        onParsed.onParsed(sentenceIndex, parse, error instanceof CompletionException ? error.getCause() : error);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                slots.release();
+                throw e;
+            }
+        }
+        slots.acquire(maxConcurrentParses);
+    }
+
+    private CompletableFuture<ParseTreeWithScore> parseAsync(NonTerminal goal,
+                                                             Iterable<Token<T>> sentence,
+                                                             ParseOptions<T> parseOptions,
+                                                             Executor executor) {
+        return CompletableFuture.supplyAsync(() -> getViterbiParseWithScore(goal, sentence, parseOptions), executor);
+    }
+
+    /**
+     * Starts parsing a token stream one token at a time, for getting prefix probabilities and surprisal as tokens
+     * come in
+     *
+     * @param goal         Goal category, typically S for Sentence
+     * @param parseOptions Options, may be null
+     */
+    public ParseSession<T> startSession(NonTerminal goal, ParseOptions<T> parseOptions) {
+        return new ParseSession<>(grammar, goal, parseOptions);
+    }
+
+    public ParseForest getParseForest(NonTerminal goal, Iterable<Token<T>> tokens) {
+        return getParseForest(goal, tokens, null);
+    }
+
+    /**
+     * Parses the given list of tokens and returns all parses, packed in a forest with inner scores
+     *
+     * @param goal    Goal category, typically S for Sentence
+     * @param tokens  list of tokens to parse
+     * @param options Parse options. Must compute inner scores, and must not use Leo items, which leave out the
+     *                states of right-recursive derivations
+     * @return Forest of all parses. Its {@link ParseForest#getRoot() root} is null if the tokens do not match given goal.
+     */
+    public ParseForest getParseForest(NonTerminal goal, Iterable<Token<T>> tokens, ParseOptions<T> options) {
+        if (options != null && options.streaming)
+            throw new IllegalArgumentException("Can't build a parse forest when streaming, because earlier chart positions are evicted");
+        if (options != null && options.leoItems)
+            throw new IllegalArgumentException("Can't build a parse forest over Leo items, because they leave out intermediate states");
+        if (options != null && options.viterbiOnly && options.scanMode != ScanMode.SYNCHRONIZE)
+            throw new IllegalArgumentException("Can't build a parse forest without inner scores");
+        final ChartWithInputPosition<T> parse = parseReusingStateSets(goal, tokens, options);
+        final ParseForest forest = ParseForest.create(parse.chart, goal, parse.chartIndex);
+        recycle(parse);
+        return forest;
+    }
+
+    public List<ParseTreeWithScore> getKBestParses(NonTerminal goal, Iterable<Token<T>> tokens, int k) {
+        return getKBestParses(goal, tokens, k, null);
+    }
+
+    /**
+     * Finds the k most probable parses, by lazily enumerating the derivations in the chart (see
+     * {@link KBestDerivations}). The first parse is the Viterbi parse.
+     *
+     * @param goal    Goal category, typically S for Sentence
+     * @param tokens  list of tokens to parse
+     * @param k       Maximum number of parses to return
+     * @param options Parse options. Must not use Leo items, which leave out the states of right-recursive derivations
+     * @return At most k parses in order of decreasing probability, or an empty list if the tokens do not match
+     * given goal
+     */
+    public List<ParseTreeWithScore> getKBestParses(NonTerminal goal,
+                                                   Iterable<Token<T>> tokens,
+                                                   int k,
+                                                   ParseOptions<T> options) {
+        if (k < 1) throw new IllegalArgumentException("k must be positive, but was " + k);
+        if (options != null && options.streaming)
+            throw new IllegalArgumentException("Can't reconstruct parse trees when streaming, because earlier chart positions are evicted");
+        if (options != null && options.leoItems)
+            throw new IllegalArgumentException("Can't enumerate parses over Leo items, because they leave out intermediate states");
+        final ChartWithInputPosition<T> parse = parseReusingStateSets(goal, tokens, options);
+        final Collection<State> completedStates = parse.chart.stateSets.completedStates.getCompletedStates(parse.chartIndex, Category.START);
+        IssueRequest.ensure(completedStates.size() <= 1, "Multiple final states found. This is a bug.");
+        if (completedStates.isEmpty()) {
+            recycle(parse);
+            return Collections.emptyList();
+        }
+
+        final State finalState = completedStates.iterator().next();
+        final KBestDerivations<T> derivations = new KBestDerivations<>(parse.chart);
+        final List<ParseTreeWithScore> parses = new ArrayList<>(k);
+        for (int n = 0; n < k; n++) {
+            final KBestDerivations.Derivation derivation = derivations.get(finalState, n);
+            if (derivation == null) break;
+            parses.add(new ParseTreeWithScore(
+                    derivations.getParseTree(finalState, derivation),
+                    new State.ViterbiScore(derivation.score, null, finalState, grammar.semiring),
+                    grammar.semiring
+            ));
+        }
+        recycle(parse);
+        return parses;
+    }
+
     public ChartWithInputPosition<T> parseAndCountTokens(NonTerminal S,
                                                          Iterable<Token<T>> tokens,
                                                          ParseOptions<T> parseOptions) {
@@ -346,4 +532,52 @@ public class Parser<T> {
         return completeChart;
     }
 
+    /**
+     * Like {@link #parseAndCountTokens(NonTerminal, Iterable, ParseOptions)}, but fills the state sets of an earlier
+     * parse on this thread if there are any, so that short sentences allocate little. Hand the chart back with
+     * {@link #recycle(ChartWithInputPosition)} once nothing refers to it anymore. A chart that is not handed back,
+     * for example because parsing threw, is simply not reused.
+     */
+    private ChartWithInputPosition<T> parseReusingStateSets(NonTerminal goal,
+                                                            Iterable<Token<T>> tokens,
+                                                            ParseOptions<T> parseOptions) {
+        StateSets<T> stateSets = spareStateSets.get();
+        if (stateSets == null) stateSets = new StateSets<>(grammar);
+        else spareStateSets.set(null);
+
+        final ChartWithInputPosition<T> chart = new ChartWithInputPosition<>(grammar, goal, parseOptions, stateSets);
+        for (Token<T> t : tokens) chart.next(t);
+        return chart;
+    }
+
+    /**
+     * Clears the state sets of given chart, and keeps them for the next parse on this thread
+     */
+    private void recycle(ChartWithInputPosition<T> chart) {
+        final StateSets<T> stateSets = chart.chart.stateSets;
+        stateSets.clear();
+        spareStateSets.set(stateSets);
+    }
+
+
+    /**
+     * Node of a Viterbi parse tree under construction
+     */
+    private static final class ViterbiFrame {
+        private final Category category;
+        /**
+         * State whose Viterbi path is still to be followed
+         */
+        private State state;
+        private int children;
+
+        private ViterbiFrame(State state) {
+            this.category = state.rule.left;
+            this.state = state;
+        }
+
+        private ParseTree toTree(List<ParseTree> subtrees) {
+            return ParseTree.takeChildren(category, subtrees, children);
+        }
+    }
 }
@@ -0,0 +1,207 @@
+package org.leibnizcenter.cfg.earleyparser;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.grammar.DottedRuleTable;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.rule.Rule;
+import org.leibnizcenter.cfg.token.Token;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Earley recognizer over the boolean semiring: a state is either in the chart or not, so there are no scores to
+ * compute and no scanned tokens to remember. A state is a dotted rule id from the grammar's {@link DottedRuleTable}
+ * together with its rule start position, and duplicates are suppressed through a bitset over dotted rule ids for
+ * every rule start position.
+ * <p>
+ * Tables are computed once per grammar; {@link #accepts(NonTerminal, Iterable)} is safe to call from multiple threads.
+ */
+final class Recognizer<T> {
+    private static final int NONE = -1;
+    private static final int COMPLETE = -1;
+    private static final int TERMINAL = -2;
+
+    private final Grammar<T> grammar;
+    private final int dottedRuleCount;
+    private final TObjectIntMap<NonTerminal> nonTerminalIndex = new TObjectIntHashMap<>(10, 0.5F, NONE);
+    /**
+     * Non-terminal index of the left hand side of every dotted rule
+     */
+    private final int[] left;
+    /**
+     * Non-terminal index of the active category of every dotted rule, or {@link #COMPLETE} or {@link #TERMINAL}
+     */
+    private final int[] active;
+    private final Category[] activeCategory;
+    /**
+     * For every non-terminal index Z: ids of the rules Y → ·v such that Z =*L&gt; Y
+     */
+    private final int[][] predictions;
+
+    Recognizer(Grammar<T> grammar) {
+        this.grammar = grammar;
+        final DottedRuleTable dottedRules = grammar.dottedRules;
+        this.dottedRuleCount = dottedRules.size();
+        this.left = new int[dottedRuleCount];
+        this.active = new int[dottedRuleCount];
+        this.activeCategory = new Category[dottedRuleCount];
+        for (int id = 0; id < dottedRuleCount; id++) {
+            final Rule rule = dottedRules.getRule(id);
+            final int dot = dottedRules.getDot(id);
+            left[id] = index(rule.left);
+            if (dot >= rule.right.length) active[id] = COMPLETE;
+            else {
+                final Category category = rule.right[dot];
+                activeCategory[id] = category;
+                active[id] = category instanceof NonTerminal ? index((NonTerminal) category) : TERMINAL;
+            }
+        }
+
+        this.predictions = new int[nonTerminalIndex.size()][];
+        nonTerminalIndex.forEachEntry((Z, z) -> {
+            final Set<Rule> rules = grammar.nonZeroLeftStartRules.getOrDefault(Z, Collections.emptySet());
+            final TIntArrayList ids = new TIntArrayList(rules.size());
+            for (Rule rule : rules) ids.add(dottedRules.getId(rule, 0));
+            predictions[z] = ids.toArray();
+            return true;
+        });
+    }
+
+    private int index(NonTerminal nonTerminal) {
+        int index = nonTerminalIndex.get(nonTerminal);
+        if (index == NONE) {
+            index = nonTerminalIndex.size();
+            nonTerminalIndex.put(nonTerminal, index);
+        }
+        return index;
+    }
+
+    private static int dottedRule(long state) {
+        return (int) (state >>> 32);
+    }
+
+    private static int ruleStart(long state) {
+        return (int) state;
+    }
+
+    /**
+     * @return Whether given tokens can be derived from given goal. Tokens that match no terminal are not accepted.
+     */
+    boolean accepts(NonTerminal goal, Iterable<Token<T>> tokens) {
+        final int g = nonTerminalIndex.get(goal);
+        if (g == NONE) return false;
+
+        final List<TIntObjectMap<TLongArrayList>> waiting = new ArrayList<>();
+        StateSet current = new StateSet(0);
+        for (int id : predictions[g]) current.add(id, 0);
+        for (Token<T> token : tokens) {
+            final TLongArrayList scannable = close(current, waiting);
+            current = scan(scannable, grammar.getCategories(token), current.position + 1);
+            if (current.isEmpty()) return false;
+        }
+        close(current, waiting);
+
+        for (int i = 0; i < current.states.size(); i++) {
+            final long state = current.states.get(i);
+            final int id = dottedRule(state);
+            if (active[id] == COMPLETE && left[id] == g && ruleStart(state) == 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Predicts and completes all states at the position of given state set
+     *
+     * @return States that are waiting for a terminal
+     */
+    private TLongArrayList close(StateSet set, List<TIntObjectMap<TLongArrayList>> waiting) {
+        final TIntObjectMap<TLongArrayList> waitingHere = new TIntObjectHashMap<>();
+        waiting.add(waitingHere);
+        final BitSet predicted = new BitSet(predictions.length);
+        final TLongArrayList scannable = new TLongArrayList();
+
+        // Completions and predictions are appended to the list while we iterate over it
+        for (int i = 0; i < set.states.size(); i++) {
+            final long state = set.states.get(i);
+            final int id = dottedRule(state);
+            final int Z = active[id];
+            if (Z == COMPLETE) {
+                // No empty rules, so the completed state started before this position
+                final TLongArrayList completable = waiting.get(ruleStart(state)).get(left[id]);
+                if (completable != null) for (int j = 0; j < completable.size(); j++) {
+                    final long waitingState = completable.get(j);
+                    set.add(dottedRule(waitingState) + 1, ruleStart(waitingState));
+                }
+            } else if (Z == TERMINAL) scannable.add(state);
+            else {
+                TLongArrayList waitingForZ = waitingHere.get(Z);
+                if (waitingForZ == null) {
+                    waitingForZ = new TLongArrayList();
+                    waitingHere.put(Z, waitingForZ);
+                }
+                waitingForZ.add(state);
+                if (!predicted.get(Z)) {
+                    predicted.set(Z);
+                    for (int predictedId : predictions[Z]) set.add(predictedId, set.position);
+                }
+            }
+        }
+        return scannable;
+    }
+
+    private StateSet scan(TLongArrayList scannable, Set<Terminal<T>> categories, int position) {
+        final StateSet next = new StateSet(position);
+        if (!categories.isEmpty()) for (int i = 0; i < scannable.size(); i++) {
+            final long state = scannable.get(i);
+            final int id = dottedRule(state);
+            //noinspection SuspiciousMethodCalls
+            if (categories.contains(activeCategory[id])) next.add(id + 1, ruleStart(state));
+        }
+        return next;
+    }
+
+    /**
+     * States at one position
+     */
+    private final class StateSet {
+        final int position;
+        final TLongArrayList states = new TLongArrayList();
+        /**
+         * Dotted rule ids in this set, by rule start position
+         */
+        private final BitSet[] contains;
+
+        StateSet(int position) {
+            this.position = position;
+            this.contains = new BitSet[position + 1];
+        }
+
+        void add(int dottedRule, int ruleStart) {
+            BitSet ids = contains[ruleStart];
+            if (ids == null) {
+                ids = new BitSet(dottedRuleCount);
+                contains[ruleStart] = ids;
+            }
+            if (!ids.get(dottedRule)) {
+                ids.set(dottedRule);
+                states.add(DottedRuleTable.key(dottedRule, ruleStart));
+            }
+        }
+
+        boolean isEmpty() {
+            return states.isEmpty();
+        }
+    }
+}
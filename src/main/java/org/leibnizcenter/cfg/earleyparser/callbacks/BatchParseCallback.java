@@ -0,0 +1,20 @@
+package org.leibnizcenter.cfg.earleyparser.callbacks;
+
+import org.leibnizcenter.cfg.earleyparser.ParseTreeWithScore;
+
+/**
+ * Receives the result of every sentence in a batch, see
+ * {@link org.leibnizcenter.cfg.earleyparser.Parser#parseAll(org.leibnizcenter.cfg.category.nonterminal.NonTerminal,
+ * Iterable, ParseOptions, java.util.concurrent.Executor, int, BatchParseCallback)}
+ */
+@FunctionalInterface
+public interface BatchParseCallback {
+    /**
+     * Called once for every sentence, from the thread that parsed it
+     *
+     * @param index Index of the sentence in the input
+     * @param parse Viterbi parse of the sentence, or null if it could not be parsed
+     * @param error Why the sentence could not be parsed, or null if it was parsed
+     */
+    void onParsed(int index, ParseTreeWithScore parse, Throwable error);
+}
@@ -0,0 +1,18 @@
+package org.leibnizcenter.cfg.earleyparser.callbacks;
+
+/**
+ * Lets another thread stop a parse. The parser checks the token periodically while predicting, scanning and
+ * completing, and aborts with a {@link org.leibnizcenter.cfg.earleyparser.ParseAbortedException} once it is
+ * cancelled. A token may be shared between parses, to cancel all of them at once.
+ */
+public class CancellationToken {
+    private volatile boolean cancelled = false;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,13 @@
+package org.leibnizcenter.cfg.earleyparser.callbacks;
+
+/**
+ * Receives a profile of the work done for every token, see
+ * {@link ParseOptions.Builder#withInstrumentation(InstrumentationListener)}
+ */
+@FunctionalInterface
+public interface InstrumentationListener {
+    /**
+     * Called after predict, scan and complete are done for a chart position
+     */
+    void onPosition(PositionMetrics metrics);
+}
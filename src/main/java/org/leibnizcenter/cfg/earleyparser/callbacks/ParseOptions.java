@@ -1,9 +1,12 @@
 package org.leibnizcenter.cfg.earleyparser.callbacks;
 
+import org.leibnizcenter.cfg.earleyparser.chart.Beam;
 import org.leibnizcenter.cfg.earleyparser.chart.Chart;
 import org.leibnizcenter.cfg.earleyparser.scan.ScanMode;
 import org.leibnizcenter.cfg.token.TokenWithCategories;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Callbacks for parsing
  * <p>
@@ -23,6 +26,42 @@ public class ParseOptions<T> {
     public final ParseCallback<T> onPreComplete;
     public final ParseCallback<T> onPostComplete;
     public final ScanMode scanMode;
+    /**
+     * Beam for pruning active states after completion, or null to keep all states
+     */
+    public final Beam beam;
+    /**
+     * Whether to complete over memoized deterministic reduction paths (Leo items)
+     */
+    public final boolean leoItems;
+    /**
+     * Whether to only predict rules that may start with the next token
+     */
+    public final boolean lookaheadPrediction;
+    /**
+     * Whether to evict chart positions that can't be reached anymore after every token
+     */
+    public final boolean streaming;
+    /**
+     * Receives a profile of every chart position, or null to disable instrumentation
+     */
+    public final InstrumentationListener instrumentation;
+    /**
+     * Whether to only compute Viterbi scores, and no forward and inner scores
+     */
+    public final boolean viterbiOnly;
+    /**
+     * Wall-clock time that a parse may take in nanoseconds, or 0 for no limit
+     */
+    public final long timeoutNanos;
+    /**
+     * Number of states that a parse may create, or 0 for no limit
+     */
+    public final long maxStates;
+    /**
+     * Token to cancel parses with, or null
+     */
+    public final CancellationToken cancellationToken;
 
 //    public final boolean parallelizePredict;
 //    public final boolean parallelizeScan;
@@ -45,17 +84,39 @@ public class ParseOptions<T> {
             boolean parallelizeScan,
             boolean parallelizeComplete*/
     ) {
-        this.scanProbability = scanProbability;
+        this(new Builder<T>()
+                .withScanProbability(scanProbability)
+                .onPostPredict(onPostPredict)
+                .onPostScan(onPostScan)
+                .onPostComplete(onPostComplete)
+                .onPrePredict(onPrePredict)
+                .onPreScan(onPreScan)
+                .onPreComplete(onPreComplete)
+                .withScanMode(scanMode)
+        );
+    }
 
-        this.onPostPredict = onPostPredict;
-        this.onPostScan = onPostScan;
-        this.onPostComplete = onPostComplete;
+    private ParseOptions(Builder<T> builder) {
+        this.scanProbability = builder.scanProbability;
 
-        this.onPrePredict = onPrePredict;
-        this.onPreScan = onPreScan;
-        this.onPreComplete = onPreComplete;
+        this.onPostPredict = builder.onPostPredict;
+        this.onPostScan = builder.onPostScan;
+        this.onPostComplete = builder.onPostComplete;
 
-        this.scanMode = scanMode;
+        this.onPrePredict = builder.onPrePredict;
+        this.onPreScan = builder.onPreScan;
+        this.onPreComplete = builder.onPreComplete;
+
+        this.scanMode = builder.scanMode;
+        this.beam = builder.beam;
+        this.leoItems = builder.leoItems;
+        this.lookaheadPrediction = builder.lookaheadPrediction;
+        this.streaming = builder.streaming;
+        this.instrumentation = builder.instrumentation;
+        this.viterbiOnly = builder.viterbiOnly;
+        this.timeoutNanos = builder.timeoutNanos;
+        this.maxStates = builder.maxStates;
+        this.cancellationToken = builder.cancellationToken;
 
 //        this.parallelizePredict = parallelizePredict;
 //        this.parallelizeScan = parallelizeScan;
@@ -75,15 +136,15 @@ public class ParseOptions<T> {
     }
 
     public void beforePredict(int i, TokenWithCategories<T> token, Chart<T> chart) {
-        if (this.onPrePredict != null) onPostComplete.on(i, token, chart);
+        if (this.onPrePredict != null) onPrePredict.on(i, token, chart);
     }
 
     public void beforeScan(int i, TokenWithCategories<T> token, Chart<T> chart) {
-        if (this.onPreScan != null) onPostComplete.on(i, token, chart);
+        if (this.onPreScan != null) onPreScan.on(i, token, chart);
     }
 
     public void beforeComplete(int i, TokenWithCategories<T> token, Chart<T> chart) {
-        if (this.onPreComplete != null) onPostComplete.on(i, token, chart);
+        if (this.onPreComplete != null) onPreComplete.on(i, token, chart);
     }
 
 
@@ -99,6 +160,15 @@ public class ParseOptions<T> {
         private ParseCallback<T> onPreComplete;
 
         private ScanMode scanMode;
+        private Beam beam;
+        private boolean leoItems = false;
+        private boolean lookaheadPrediction = false;
+        private boolean streaming = false;
+        private InstrumentationListener instrumentation;
+        private boolean viterbiOnly = false;
+        private long timeoutNanos = 0;
+        private long maxStates = 0;
+        private CancellationToken cancellationToken;
 //        private boolean parallelizePredict = false;
 //        private boolean parallelizeScan = false;
 //        private boolean parallelizeComplete = false;
@@ -149,17 +219,119 @@ public class ParseOptions<T> {
             return this;
         }
 
+        /**
+         * Prune active states whose forward score falls outside given beam, after completion at each position.
+         * This bounds the width of the chart, at the cost of possibly losing the best parse.
+         *
+         * @see Beam#relative(double)
+         * @see Beam#topK(int)
+         */
+        public Builder<T> withBeam(Beam beam) {
+            this.beam = beam;
+            return this;
+        }
+
+        /**
+         * Complete over memoized deterministic reduction paths, after Leo (1991), instead of creating every
+         * intermediate completed state. This makes right-recursive grammars parse in linear space, while keeping the
+         * same scores for the states that are in the chart. Intermediate states on such paths are left out of the
+         * chart, until a Viterbi parse tree is reconstructed through them. Is ignored for {@link ScanMode#SYNCHRONIZE},
+         * because error recovery may add states to earlier positions.
+         */
+        public Builder<T> withLeoItems(boolean leoItems) {
+            this.leoItems = leoItems;
+            return this;
+        }
+
+        /**
+         * Only predict rules whose FIRST set contains one of the categories of the token that is about to be scanned
+         * (see {@link org.leibnizcenter.cfg.grammar.Grammar#mayStartWith}). The other predictions could never be
+         * advanced, so leaving them out does not change the scores of any analysis that survives the next scan.
+         */
+        public Builder<T> withLookaheadPrediction(boolean lookaheadPrediction) {
+            this.lookaheadPrediction = lookaheadPrediction;
+            return this;
+        }
+
+        /**
+         * After every token, evict the states, scores and indexes of all chart positions that no future completion
+         * can reach back to (see {@link org.leibnizcenter.cfg.earleyparser.chart.statesets.StateSets#evictUnreachablePositions(int)}).
+         * This keeps memory bounded on long token streams, as long as the grammar does not keep every position
+         * reachable. Forward, inner and Viterbi scores of the remaining states are unaffected, but Viterbi parse trees
+         * can't be reconstructed. Is ignored for {@link ScanMode#SYNCHRONIZE}, because error recovery revisits earlier
+         * positions.
+         */
+        public Builder<T> withStreaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        /**
+         * Measure the wall time, allocation and number of created states of predict, scan and complete, as well as
+         * the amount of work in completion, and report them to given listener after every chart position. Allocation
+         * is measured through the HotSpot thread MXBean, and is reported as -1 where that is unavailable. When no
+         * listener is set, the parser only pays a null check per phase.
+         *
+         * @see ParseProfile
+         */
+        public Builder<T> withInstrumentation(InstrumentationListener instrumentation) {
+            this.instrumentation = instrumentation;
+            return this;
+        }
+
+        /**
+         * Only compute Viterbi scores, for when only the best parse is needed. Predict, scan and complete then only
+         * propagate max-product scores, and completion skips the sum-product pass. Forward and inner scores are not
+         * set, so {@link org.leibnizcenter.cfg.earleyparser.Parser#recognize recognize} returns the probability of the
+         * best parse instead of the sum over all parses, and prefix probabilities are unavailable. Can't be combined
+         * with a {@link #withBeam beam}, which ranks states by forward score. Is ignored for
+         * {@link ScanMode#SYNCHRONIZE}, because error recovery needs forward scores.
+         */
+        public Builder<T> withViterbiOnly(boolean viterbiOnly) {
+            this.viterbiOnly = viterbiOnly;
+            return this;
+        }
+
+        /**
+         * Abort every parse that takes longer than given wall-clock time with a
+         * {@link org.leibnizcenter.cfg.earleyparser.ParseAbortedException}. The clock starts when the chart is created,
+         * and is checked periodically while predicting, scanning and completing, so a parse may run a little over.
+         *
+         * @param timeout Maximum time, or 0 for no limit
+         */
+        public Builder<T> withTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) throw new IllegalArgumentException("Timeout can't be negative: " + timeout);
+            this.timeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Abort every parse that creates more than given number of states with a
+         * {@link org.leibnizcenter.cfg.earleyparser.ParseAbortedException}, to bound the memory and time spent on
+         * pathologically ambiguous input. States that were pruned or evicted count as well. Checked periodically, so a
+         * parse may create a few more states.
+         *
+         * @param maxStates Maximum number of states, or 0 for no limit
+         */
+        public Builder<T> withMaxStates(long maxStates) {
+            if (maxStates < 0) throw new IllegalArgumentException("Maximum number of states can't be negative: " + maxStates);
+            this.maxStates = maxStates;
+            return this;
+        }
+
+        /**
+         * Abort parses with a {@link org.leibnizcenter.cfg.earleyparser.ParseAbortedException} once given token is
+         * cancelled
+         */
+        public Builder<T> withCancellationToken(CancellationToken cancellationToken) {
+            this.cancellationToken = cancellationToken;
+            return this;
+        }
+
         public ParseOptions<T> build() {
-            return new ParseOptions<>(
-                    scanProbability,
-                    onPostPredict,
-                    onPostScan,
-                    onPostComplete,
-                    onPrePredict,
-                    onPreScan,
-                    onPreComplete,
-                    scanMode
-            );
+            if (viterbiOnly && beam != null && scanMode != ScanMode.SYNCHRONIZE)
+                throw new IllegalArgumentException("Beam pruning needs forward scores, which are not computed when only computing Viterbi scores");
+            return new ParseOptions<>(this);
         }
 
 //        public Builder<T> parallelizeScan() {
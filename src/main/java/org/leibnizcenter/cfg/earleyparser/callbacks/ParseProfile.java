@@ -0,0 +1,62 @@
+package org.leibnizcenter.cfg.earleyparser.callbacks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Collects the {@link PositionMetrics} of a parse, for finding out which inputs or positions blow up. Use a new
+ * profile for every sentence; not thread-safe.
+ */
+public class ParseProfile implements InstrumentationListener {
+    private final List<PositionMetrics> positions = new ArrayList<>();
+
+    @Override
+    public void onPosition(PositionMetrics metrics) {
+        positions.add(metrics);
+    }
+
+    public List<PositionMetrics> getPositions() {
+        return Collections.unmodifiableList(positions);
+    }
+
+    public long getTotalNanos() {
+        return positions.stream().mapToLong(PositionMetrics::getTotalNanos).sum();
+    }
+
+    /**
+     * @return Total allocated bytes, or -1 if the JVM can't measure thread allocation
+     */
+    public long getTotalAllocatedBytes() {
+        long total = 0;
+        for (PositionMetrics metrics : positions) {
+            final long allocated = metrics.getTotalAllocatedBytes();
+            if (allocated < 0) return -1;
+            total += allocated;
+        }
+        return total;
+    }
+
+    public long getStatesCreated() {
+        return positions.stream().mapToLong(PositionMetrics::getStatesCreated).sum();
+    }
+
+    /**
+     * @return Metrics of the position that took the most time, or null if nothing was parsed
+     */
+    public PositionMetrics getSlowestPosition() {
+        return positions.stream().max(Comparator.comparingLong(PositionMetrics::getTotalNanos)).orElse(null);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("ParseProfile{positions=").append(positions.size())
+                .append(", nanos=").append(getTotalNanos())
+                .append(", allocatedBytes=").append(getTotalAllocatedBytes())
+                .append(", statesCreated=").append(getStatesCreated())
+                .append('}');
+        for (PositionMetrics metrics : positions) sb.append('\n').append(metrics);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,99 @@
+package org.leibnizcenter.cfg.earleyparser.callbacks;
+
+/**
+ * Time, allocation and work spent in predict, scan and complete for a single chart position
+ */
+@SuppressWarnings("WeakerAccess")
+public class PositionMetrics {
+    /**
+     * Chart position at which the token was predicted and scanned
+     */
+    public final int position;
+
+    public final long predictNanos;
+    public final long scanNanos;
+    public final long completeNanos;
+
+    /**
+     * Bytes allocated by the parsing thread during predict, or -1 if the JVM can't measure thread allocation
+     */
+    public final long predictAllocatedBytes;
+    /**
+     * Bytes allocated by the parsing thread during scan, or -1 if the JVM can't measure thread allocation
+     */
+    public final long scanAllocatedBytes;
+    /**
+     * Bytes allocated by the parsing thread during complete, or -1 if the JVM can't measure thread allocation
+     */
+    public final long completeAllocatedBytes;
+
+    /**
+     * Number of new states created by predict
+     */
+    public final long statesPredicted;
+    /**
+     * Number of new states created by scan
+     */
+    public final long statesScanned;
+    /**
+     * Number of new states created by complete, including those that were pruned afterwards
+     */
+    public final long statesCompleted;
+
+    /**
+     * Number of times complete added to the forward and inner scores of a state, one per state that was advanced
+     * over a completed state
+     */
+    public final int scoreUpdates;
+    /**
+     * Number of rounds of completion, one per start position of the completed states that were completed over
+     */
+    public final int completionDepth;
+
+    @SuppressWarnings("ConstructorWithTooManyParameters")
+    public PositionMetrics(int position,
+                           long predictNanos, long scanNanos, long completeNanos,
+                           long predictAllocatedBytes, long scanAllocatedBytes, long completeAllocatedBytes,
+                           long statesPredicted, long statesScanned, long statesCompleted,
+                           int scoreUpdates, int completionDepth) {
+        this.position = position;
+        this.predictNanos = predictNanos;
+        this.scanNanos = scanNanos;
+        this.completeNanos = completeNanos;
+        this.predictAllocatedBytes = predictAllocatedBytes;
+        this.scanAllocatedBytes = scanAllocatedBytes;
+        this.completeAllocatedBytes = completeAllocatedBytes;
+        this.statesPredicted = statesPredicted;
+        this.statesScanned = statesScanned;
+        this.statesCompleted = statesCompleted;
+        this.scoreUpdates = scoreUpdates;
+        this.completionDepth = completionDepth;
+    }
+
+    public long getTotalNanos() {
+        return predictNanos + scanNanos + completeNanos;
+    }
+
+    /**
+     * @return Total allocated bytes, or -1 if the JVM can't measure thread allocation
+     */
+    public long getTotalAllocatedBytes() {
+        return predictAllocatedBytes < 0 ? -1 : predictAllocatedBytes + scanAllocatedBytes + completeAllocatedBytes;
+    }
+
+    public long getStatesCreated() {
+        return statesPredicted + statesScanned + statesCompleted;
+    }
+
+    @Override
+    public String toString() {
+        return "PositionMetrics{" +
+                "position=" + position +
+                ", nanos=" + predictNanos + "/" + scanNanos + "/" + completeNanos +
+                ", allocatedBytes=" + predictAllocatedBytes + "/" + scanAllocatedBytes + "/" + completeAllocatedBytes +
+                ", states=" + statesPredicted + "/" + statesScanned + "/" + statesCompleted +
+                ", scoreUpdates=" + scoreUpdates +
+                ", completionDepth=" + completionDepth +
+                '}';
+    }
+}
@@ -0,0 +1,97 @@
+package org.leibnizcenter.cfg.earleyparser.chart;
+
+import org.leibnizcenter.cfg.algebra.semiring.dbl.DblSemiring;
+import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Beam for pruning the chart. After completion at some position, active states at that position whose forward
+ * score falls outside the beam are removed from the chart, so they will not be predicted on, scanned or advanced.
+ * <p>
+ * Completed states are never pruned, because they are needed to reconstruct the Viterbi parse.
+ */
+public abstract class Beam {
+    /**
+     * @param threshold Probability in [0, 1]. States with a forward probability lower than <code>threshold</code>
+     *                  times the best forward probability at the same position are pruned.
+     */
+    public static Beam relative(double threshold) {
+        if (threshold < 0.0 || threshold > 1.0)
+            throw new IllegalArgumentException("Beam threshold should be a probability between 0 and 1, but was " + threshold);
+        return new Relative(threshold);
+    }
+
+    /**
+     * @param k Maximum number of active states to keep per position
+     */
+    public static Beam topK(int k) {
+        if (k < 1) throw new IllegalArgumentException("Beam width should be at least 1, but was " + k);
+        return new TopK(k);
+    }
+
+    /**
+     * @param activeStates Active states at some position
+     * @param forward      Forward score of a state, as a semiring element
+     * @param semiring     Semiring in which forward scores are expressed
+     * @return States that fall outside the beam
+     */
+    abstract Collection<State> getStatesToPrune(Collection<State> activeStates,
+                                                ToDoubleFunction<State> forward,
+                                                DblSemiring semiring);
+
+    private static final class Relative extends Beam {
+        private final double threshold;
+
+        private Relative(double threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        Collection<State> getStatesToPrune(Collection<State> activeStates, ToDoubleFunction<State> forward, DblSemiring semiring) {
+            if (activeStates.isEmpty()) return Collections.emptyList();
+            double best = semiring.zero();
+            for (State state : activeStates) {
+                final double score = forward.applyAsDouble(state);
+                if (semiring.compare(score, best) > 0) best = score;
+            }
+            final double lowerBound = semiring.times(best, semiring.fromProbability(threshold));
+
+            final List<State> toPrune = new ArrayList<>();
+            for (State state : activeStates)
+                if (semiring.compare(forward.applyAsDouble(state), lowerBound) < 0) toPrune.add(state);
+            return toPrune;
+        }
+
+        @Override
+        public String toString() {
+            return "Beam.relative(" + threshold + ")";
+        }
+    }
+
+    private static final class TopK extends Beam {
+        private final int k;
+
+        private TopK(int k) {
+            this.k = k;
+        }
+
+        @Override
+        Collection<State> getStatesToPrune(Collection<State> activeStates, ToDoubleFunction<State> forward, DblSemiring semiring) {
+            if (activeStates.size() <= k) return Collections.emptyList();
+            final List<State> sorted = new ArrayList<>(activeStates);
+            // Most probable first
+            sorted.sort((s1, s2) -> semiring.compare(forward.applyAsDouble(s2), forward.applyAsDouble(s1)));
+            return sorted.subList(k, sorted.size());
+        }
+
+        @Override
+        public String toString() {
+            return "Beam.topK(" + k + ")";
+        }
+    }
+}
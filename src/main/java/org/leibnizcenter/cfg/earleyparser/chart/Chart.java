@@ -1,26 +1,28 @@
 package org.leibnizcenter.cfg.earleyparser.chart;
 
+import gnu.trove.set.TIntSet;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.DblSemiring;
 import org.leibnizcenter.cfg.algebra.semiring.dbl.ExpressionSemiring;
-import org.leibnizcenter.cfg.algebra.semiring.dbl.Resolvable;
 import org.leibnizcenter.cfg.category.Category;
 import org.leibnizcenter.cfg.category.nonterminal.KleeneClosure;
+import org.leibnizcenter.cfg.category.nonterminal.NonLexicalToken;
 import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
 import org.leibnizcenter.cfg.category.terminal.Terminal;
 import org.leibnizcenter.cfg.earleyparser.Complete;
-import org.leibnizcenter.cfg.earleyparser.DeferredStateScoreComputations;
 import org.leibnizcenter.cfg.earleyparser.Scan;
 import org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions;
 import org.leibnizcenter.cfg.earleyparser.callbacks.ScanProbability;
 import org.leibnizcenter.cfg.earleyparser.chart.state.State;
 import org.leibnizcenter.cfg.earleyparser.chart.statesets.StateSets;
+import org.leibnizcenter.cfg.earleyparser.scan.ScanMode;
 import org.leibnizcenter.cfg.errors.IssueRequest;
 import org.leibnizcenter.cfg.grammar.Grammar;
 import org.leibnizcenter.cfg.rule.Rule;
 import org.leibnizcenter.cfg.token.TokenWithCategories;
-import org.leibnizcenter.cfg.util.StateInformationTriple;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -33,6 +35,40 @@ public class Chart<T> {
     public final StateSets<T> stateSets;
     public final Grammar<T> grammar;
     public final ParseOptions<T> parseOptions;
+    /**
+     * Number of states that were pruned because they fell outside the {@link ParseOptions#beam beam}
+     */
+    private int prunedStatesCount = 0;
+    /**
+     * Sum of forward scores of states that were pruned, as a semiring element
+     */
+    private double prunedForwardScore;
+    /**
+     * Memoized deterministic reduction paths, or null if they are not used
+     */
+    private final LeoItems<T> leoItems;
+    /**
+     * Null if instrumentation is disabled
+     */
+    private final Instrumentation instrumentation;
+    /**
+     * Whether only Viterbi scores are computed, see {@link ParseOptions.Builder#withViterbiOnly(boolean)}
+     */
+    private final boolean viterbiOnly;
+    /**
+     * Null if the parse has no timeout, state limit or cancellation token
+     */
+    private final ParseLimits limits;
+    /**
+     * Last position up to which predict, scan and complete have finished
+     */
+    private int lastFinishedPosition = 0;
+    /**
+     * Completed states to complete over at the current position, latest start position first
+     */
+    private final PriorityQueue<State> completionQueue = new PriorityQueue<>(
+            (s1, s2) -> Integer.compare(s2.ruleStartPosition, s1.ruleStartPosition)
+    );
 
     /**
      * Creates a new chart, initializing its internal data structure.
@@ -46,48 +82,34 @@ public class Chart<T> {
 
     public Chart(Grammar<T> grammar, ParseOptions<T> parseOptions
     ) {
-        this.stateSets = new StateSets<>(grammar);
-        this.grammar = grammar;
-        this.parseOptions = parseOptions == null ? new ParseOptions.Builder<T>().build() : parseOptions;
+        this(grammar, parseOptions, new StateSets<>(grammar));
     }
 
-    private static boolean newViterbiIsBetter(State.ViterbiScore viterbiScore, double newViterbiScore) {
-        return viterbiScore == null || viterbiScore.semiring.compare(viterbiScore.probabilityAsSemiringElement, newViterbiScore) < 0;
+    /**
+     * @param stateSets Empty state sets for given grammar to fill, for example ones from an earlier parse that were
+     *                  {@link StateSets#clear() cleared}
+     */
+    public Chart(Grammar<T> grammar, ParseOptions<T> parseOptions, StateSets<T> stateSets) {
+        if (stateSets.grammar != grammar)
+            throw new IllegalArgumentException("State sets belong to a different grammar");
+        if (stateSets.getCreatedStateCount() > 0)
+            throw new IllegalArgumentException("State sets are not empty");
+        this.stateSets = stateSets;
+        this.grammar = grammar;
+        this.parseOptions = parseOptions == null ? new ParseOptions.Builder<T>().build() : parseOptions;
+        this.prunedForwardScore = grammar.semiring.zero();
+        this.leoItems = this.parseOptions.leoItems && this.parseOptions.scanMode != ScanMode.SYNCHRONIZE
+                ? new LeoItems<>(stateSets)
+                : null;
+        this.instrumentation = this.parseOptions.instrumentation != null
+                ? new Instrumentation(this.parseOptions.instrumentation, stateSets)
+                : null;
+        this.viterbiOnly = this.parseOptions.viterbiOnly && this.parseOptions.scanMode != ScanMode.SYNCHRONIZE;
+        this.limits = ParseLimits.create(this, this.parseOptions);
     }
 
-    private static <E> Complete.Delta completeNoViterbiForTriple(int position,
-                                                                 Resolvable prevInner,
-                                                                 Resolvable prevForward,
-                                                                 StateSets<E> stateSets,
-                                                                 StateInformationTriple t) {
-        final int j = t.completedState.ruleStartPosition;
-        final NonTerminal Yl = t.completedState.rule.left;
-
-        // Make i: X_k → lZ·m
-        final Category Z = t.stateToAdvance.getActiveCategory();
-        final Grammar<E> grammar = stateSets.grammar;
-        final double unitStarScore = grammar.getUnitStarScore(Z, Yl);
-
-        final Resolvable fw = grammar.semiring.times(unitStarScore, prevForward, t.completedInner);
-        final Resolvable inner = grammar.semiring.times(unitStarScore, prevInner, t.completedInner);
-
-        if (j != t.stateToAdvance.position) throw new IssueRequest("Index failed. This is a bug.");
-        final State s = State.create(
-                position,
-                t.stateToAdvance.ruleStartPosition,
-                t.stateToAdvance.advanceDot(),
-                t.stateToAdvance.rule
-        );
-        return new Complete.Delta(
-                s,
-                inner,
-                fw,
-                // If this is a new completed state that is no unit production, make a note of it it because we want to recursively call *complete* on these states
-                ((s.rule.isPassive(s.ruleDotPosition)/*isCompleted*/
-                        && !s.rule.isUnitProduction()
-                        && !stateSets.contains(s)))
-
-        );
+    private static boolean newViterbiIsBetter(DblSemiring semiring, double viterbiScore, double newViterbiScore) {
+        return Double.isNaN(viterbiScore) || semiring.compare(viterbiScore, newViterbiScore) < 0;
     }
 
     /**
@@ -113,7 +135,7 @@ public class Chart<T> {
         stateSets.getOrCreate(state);
         stateSets.innerScores.put(state, inner);
         stateSets.forwardScores.put(state, forward);
-        if (stateSets.viterbiScores.get(state) == null)
+        if (stateSets.getViterbiScore(state) == null)
             stateSets.setViterbiScore(new State.ViterbiScore(grammar.semiring.one(), null, state, grammar.semiring));
     }
 
@@ -131,8 +153,31 @@ public class Chart<T> {
         return stateSets.innerScores.get(s);
     }
 
+    /**
+     * @return Whether this chart only has Viterbi scores, and no forward and inner scores
+     */
+    public boolean isViterbiOnly() {
+        return viterbiOnly;
+    }
+
+    /**
+     * @return Last position up to which predict, scan and complete have finished, so that no more states will be
+     * added to earlier positions (except by error recovery)
+     */
+    public int getLastFinishedPosition() {
+        return lastFinishedPosition;
+    }
+
+    /**
+     * @throws org.leibnizcenter.cfg.earleyparser.ParseAbortedException If the parse hit one of its limits
+     */
+    private void checkLimits(int position) {
+        if (limits != null) limits.check(position);
+    }
+
     public State.ViterbiScore getViterbiScore(State s) {
-        return stateSets.viterbiScores.get(s);
+        if (leoItems != null) leoItems.materializeViterbiPath(s);
+        return stateSets.getViterbiScore(s);
     }
 
     public void addInitialState(Category goal) {
@@ -147,9 +192,15 @@ public class Chart<T> {
     public void predict(int i, TokenWithCategories<T> token) {
         Chart<T> chart = this;
         if (parseOptions != null) parseOptions.beforePredict(i, token, chart);
+        if (instrumentation != null) instrumentation.startPredict();
 
-        predict(i);
+        final boolean filterOnLookahead = parseOptions != null && parseOptions.lookaheadPrediction
+                && token != null && token.categories != null
+                // Error recovery may need rules that can't start with the token itself
+                && !token.categories.contains(NonLexicalToken.INSTANCE);
+        predictWithLookahead(i, filterOnLookahead ? token.categories : null);
 
+        if (instrumentation != null) instrumentation.endPredict();
         if (parseOptions != null) parseOptions.onPredict(i, token, chart);
     }
 
@@ -162,13 +213,25 @@ public class Chart<T> {
      * @param index The token index to make predictions at.
      */
     void predict(final int index) {
+        predictWithLookahead(index, null);
+    }
+
+    /**
+     * @param index     The token index to make predictions at.
+     * @param lookahead Categories of the token at given index. If not null, only rules that may start with one of
+     *                  these categories are predicted.
+     */
+    private void predictWithLookahead(final int index, final Set<Terminal<T>> lookahead) {
         // O(|stateset(i)|) = O(|grammar|): For all states <code>i: X<sub>k</sub> → λ·Zμ</code>...
         final Set<State> activeOnNonTerminals = stateSets.activeStates.getActiveOnNonTerminals(index);
         if (activeOnNonTerminals != null && activeOnNonTerminals.size() > 0) {
             assert activeOnNonTerminals.stream()
                     .noneMatch(p -> p.position != index); // all on position == index
             // Copy set to avoid concurrent modification
-            new HashSet<>(activeOnNonTerminals).forEach(this::predictStatesForState);
+            new HashSet<>(activeOnNonTerminals).forEach(state -> {
+                checkLimits(index);
+                predictStatesForState(state, lookahead);
+            });
         }
 
         // Streamy:
@@ -230,23 +293,28 @@ public class Chart<T> {
     }
 
 
-    private void predictStatesForState(State statePredecessor) {
+    private void predictStatesForState(State statePredecessor, Set<Terminal<T>> lookahead) {
         final Category Z = statePredecessor.getActiveCategory();
+        final double prevForward = viterbiOnly ? Double.NaN : stateSets.forwardScores.get(statePredecessor);
         // For all productions Y → v such that R(Z =*L> Y) is nonzero
-        grammar.nonZeroLeftStartRules.get(Z).forEach(Y_to_v -> predictStatesForRule(
-                statePredecessor,
-                Z,
-                Y_to_v
-        ));
+        for (Rule Y_to_v : grammar.nonZeroLeftStartRules.get(Z))
+            // ...that may start with the next token
+            if (lookahead == null || grammar.mayStartWith(Y_to_v, lookahead))
+                predictStatesForRule(statePredecessor, prevForward, Z, Y_to_v);
     }
 
-    private void predictStatesForRule(State statePredecessor, Category activeOnPredecessor, Rule Y_to_v) {
+    private void predictStatesForRule(State statePredecessor, double prevForward, Category activeOnPredecessor, Rule Y_to_v) {
         // we predict state <code>i: Y<sub>i</sub> → ·v</code>
-        final double prevForward = stateSets.forwardScores.get(statePredecessor);
 
         // γ' = P(Y → v)
         final double Y_to_vProbability = Y_to_v.probabilityAsSemiringElement;
 
+        if (viterbiOnly) {
+            final State predicted = stateSets.getOrCreate(statePredecessor.position, statePredecessor.position, 0, Y_to_v);
+            stateSets.setViterbiScore(new State.ViterbiScore(Y_to_vProbability, statePredecessor, predicted, grammar.semiring));
+            return;
+        }
+
         // α' = α * R(Z =*L> Y) * P(Y → v)
         final double newForward = grammar.semiring.times(
                 prevForward,
@@ -254,14 +322,14 @@ public class Chart<T> {
                 Y_to_vProbability
         );
 
-        State predicted = State.create(statePredecessor.position, statePredecessor.position, 0, Y_to_v);
+        final State predicted = stateSets.getOrCreate(statePredecessor.position, statePredecessor.position, 0, Y_to_v);
 
         addPredictedStateToChart(statePredecessor, Y_to_vProbability, newForward, predicted);
     }
 
-    public void addPredictedStateToChart(State statePredecessor, double inner, double forward, State predicted) {
+    public void addPredictedStateToChart(State statePredecessor, double inner, double forward, State state) {
 //        boolean isNewState =
-        stateSets.addIfNew(predicted);
+        final State predicted = stateSets.getOrCreate(state);
 
         //todo
         //assert isNewState || (stateSets.innerScores.get(predicted) == inner || stateSets.innerScores.get(predicted) == grammar.semiring.zero());
@@ -274,9 +342,11 @@ public class Chart<T> {
     public void scan(int i, TokenWithCategories<T> token) {
         final ScanProbability<T> scanProbability = parseOptions != null ? parseOptions.scanProbability : null;
         if (parseOptions != null) parseOptions.beforeScan(i, token, this);
+        if (instrumentation != null) instrumentation.startScan();
 
         scan(i, token, scanProbability);
 
+        if (instrumentation != null) instrumentation.endScan();
         if (parseOptions != null) parseOptions.onScan(i, token, this);
     }
 
@@ -301,18 +371,33 @@ public class Chart<T> {
         final ExpressionSemiring semiring = grammar.semiring;
         for (Terminal<T> activeTerminalType : emptyIfNull(tokenWithCategories.categories)) {
             for (State preScanState : stateSets.activeStates.getActiveOn(chartPosition, activeTerminalType)) {
+                checkLimits(chartPosition);
                 final double scanProb = Scan.getScanProb(scanProbability, tokenWithCategories, chartPosition);
 
-                final double previousForward = stateSets.forwardScores.get(preScanState);
-                final double previousInner = stateSets.innerScores.get(preScanState);
                 final boolean isKleeneContinuation = activeTerminalType instanceof KleeneClosure
                         && preScanState.position > (preScanState.ruleDotPosition + preScanState.ruleStartPosition);
+                final double ruleProbability = preScanState.rule.probabilityAsSemiringElement;
+                /* Create the state <code>i+1: X<sub>k</sub> → λt·μ</code>. Note that this state is unique for each preScanState */
+                final State postScanState = State.create(chartPosition + 1, preScanState.ruleStartPosition, preScanState.advanceDot(), preScanState.rule);
+
+                final double previousViterbi = stateSets.getViterbiScoreDbl(preScanState);
+                final double postScanViterbi = Scan.calculateInnerScore(scanProb, semiring, isKleeneContinuation
+                        ? semiring.times(previousViterbi, ruleProbability)
+                        : previousViterbi);
+                if (viterbiOnly) {
+                    stateSets.createScannedState(tokenWithCategories.token, preScanState, postScanViterbi, postScanState);
+                    continue;
+                }
+
+                final int preScanSlot = stateSets.getSlot(preScanState);
+                final double previousForward = stateSets.forwardScores.get(preScanSlot);
+                final double previousInner = stateSets.innerScores.get(preScanSlot);
                 final double newInner = isKleeneContinuation
-                        ? semiring.times(previousInner, preScanState.rule.probabilityAsSemiringElement)
+                        ? semiring.times(previousInner, ruleProbability)
                         : previousInner;
                 // todo should we update forwardscore as well for continuations? yes:
                 final double newForward = isKleeneContinuation
-                        ? semiring.times(previousForward, preScanState.rule.probabilityAsSemiringElement)
+                        ? semiring.times(previousForward, ruleProbability)
                         : previousForward;
                 final double postScanForward = Scan.calculateForwardScore(scanProb, semiring, newForward);
                 final double postScanInner = Scan.calculateInnerScore(scanProb, semiring, newInner);
@@ -323,8 +408,8 @@ public class Chart<T> {
                         preScanState,
                         postScanForward,
                         postScanInner,
-                        /* Create the state <code>i+1: X<sub>k</sub> → λt·μ</code>. Note that this state is unique for each preScanState */
-                        State.create(chartPosition + 1, preScanState.ruleStartPosition, preScanState.advanceDot(), preScanState.rule)
+                        postScanViterbi,
+                        postScanState
                 );
             }
         }
@@ -357,61 +442,16 @@ public class Chart<T> {
     }
 
     /**
-     * Completes states exhaustively and makes resolvable expressions for the forward and inner scores.
-     * Note that these expressions can only be resolved to actual values after finishing completion, because they may depend on one another.
-     *
-     * @param position           State position
-     * @param newCompletedStates Completed states to use for deducing what states to proceed
-     * @param addForwardScores   Container / helper for adding to forward score expressions
-     * @param addInnerScores     Container / helper for adding to inner score expressions
-     *                           //     * @param completedStatesAlreadyHandled The completed states that we don't want to reiterate.
-     *                           //     * @param computationsForward           Container for forward score expressions. Probably superfluous.
-     *                           //     * @param computationsInner             Container for inner score expressions. Probably superfluous.
+     * @return Deterministic reduction path to complete given state over, or null if it should be completed normally
      */
-    private void completeNoViterbi(final int position,
-                                   Collection<State> newCompletedStates,
-                                   final DeferredStateScoreComputations addForwardScores,
-                                   final DeferredStateScoreComputations addInnerScores
-    ) {
-        if (newCompletedStates == null || newCompletedStates.size() <= 0)
-            return;
-        while (newCompletedStates.size() > 0) {
-            newCompletedStates = newCompletedStates.stream()
-                    // For all states
-                    //      i: Y<sub>j</sub> → v·    [a",y"]
-                    //      j: X<sub>k</suv> → l·Zm  [a',y']
-                    //
-                    //  such that the R*(Z =*> Y) is nonzero
-                    //  and Y → v is not a unit production
-
-                    // WARNING: shared mutated mutability
-                    .map(completedState -> new StateInformationTriple(null,
-                            completedState,
-                            addInnerScores.getOrCreate(completedState, stateSets.innerScores.get(completedState))
-                    ))
-                    .flatMap(stateSets.activeStates::streamAllStatesToAdvance)
-                    .map(stateInformation -> {
-                                final double prevForward = stateSets.forwardScores.get(stateInformation.stateToAdvance);
-                                return completeNoViterbiForTriple(
-                                        position,
-                                        addInnerScores.getOrCreate(stateInformation.stateToAdvance, stateSets.innerScores.get(stateInformation.stateToAdvance)),
-                                        addForwardScores.getOrCreate(stateInformation.stateToAdvance, prevForward),
-                                        stateSets,
-                                        stateInformation
-                                );
-                            }
-                    )
-                    .peek(delta -> {
-                        addForwardScores.plus(delta.state, delta.addForward);
-                        addInnerScores.plus(delta.state, delta.addInner);
-                    })
-                    .filter(delta -> delta.newCompletedStateNoUnitProduction)
-                    .map(Complete.Delta::getState)
-                    /* Prepare next batch of new completed states; recurse until there are no more new completed states */
-                    .collect(Collectors.toSet());
-
-            newCompletedStates.forEach(stateSets::getOrCreate);
-        }
+    private LeoItems.LeoItem getLeoItem(State completedState) {
+        if (leoItems == null
+                || completedState.rule.isUnitProduction()
+                || completedState.ruleStartPosition >= completedState.position)
+            return null;
+        final LeoItems.LeoItem leoItem = leoItems.get(completedState.ruleStartPosition, completedState.rule.left);
+        // Paths of one link don't skip any states
+        return leoItem != null && leoItem.next != null ? leoItem : null;
     }
 
     /**
@@ -429,17 +469,27 @@ public class Chart<T> {
         while (completedStates.size() > 0)
             completedStates = completedStates.stream()
                     .flatMap(completedState -> {
-                        if (stateSets.viterbiScores.get(completedState) == null)
+                        checkLimits(completedState.position);
+                        final double completedViterbi = stateSets.getViterbiScoreDbl(completedState);
+                        if (Double.isNaN(completedViterbi))
                             throw new IssueRequest("Expected Viterbi score to be set on completed state.");
 
+                        final LeoItems.LeoItem leoItem = getLeoItem(completedState);
+                        if (leoItem != null)
+                            return computeViterbiOverLeoItem(completedState, completedViterbi, leoItem);
+
                         //Get all states in j <= i, such that <code>j: X<sub>k</sub> →  λ·Yμ</code>
                         final Set<State> statesToAdvance = stateSets.activeStates.getStatesActiveOnNonTerminal(completedState.rule.left, completedState.ruleStartPosition, completedState.position);
                         if (statesToAdvance != null && statesToAdvance.size() > 0) {
                             return statesToAdvance.stream()
-                                    .map((stateToAdvance) -> computeViterbiForState(completedState, stateSets.viterbiScores.get(completedState).probabilityAsSemiringElement, stateToAdvance))
+                                    .map((stateToAdvance) -> computeViterbiForState(completedState, completedViterbi, stateToAdvance))
                                     .filter(d -> d != null)
                                     .sequential()
                                     .peek(stateSets::processDelta)
+                                    .peek(d -> {
+                                        if (leoItems != null && d.newViterbiScore != null)
+                                            leoItems.forgetViterbiPath(d.resultingState);
+                                    })
                                     //recurse on newCompletedStates
                                     .filter(Complete.ViterbiDelta::isNewCompletedState)
                                     .map(d -> d.resultingState);
@@ -448,17 +498,34 @@ public class Chart<T> {
                     }).collect(Collectors.toSet());
     }
 
+    /**
+     * @return The topmost state of given path if its Viterbi score improved, to recurse on
+     */
+    private Stream<State> computeViterbiOverLeoItem(State completedState, double completedViterbi, LeoItems.LeoItem leoItem) {
+        final State top = leoItem.topPredecessor;
+        final State resultingState = stateSets.getOrCreateAdvanced(completedState.position, top);
+        final double newViterbiScore = grammar.semiring.times(completedViterbi, leoItem.viterbiFactor);
+        if (!newViterbiIsBetter(grammar.semiring, stateSets.getViterbiScoreDbl(resultingState), newViterbiScore))
+            return Stream.empty();
+        // Origin is a placeholder until the path is materialized
+        stateSets.setViterbiScore(new State.ViterbiScore(newViterbiScore, completedState, resultingState, grammar.semiring));
+        leoItems.setViterbiPath(resultingState, completedState, leoItem);
+        return Stream.of(resultingState);
+    }
+
     private Complete.ViterbiDelta computeViterbiForState(State completedState, double completedViterbi, State stateToAdvance) {
-        final State resultingState = State.create(completedState.position, stateToAdvance.ruleStartPosition, stateToAdvance.advanceDot(), stateToAdvance.rule);
+        final State existing = stateSets.getAdvanced(completedState.position, stateToAdvance);
+        final State resultingState = existing != null ? existing
+                : State.create(completedState.position, stateToAdvance.ruleStartPosition, stateToAdvance.advanceDot(), stateToAdvance.rule);
         if (stateToAdvance.position > resultingState.position || stateToAdvance.position != completedState.ruleStartPosition)
             throw new IssueRequest("Index failed. This is a bug.");
-        final double oldViterbiScore = stateSets.viterbiScoresDbl.get(stateToAdvance);
+        final double oldViterbiScore = stateSets.getViterbiScoreDbl(stateToAdvance);
         assert Double.isFinite(oldViterbiScore);
         double newViterbiScore = grammar.semiring.times(
                 completedViterbi,
                 oldViterbiScore // must be set
         );
-        boolean newViterbiIsBetter = newViterbiIsBetter(stateSets.viterbiScores.get(resultingState), newViterbiScore);
+        boolean newViterbiIsBetter = newViterbiIsBetter(grammar.semiring, existing == null ? Double.NaN : stateSets.getViterbiScoreDbl(existing), newViterbiScore);
         final State.ViterbiScore newViterbiScore_ = newViterbiIsBetter ? new State.ViterbiScore(
                 newViterbiScore,
                 completedState,
@@ -467,7 +534,7 @@ public class Chart<T> {
         ) : null;
 
         final boolean isNewCompletedState = newViterbiIsBetter && resultingState.isCompleted();
-        final boolean isNewState = !stateSets.contains(resultingState);
+        final boolean isNewState = existing == null;
         return (isNewState || isNewCompletedState || newViterbiIsBetter)
                 ? new Complete.ViterbiDelta(
                 resultingState,
@@ -479,52 +546,152 @@ public class Chart<T> {
 
 
     /**
-     * Makes completions in the specified chart at the given index.
+     * Makes completions in the specified chart at the given index, and adds their forward and inner scores.
+     * <p>
+     * Because there are no empty rules, a completed state <code>i: Y<sub>j</sub> → v·</code> only advances states
+     * into states that start before j, and its own scores only come from completed states that start after j. So
+     * completing over the completed states in order of decreasing start position solves all scores in one pass: when
+     * a completed state is taken from the queue, its inner score is final, and its contributions can be added to the
+     * chart directly.
      *
      * @param i The index to make completions at.
      */
-    private void completeNoViterbi(
-            final int i
-    ) {
-        final DeferredStateScoreComputations addForwardScores = new DeferredStateScoreComputations(grammar);
-        final DeferredStateScoreComputations addInnerScores = new DeferredStateScoreComputations(grammar);
-
-        completeNoViterbi(
-                i,
-                stateSets.completedStates.getCompletedStatesThatAreNotUnitProductions(i),
-                addForwardScores,
-                addInnerScores
-        );
+    private void completeNoViterbi(final int i) {
+        final Collection<State> completedStates = stateSets.completedStates.getCompletedStatesThatAreNotUnitProductions(i);
+        if (completedStates != null) completionQueue.addAll(completedStates);
+
+        final ExpressionSemiring sr = grammar.semiring;
+        int scoreUpdates = 0;
+        int rounds = 0;
+        int roundStart = -1;
+        while (!completionQueue.isEmpty()) {
+            final State completedState = completionQueue.poll();
+            checkLimits(i);
+            if (completedState.ruleStartPosition != roundStart) {
+                roundStart = completedState.ruleStartPosition;
+                rounds++;
+            }
+            final double completedInner = stateSets.innerScores.get(completedState);
 
-        // Resolve and set forward & inner scores
-        addForwardScores.states.forEach((s, score) ->
-                stateSets.forwardScores.put(
-                        stateSets.getOrCreate(s),
-                        score.resolveFinal()
-                )
-        );
+            final LeoItems.LeoItem leoItem = getLeoItem(completedState);
+            if (leoItem != null) {
+                advance(i, leoItem.topPredecessor,
+                        sr.times(leoItem.innerFactor, completedInner),
+                        sr.times(leoItem.forwardFactor, completedInner)
+                );
+                scoreUpdates++;
+                continue;
+            }
 
-        addInnerScores.states.forEach((s, score) ->
-                stateSets.innerScores.put(
-                        stateSets.getOrCreate(s),
-                        score.resolveFinal()
-                )
-        );
+            // For all states
+            //      i: Y<sub>j</sub> → v·    [a",y"]
+            //      j: X<sub>k</suv> → l·Zm  [a',y']
+            //
+            //  such that the R*(Z =*> Y) is nonzero
+            //  and Y → v is not a unit production
+            final NonTerminal Y = completedState.rule.left;
+            final Collection<State> statesToAdvance = stateSets.activeStates
+                    .getStatesActiveOnNonTerminalWithNonZeroUnitStarScoreToY(completedState.ruleStartPosition, Y);
+            if (statesToAdvance == null) continue;
+            for (State stateToAdvance : statesToAdvance) {
+                if (stateToAdvance.position != completedState.ruleStartPosition)
+                    throw new IssueRequest("Index failed. This is a bug.");
+                final double unitStarScore = grammar.getUnitStarScore(stateToAdvance.getActiveCategory(), Y);
+                final int slot = stateSets.getSlot(stateToAdvance);
+                advance(i, stateToAdvance,
+                        sr.times(unitStarScore, stateSets.innerScores.get(slot), completedInner),
+                        sr.times(unitStarScore, stateSets.forwardScores.get(slot), completedInner)
+                );
+                scoreUpdates++;
+            }
+        }
+
+        if (instrumentation != null) instrumentation.onCompletionRounds(scoreUpdates, rounds);
+    }
+
+    /**
+     * Makes <code>i: X<sub>k</sub> → lZ·m</code> and adds given scores to it. Queues it for completion if it is a new
+     * completed state that is no unit production. Its start position k is before that of the state that is being
+     * completed over, so it will be taken from the queue after all states that can add to its inner score.
+     *
+     * @param stateToAdvance <code>j: X<sub>k</sub> → l·Zm</code>
+     */
+    private void advance(int position, State stateToAdvance, double addInner, double addForward) {
+        final State existing = stateSets.getAdvanced(position, stateToAdvance);
+        final State state = existing != null ? existing : stateSets.getOrCreateAdvanced(position, stateToAdvance);
+
+        final int slot = stateSets.getSlot(state);
+        stateSets.innerScores.increment(slot, addInner);
+        stateSets.forwardScores.increment(slot, addForward);
+
+        if (existing == null && state.isCompleted() && !state.rule.isUnitProduction()) completionQueue.add(state);
     }
 
     public void complete(int i, TokenWithCategories<T> token) {
         Chart<T> chart = this;
 
         if (parseOptions != null) parseOptions.beforeComplete(i, token, chart);
-
+        if (instrumentation != null) instrumentation.startComplete();
 
         final Set<State> completedStates = new HashSet<>(chart.stateSets.completedStates.getCompletedStates(i + 1));
-        completeNoViterbi(i + 1);
+        if (!viterbiOnly) completeNoViterbi(i + 1);
         computeViterbiScoresForCompletedStates(completedStates);
+        if (parseOptions != null && parseOptions.beam != null) prune(i + 1, parseOptions.beam);
+        lastFinishedPosition = i + 1;
 
+        if (instrumentation != null) instrumentation.endComplete(i);
         if (parseOptions != null) parseOptions.onComplete(i, token, chart);
     }
 
+    /**
+     * Removes active states at given position whose forward score falls outside the given beam. Completed states
+     * are kept, because they are needed to reconstruct the Viterbi parse.
+     *
+     * @param position Position in chart
+     * @param beam     Beam to apply
+     */
+    void prune(int position, Beam beam) {
+        final Set<State> states = stateSets.getStates(position);
+        if (states == null || states.isEmpty()) return;
+        final Set<State> candidates = states.stream()
+                .filter(State::isActive)
+                .filter(state -> !Category.START.equals(state.rule.left))
+                .collect(Collectors.toSet());
+
+        final ExpressionSemiring sr = grammar.semiring;
+        for (State state : beam.getStatesToPrune(candidates, stateSets.forwardScores::get, sr)) {
+            prunedForwardScore = sr.plus(prunedForwardScore, stateSets.forwardScores.get(state));
+            if (stateSets.remove(state)) prunedStatesCount++;
+        }
+    }
+
+    /**
+     * @return Number of states that were pruned from this chart because they fell outside the beam
+     */
+    public int getPrunedStatesCount() {
+        return prunedStatesCount;
+    }
+
+    /**
+     * @return Sum of the forward probabilities of all states that were pruned from this chart. Note that since
+     * forward probabilities are prefix probabilities, this may exceed 1.
+     */
+    public double getPrunedProbabilityMass() {
+        return grammar.semiring.toProbability(prunedForwardScore);
+    }
+
+    /**
+     * Evicts all positions before given frontier that no future completion can reach back to
+     *
+     * @return Positions that were evicted
+     * @see StateSets#evictUnreachablePositions(int)
+     */
+    public TIntSet evictUnreachablePositions(int frontier) {
+        final TIntSet evicted = stateSets.evictUnreachablePositions(frontier);
+        if (leoItems != null && !evicted.isEmpty()) leoItems.evict(evicted);
+        return evicted;
+    }
+
     public int getJustCompletedErrorRulesCount(int index) {
         return stateSets.completedStates.getCompletedErrorRulesCount(index);
     }
@@ -4,6 +4,7 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
 import org.leibnizcenter.cfg.category.terminal.Terminal;
 import org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions;
+import org.leibnizcenter.cfg.earleyparser.chart.statesets.StateSets;
 import org.leibnizcenter.cfg.earleyparser.parsemode.PanicMode;
 import org.leibnizcenter.cfg.earleyparser.parsemode.ParsingMode;
 import org.leibnizcenter.cfg.earleyparser.scan.ScanMode;
@@ -41,15 +42,29 @@ public class ChartWithInputPosition<T> {
     public ParsingMode parsingMode = ParsingMode.NORMAL;
 
     private TIntObjectHashMap<Token<T>> tokensPassed = new TIntObjectHashMap<>(50, 0.5F, -1);
+    private final boolean streaming;
 
     public ChartWithInputPosition(
             Grammar<T> grammar,
             NonTerminal goal,
             ParseOptions<T> parseOptions
+    ) {
+        this(grammar, goal, parseOptions, new StateSets<>(grammar));
+    }
+
+    /**
+     * @param stateSets Empty state sets to fill, see {@link Chart#Chart(Grammar, ParseOptions, StateSets)}
+     */
+    public ChartWithInputPosition(
+            Grammar<T> grammar,
+            NonTerminal goal,
+            ParseOptions<T> parseOptions,
+            StateSets<T> stateSets
     ) {
         this.grammar = grammar;
         strategy = parseOptions == null || parseOptions.scanMode == null ? ScanMode.STRICT : parseOptions.scanMode;
-        chart = new Chart<>(grammar, parseOptions);
+        chart = new Chart<>(grammar, parseOptions, stateSets);
+        streaming = parseOptions != null && parseOptions.streaming && strategy != ScanMode.SYNCHRONIZE;
 
         // Initial state
         chart.addInitialState(goal);
@@ -99,6 +114,10 @@ public class ChartWithInputPosition<T> {
         }
         chartIndex = parsingMode.processToken(chart, chartIndex, t, categories);
         tokensPassed.putIfAbsent(chartIndex, t);
+        if (streaming) chart.evictUnreachablePositions(chartIndex).forEach(position -> {
+            tokensPassed.remove(position);
+            return true;
+        });
 
         if (PANIC_MODE.equals(parsingMode) && chart.getJustCompletedErrorRulesCount(chartIndex) > 0) {
             parsingMode = NORMAL;
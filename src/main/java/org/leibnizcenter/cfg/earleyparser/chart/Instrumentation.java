@@ -0,0 +1,113 @@
+package org.leibnizcenter.cfg.earleyparser.chart;
+
+import org.leibnizcenter.cfg.earleyparser.callbacks.InstrumentationListener;
+import org.leibnizcenter.cfg.earleyparser.callbacks.PositionMetrics;
+import org.leibnizcenter.cfg.earleyparser.chart.statesets.StateSets;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Measures the phases of a chart position and reports them to an {@link InstrumentationListener}. Only exists when
+ * instrumentation is enabled, so that a disabled listener costs a null check per phase.
+ */
+class Instrumentation {
+    private static final int PREDICT = 0;
+    private static final int SCAN = 1;
+    private static final int COMPLETE = 2;
+
+    private final InstrumentationListener listener;
+    private final StateSets<?> stateSets;
+    private final com.sun.management.ThreadMXBean allocationBean;
+
+    private final long[] nanos = new long[3];
+    private final long[] allocatedBytes = new long[3];
+    private final long[] statesCreated = new long[3];
+    private long startNanos;
+    private long startAllocatedBytes;
+    private long startStatesCreated;
+    private int scoreUpdates;
+    private int completionDepth;
+
+    Instrumentation(InstrumentationListener listener, StateSets<?> stateSets) {
+        this.listener = listener;
+        this.stateSets = stateSets;
+        this.allocationBean = getAllocationBean();
+    }
+
+    private static com.sun.management.ThreadMXBean getAllocationBean() {
+        try {
+            final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+                if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled())
+                    return allocationBean;
+            }
+        } catch (LinkageError ignored) {
+            // Not a HotSpot-like JVM
+        }
+        return null;
+    }
+
+    private long allocatedBytes() {
+        return allocationBean == null ? -1 : allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void start() {
+        startStatesCreated = stateSets.getCreatedStateCount();
+        startAllocatedBytes = allocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    private void end(int phase) {
+        nanos[phase] = System.nanoTime() - startNanos;
+        allocatedBytes[phase] = allocationBean == null ? -1 : allocatedBytes() - startAllocatedBytes;
+        statesCreated[phase] = stateSets.getCreatedStateCount() - startStatesCreated;
+    }
+
+    void startPredict() {
+        start();
+    }
+
+    void endPredict() {
+        end(PREDICT);
+    }
+
+    void startScan() {
+        start();
+    }
+
+    void endScan() {
+        end(SCAN);
+    }
+
+    void startComplete() {
+        scoreUpdates = 0;
+        completionDepth = 0;
+        start();
+    }
+
+    void onCompletionRounds(int scoreUpdates, int completionDepth) {
+        this.scoreUpdates += scoreUpdates;
+        this.completionDepth += completionDepth;
+    }
+
+    /**
+     * Ends the complete phase and reports the metrics of given position
+     */
+    void endComplete(int position) {
+        end(COMPLETE);
+        listener.onPosition(new PositionMetrics(
+                position,
+                nanos[PREDICT], nanos[SCAN], nanos[COMPLETE],
+                allocatedBytes[PREDICT], allocatedBytes[SCAN], allocatedBytes[COMPLETE],
+                statesCreated[PREDICT], statesCreated[SCAN], statesCreated[COMPLETE],
+                scoreUpdates, completionDepth
+        ));
+        // Phases that are skipped at the next position, such as predict in panic mode, report zeroes
+        Arrays.fill(nanos, 0L);
+        Arrays.fill(allocatedBytes, 0L);
+        Arrays.fill(statesCreated, 0L);
+    }
+}
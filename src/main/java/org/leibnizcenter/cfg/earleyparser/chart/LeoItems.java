@@ -0,0 +1,221 @@
+package org.leibnizcenter.cfg.earleyparser.chart;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.ExpressionSemiring;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+import org.leibnizcenter.cfg.earleyparser.chart.statesets.StateSets;
+import org.leibnizcenter.cfg.grammar.Grammar;
+
+import java.util.*;
+
+/**
+ * Memoized deterministic reduction paths, after Leo (1991), "A general context-free parsing algorithm running in
+ * linear time on every LR(k) grammar without using lookahead".
+ * <p>
+ * A completed state <code>i: Y<sub>j</sub> → v·</code> has a deterministic reduction at j if exactly one state
+ * <code>j: X<sub>k</sub> → λ·Y</code> can be advanced over Y, and advancing it yields a completed state that is no
+ * unit production. That completed state may in turn have a deterministic reduction at k, and so on. Such a chain
+ * only depends on the chart up to position j, so its topmost state and the products of the scores along the chain
+ * can be memoized per position and non-terminal. Completing over a chain then creates only its topmost state
+ * instead of one state per link, which makes right recursion run in linear space.
+ * <p>
+ * The intermediate states are not added to the chart. Their Viterbi scores are materialized on demand, when a parse
+ * tree is reconstructed through them (see {@link #materializeViterbiPath(State)}).
+ */
+class LeoItems<T> {
+    private static final LeoItem NONE = new LeoItem(null, null, Double.NaN, Double.NaN, Double.NaN);
+
+    private final StateSets<T> stateSets;
+    private final Grammar<T> grammar;
+    private final TIntObjectHashMap<Map<NonTerminal, LeoItem>> items = new TIntObjectHashMap<>(500);
+    /**
+     * Completed states whose Viterbi score came from a deterministic reduction path, mapped to that path
+     */
+    private final Map<State, ViterbiPath> viterbiPaths = new HashMap<>();
+
+    LeoItems(StateSets<T> stateSets) {
+        this.stateSets = stateSets;
+        this.grammar = stateSets.grammar;
+    }
+
+    /**
+     * Runs in amortized O(1), because every link is computed only once. Must only be called for positions whose
+     * states are all known.
+     *
+     * @return Deterministic reduction path for completing Y at given position, or null if there is none
+     */
+    LeoItem get(int position, NonTerminal Y) {
+        // Walk down until we find a memoized path or a position without deterministic reduction...
+        final Deque<State> links = new ArrayDeque<>();
+        LeoItem item;
+        int j = position;
+        NonTerminal X = Y;
+        while ((item = getMemoized(j, X)) == null) {
+            final State predecessor = getDeterministicPredecessor(j, X);
+            if (predecessor == null) {
+                item = NONE;
+                memoize(j, X, item);
+            } else {
+                links.push(predecessor);
+                j = predecessor.ruleStartPosition;
+                X = predecessor.rule.left;
+            }
+        }
+        // ...and memoize the path for every link, from the top down
+        while (!links.isEmpty()) {
+            final State predecessor = links.pop();
+            item = createItem(predecessor, item == NONE ? null : item);
+            memoize(predecessor.position, (NonTerminal) predecessor.getActiveCategory(), item);
+        }
+        return item == NONE ? null : item;
+    }
+
+    private LeoItem getMemoized(int position, NonTerminal Y) {
+        final Map<NonTerminal, LeoItem> atPosition = items.get(position);
+        return atPosition == null ? null : atPosition.get(Y);
+    }
+
+    private void memoize(int position, NonTerminal Y, LeoItem item) {
+        Map<NonTerminal, LeoItem> atPosition = items.get(position);
+        if (atPosition == null) {
+            atPosition = new HashMap<>();
+            items.put(position, atPosition);
+        }
+        atPosition.put(Y, item);
+    }
+
+    /**
+     * @return The only state at given position that a completed Y can advance, if advancing it yields a completed state
+     * that is no unit production. Null otherwise.
+     */
+    private State getDeterministicPredecessor(int position, NonTerminal Y) {
+        final Collection<State> candidates = stateSets.activeStates.getStatesActiveOnNonTerminalWithNonZeroUnitStarScoreToY(position, Y);
+        if (candidates == null || candidates.size() != 1) return null;
+        final State predecessor = candidates.iterator().next();
+        return Y.equals(predecessor.getActiveCategory())
+                && predecessor.rule.isPassive(predecessor.advanceDot())
+                && !predecessor.rule.isUnitProduction()
+                && predecessor.ruleStartPosition < position
+                ? predecessor : null;
+    }
+
+    private LeoItem createItem(State predecessor, LeoItem next) {
+        final ExpressionSemiring sr = grammar.semiring;
+        final NonTerminal Y = (NonTerminal) predecessor.getActiveCategory();
+        final int slot = stateSets.getSlot(predecessor);
+        final double unitStarScore = grammar.getUnitStarScore(Y, Y);
+        final double inner = sr.times(unitStarScore, stateSets.innerScores.get(slot));
+        final double forward = sr.times(unitStarScore, stateSets.forwardScores.get(slot));
+        final double viterbi = stateSets.getViterbiScoreDbl(predecessor);
+        return next == null
+                ? new LeoItem(predecessor, null, inner, forward, viterbi)
+                : new LeoItem(
+                predecessor,
+                next,
+                sr.times(next.innerFactor, inner),
+                sr.times(next.forwardFactor, inner),
+                sr.times(next.viterbiFactor, viterbi)
+        );
+    }
+
+    /**
+     * Forgets memoized paths and Viterbi paths at given positions, which were evicted from the chart
+     */
+    void evict(TIntSet positions) {
+        items.retainEntries((position, atPosition) -> !positions.contains(position));
+        if (!viterbiPaths.isEmpty()) viterbiPaths.keySet().removeIf(state -> positions.contains(state.position));
+    }
+
+    /**
+     * Remembers that the Viterbi score of given topmost state came from completing given state over given path
+     */
+    void setViterbiPath(State top, State completedState, LeoItem item) {
+        viterbiPaths.put(top, new ViterbiPath(completedState, item));
+    }
+
+    /**
+     * Forgets the Viterbi path of given state, because a better one was found outside of deterministic reductions
+     */
+    void forgetViterbiPath(State state) {
+        if (!viterbiPaths.isEmpty()) viterbiPaths.remove(state);
+    }
+
+    /**
+     * If the Viterbi score of given state came from a deterministic reduction path, adds the intermediate states of
+     * that path to the chart, with their Viterbi scores, and points the Viterbi origin of given state to the topmost
+     * intermediate state.
+     */
+    void materializeViterbiPath(State state) {
+        final ViterbiPath path = viterbiPaths.remove(state);
+        if (path == null) return;
+
+        final ExpressionSemiring sr = grammar.semiring;
+        final int position = path.completedState.position;
+        State origin = path.completedState;
+        double viterbi = stateSets.getViterbiScoreDbl(origin);
+        for (LeoItem item = path.item; item.next != null; item = item.next) {
+            final State predecessor = item.predecessor;
+            final State intermediate = stateSets.getOrCreateAdvanced(position, predecessor);
+            viterbi = sr.times(viterbi, stateSets.getViterbiScoreDbl(predecessor));
+            final double existing = stateSets.getViterbiScoreDbl(intermediate);
+            if (Double.isNaN(existing) || sr.compare(existing, viterbi) < 0)
+                stateSets.setViterbiScore(new State.ViterbiScore(viterbi, origin, intermediate, sr));
+            origin = intermediate;
+        }
+        final State top = stateSets.get(state);
+        stateSets.setViterbiScore(new State.ViterbiScore(stateSets.getViterbiScoreDbl(top), origin, top, sr));
+    }
+
+    /**
+     * A deterministic reduction path, from one link up to the topmost
+     */
+    static final class LeoItem {
+        /**
+         * State that is advanced by this link
+         */
+        final State predecessor;
+        /**
+         * Next link up, or null if this is the topmost link
+         */
+        final LeoItem next;
+        /**
+         * State that is advanced by the topmost link
+         */
+        final State topPredecessor;
+        /**
+         * Product of the inner scores of all predecessors on the path, from this link up. Multiplied by the inner
+         * score of the completed state, gives the inner score contribution to the topmost state.
+         */
+        final double innerFactor;
+        /**
+         * Forward score of the topmost predecessor times the inner scores of the other predecessors. Multiplied by
+         * the inner score of the completed state, gives the forward score contribution to the topmost state.
+         */
+        final double forwardFactor;
+        /**
+         * Product of the Viterbi scores of all predecessors on the path, from this link up
+         */
+        final double viterbiFactor;
+
+        private LeoItem(State predecessor, LeoItem next, double innerFactor, double forwardFactor, double viterbiFactor) {
+            this.predecessor = predecessor;
+            this.next = next;
+            this.topPredecessor = next == null ? predecessor : next.topPredecessor;
+            this.innerFactor = innerFactor;
+            this.forwardFactor = forwardFactor;
+            this.viterbiFactor = viterbiFactor;
+        }
+    }
+
+    private static final class ViterbiPath {
+        private final State completedState;
+        private final LeoItem item;
+
+        private ViterbiPath(State completedState, LeoItem item) {
+            this.completedState = completedState;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.leibnizcenter.cfg.earleyparser.chart;
+
+import org.leibnizcenter.cfg.earleyparser.ParseAbortedException;
+import org.leibnizcenter.cfg.earleyparser.callbacks.CancellationToken;
+import org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions;
+
+/**
+ * Enforces the timeout, state limit and cancellation token of a parse. Only exists when one of them is set, so that
+ * an unlimited parse costs a null check per check point. Limits are only looked at every {@link #INTERVAL} check
+ * points, because reading the clock is not free, so a parse may overshoot its limits by a little.
+ */
+class ParseLimits {
+    private static final int INTERVAL = 64;
+
+    private final Chart<?> chart;
+    private final long startNanos;
+    /**
+     * Long.MAX_VALUE if there is no timeout
+     */
+    private final long timeoutNanos;
+    /**
+     * Long.MAX_VALUE if there is no state limit
+     */
+    private final long maxStates;
+    private final CancellationToken cancellationToken;
+    /**
+     * Starts at one, so that the first check point checks
+     */
+    private int countdown = 1;
+
+    private ParseLimits(Chart<?> chart, ParseOptions<?> parseOptions) {
+        this.chart = chart;
+        this.startNanos = System.nanoTime();
+        this.timeoutNanos = parseOptions.timeoutNanos > 0 ? parseOptions.timeoutNanos : Long.MAX_VALUE;
+        this.maxStates = parseOptions.maxStates > 0 ? parseOptions.maxStates : Long.MAX_VALUE;
+        this.cancellationToken = parseOptions.cancellationToken;
+    }
+
+    /**
+     * @return Limits of given parse, or null if it has none
+     */
+    static ParseLimits create(Chart<?> chart, ParseOptions<?> parseOptions) {
+        return parseOptions.timeoutNanos > 0 || parseOptions.maxStates > 0 || parseOptions.cancellationToken != null
+                ? new ParseLimits(chart, parseOptions)
+                : null;
+    }
+
+    /**
+     * @param position Chart position that is being processed
+     * @throws ParseAbortedException If a limit was hit
+     */
+    void check(int position) {
+        if (--countdown > 0) return;
+        countdown = INTERVAL;
+
+        final ParseAbortedException.Reason reason;
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final long createdStates = chart.stateSets.getCreatedStateCount();
+        if (cancellationToken != null && cancellationToken.isCancelled())
+            reason = ParseAbortedException.Reason.CANCELLED;
+        else if (elapsedNanos > timeoutNanos)
+            reason = ParseAbortedException.Reason.TIMEOUT;
+        else if (createdStates > maxStates)
+            reason = ParseAbortedException.Reason.STATE_LIMIT;
+        else return;
+
+        throw new ParseAbortedException(reason, position, chart.getLastFinishedPosition(), createdStates, elapsedNanos, chart);
+    }
+}
@@ -3,6 +3,7 @@ package org.leibnizcenter.cfg.earleyparser.chart.state;
 import org.leibnizcenter.cfg.algebra.semiring.dbl.DblSemiring;
 import org.leibnizcenter.cfg.category.Category;
 import org.leibnizcenter.cfg.earleyparser.Atom;
+import org.leibnizcenter.cfg.grammar.DottedRuleTable;
 import org.leibnizcenter.cfg.rule.Rule;
 
 import java.text.DecimalFormat;
@@ -49,7 +50,16 @@ public class State {
     private final int hashCode;
 
     public double forwardScore = Double.NaN;
+    /**
+     * @deprecated Never set; forward scores are kept in the chart
+     */
+    @Deprecated
     public Atom forwardScoreAtom = null;
+    /**
+     * Id of the dotted rule of this state in some {@link DottedRuleTable}, packed with the serial number of that table.
+     * 0 if not known yet. A single field, so that the id and the table it belongs to are always read together.
+     */
+    private volatile long dottedRuleId = 0L;
 
     /**
      * Makes a predicted State based on the specified rule, with the specified
@@ -115,6 +125,29 @@ public class State {
         return position + 1;
     }
 
+    /**
+     * Runs in O(1). Only hashes the rule of this state the first time it is looked up in given table.
+     *
+     * @return Id of the dotted rule of this state in given table
+     */
+    public int getDottedRuleId(DottedRuleTable table) {
+        final long cached = dottedRuleId;
+        if ((cached >>> 32) == table.getSerial()) return (int) cached;
+        final int id = table.getId(rule, ruleDotPosition);
+        dottedRuleId = (table.getSerial() << 32) | (id & 0xFFFFFFFFL);
+        return id;
+    }
+
+    /**
+     * Remembers the id of the dotted rule of this state in given table, so that looking it up does not hash the
+     * rule. Checks the id against the table without hashing, and ignores it if it is not the id of this dotted rule,
+     * or if this rule was not compiled into the table.
+     */
+    public void cacheDottedRuleId(DottedRuleTable table, int id) {
+        if (id >= 0 && id < table.size() && table.getRule(id) == rule && table.getDot(id) == ruleDotPosition)
+            dottedRuleId = (table.getSerial() << 32) | (id & 0xFFFFFFFFL);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -145,6 +145,75 @@ public class ActiveStates<T> {
         }
     }
 
+    /**
+     * Inverse of {@link #addIfActive(int, State, ScoresAsSemiringElements)}.
+     * Runs in O(N) for N is the number of NonTerminals with non-zero unit-star score on active category, which is bounded by the total number of non-terminals
+     */
+    void removeIfActive(
+            final int position,
+            final State state,
+            final ScoresAsSemiringElements unitStar) {
+        if (state.isActive()) {
+            justScannedError.remove(position, state);
+            final Category activeCategory = state.getActiveCategory();
+            if (activeCategory instanceof NonLexicalToken) {
+                activeOnNonLexicalToken.remove(state);
+            }
+            if (activeCategory instanceof NonTerminal) {
+                remove(statesActiveOnNonTerminal.get((NonTerminal) activeCategory), state.position, state);
+                remove(statesActiveOnNonTerminals, position, state);
+                final MyMultimap<NonTerminal, State> activeWithUnitStarToY = nonTerminalActiveAtIWithNonZeroUnitStarToY.get(position);
+                if (activeWithUnitStarToY != null)
+                    unitStar.getNonZeroNonTerminals((NonTerminal) activeCategory)
+                            .forEach(Y -> activeWithUnitStarToY.remove(Y, state));
+            } else if (activeCategory instanceof Terminal) {
+                final Map<Terminal<T>, Set<State>> terminalSetMap = statesActiveOnTerminals.get(position);
+                if (terminalSetMap != null) {
+                    final Set<State> states = terminalSetMap.get(activeCategory);
+                    if (states != null) states.remove(state);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets all active states at given position. Runs in O(N + M) for N is the number of non-terminals that states
+     * are active on, and M the number of given states.
+     *
+     * @param states All states at given position
+     */
+    void removePosition(int position, Iterable<State> states) {
+        statesActiveOnNonTerminals.remove(position);
+        nonTerminalActiveAtIWithNonZeroUnitStarToY.remove(position);
+        statesActiveOnTerminals.remove(position);
+        for (TIntObjectHashMap<Set<State>> byPosition : statesActiveOnNonTerminal.values()) byPosition.remove(position);
+        final Collection<State> scannedError = justScannedError.get(position);
+        if (scannedError != null) new ArrayList<>(scannedError).forEach(state -> justScannedError.remove(position, state));
+        if (!activeOnNonLexicalToken.isEmpty()) for (State state : states) activeOnNonLexicalToken.remove(state);
+    }
+
+    /**
+     * Forgets all active states, keeping the capacity of the indexes
+     */
+    void clear() {
+        statesActiveOnNonTerminals.clear();
+        nonTerminalActiveAtIWithNonZeroUnitStarToY.clear();
+        statesActiveOnTerminals.clear();
+        for (TIntObjectHashMap<Set<State>> byPosition : statesActiveOnNonTerminal.values()) byPosition.clear();
+        justScannedError.clear();
+        activeOnNonLexicalToken.clear();
+    }
+
+    private static void remove(TIntObjectHashMap<Set<State>> states, int position, State state) {
+        if (states == null) return;
+        final Set<State> set = states.get(position);
+        if (set != null) set.remove(state);
+    }
+
+    /**
+     * @deprecated Not used by the parser, which completes states in {@link org.leibnizcenter.cfg.earleyparser.chart.Chart}
+     */
+    @Deprecated
     public Stream<? extends StateInformationTriple> streamAllStatesToAdvance(StateInformationTriple completedState) {
         final State state = completedState.completedState;
         final Collection<State> statesActive = getStatesActiveOnNonTerminalWithNonZeroUnitStarScoreToY(state.ruleStartPosition, state.rule.left);
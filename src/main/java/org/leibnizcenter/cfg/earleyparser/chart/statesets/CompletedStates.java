@@ -61,6 +61,42 @@ public class CompletedStates {
         }
     }
 
+    /**
+     * Inverse of {@link #addIfCompleted(State)}. Runs in O(1)
+     */
+    void removeIfCompleted(State state) {
+        if (state.isCompleted()) {
+            final Set<State> completed = completedStates.get(state.position);
+            if (completed != null) completed.remove(state);
+            final Set<State> notUnitProductions = completedStatesThatAreNotUnitProductions.get(state.position);
+            if (notUnitProductions != null) notUnitProductions.remove(state);
+            final MyMultimap<NonTerminal, State> m = completedStatesFor.get(state.position);
+            if (m != null) m.remove(state.rule.left, state);
+            if (state.rule.isErrorRule && justCompletedErrorRulesCount.get(state.position) > 0)
+                justCompletedErrorRulesCount.put(state.position, justCompletedErrorRulesCount.get(state.position) - 1);
+        }
+    }
+
+    /**
+     * Forgets all completed states at given position. Runs in O(1)
+     */
+    void removePosition(int position) {
+        completedStates.remove(position);
+        completedStatesFor.remove(position);
+        completedStatesThatAreNotUnitProductions.remove(position);
+        justCompletedErrorRulesCount.remove(position);
+    }
+
+    /**
+     * Forgets all completed states, keeping the capacity of the indexes
+     */
+    void clear() {
+        completedStates.clear();
+        completedStatesFor.clear();
+        completedStatesThatAreNotUnitProductions.clear();
+        justCompletedErrorRulesCount.clear();
+    }
+
     public Collection<State> getCompletedStates(int i, NonTerminal s) {
         MyMultimap<NonTerminal, State> m = this.getMapFromLeftHandSide(i);
         if (m != null && m.containsKey(s)) return m.get(s);
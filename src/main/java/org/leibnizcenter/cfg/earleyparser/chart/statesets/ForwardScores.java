@@ -1,31 +1,23 @@
 package org.leibnizcenter.cfg.earleyparser.chart.statesets;
 
-import gnu.trove.map.TObjectDoubleMap;
-import gnu.trove.map.hash.TObjectDoubleHashMap;
 import org.leibnizcenter.cfg.algebra.semiring.dbl.DblSemiring;
-import org.leibnizcenter.cfg.earleyparser.Atom;
 import org.leibnizcenter.cfg.earleyparser.chart.state.State;
-import org.leibnizcenter.cfg.grammar.AtomFactory;
-import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.errors.IssueRequest;
 
-import java.util.HashMap;
-import java.util.Map;
+import static org.leibnizcenter.cfg.earleyparser.chart.statesets.StateSlots.NO_SLOT;
 
 /**
+ * View on the forward scores column of {@link StateSlots}
  */
 public class ForwardScores {
     private final DblSemiring semiring;
-    private final TObjectDoubleMap<State> forwardScores;
-    private final Map<State, Atom> forwardScoresAtom = new HashMap<>(500);
-    private final AtomFactory atoms;
-    private final Atom zeroA;
+    private final StateSets<?> stateSets;
+    private final StateSlots slots;
 
-    ForwardScores(Grammar grammar) {
-        this.semiring = grammar.semiring;
-        this.atoms = grammar.atoms;
-        double zero = semiring.zero();
-        zeroA = atoms.getAtom(zero);
-        this.forwardScores = new TObjectDoubleHashMap<>(500, 0.5F, zero);
+    ForwardScores(DblSemiring semiring, StateSets<?> stateSets, StateSlots slots) {
+        this.semiring = semiring;
+        this.stateSets = stateSets;
+        this.slots = slots;
     }
 
 
@@ -36,33 +28,51 @@ public class ForwardScores {
      * @return forward score so far
      */
     public double get(State s) {
-        return forwardScores.get(s);
+        final int slot = stateSets.getSlot(s);
+        return slot == NO_SLOT ? semiring.zero() : slots.getForward(slot);
     }
 
     /**
      * Runs in O(1).
+     *
+     * @param slot Slot of a state in the chart
+     * @return forward score so far
+     */
+    public double get(int slot) {
+        return slots.getForward(slot);
+    }
+
+    /**
+     * Runs in O(1).
+     *
+     * @param state State in the chart
      */
     public void put(State state, double score) {
-        forwardScores.put(state, score);
-        forwardScoresAtom.put(state, atoms.getAtom(score));
+        slots.setForward(getSlotOrThrow(stateSets, state), score);
     }
 
     /**
      * Runs in O(1).
+     *
+     * @param state State in the chart
      */
     public void increment(State state, double increment) {
-        final double newForwardScore = semiring.plus(forwardScores.get(state)/*default zero*/, increment);
-        put(state, newForwardScore);
+        final int slot = getSlotOrThrow(stateSets, state);
+        slots.setForward(slot, semiring.plus(slots.getForward(slot), increment));
     }
 
-
     /**
-     * Default zero
+     * Runs in O(1).
      *
-     * @param state State for which to get inner score
-     * @return inner score so far
+     * @param slot Slot of a state in the chart
      */
-    public Atom getAtom(State state) {
-        return forwardScoresAtom.containsKey(state) ? forwardScoresAtom.get(state) : zeroA;
+    public void increment(int slot, double increment) {
+        slots.setForward(slot, semiring.plus(slots.getForward(slot), increment));
+    }
+
+    static int getSlotOrThrow(StateSets<?> stateSets, State state) {
+        final int slot = stateSets.getSlot(state);
+        if (slot == NO_SLOT) throw new IssueRequest("Tried to set a score on a state that is not in the chart. This is a bug.");
+        return slot;
     }
 }
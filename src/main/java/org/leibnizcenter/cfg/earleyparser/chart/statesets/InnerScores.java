@@ -1,30 +1,32 @@
 package org.leibnizcenter.cfg.earleyparser.chart.statesets;
 
-import gnu.trove.map.TObjectDoubleMap;
-import gnu.trove.map.hash.TObjectDoubleHashMap;
 import org.leibnizcenter.cfg.algebra.semiring.dbl.DblSemiring;
-import org.leibnizcenter.cfg.earleyparser.Atom;
 import org.leibnizcenter.cfg.earleyparser.chart.state.State;
-import org.leibnizcenter.cfg.grammar.AtomFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import static org.leibnizcenter.cfg.earleyparser.chart.statesets.ForwardScores.getSlotOrThrow;
+import static org.leibnizcenter.cfg.earleyparser.chart.statesets.StateSlots.NO_SLOT;
 
+/**
+ * View on the inner scores column of {@link StateSlots}
+ */
 public class InnerScores {
     public final DblSemiring semiring;
-    private final TObjectDoubleMap<State> innerScores;
-    private final Map<State,Atom> innerScoresAtom=new HashMap<>(500);
-    private final AtomFactory atoms;
-
-    InnerScores(DblSemiring semiring, AtomFactory atoms) {
-        this.semiring=semiring;
-        this.atoms=atoms;
-        this.innerScores = new TObjectDoubleHashMap<>(500, 0.5F, semiring.zero());
+    private final StateSets<?> stateSets;
+    private final StateSlots slots;
+
+    InnerScores(DblSemiring semiring, StateSets<?> stateSets, StateSlots slots) {
+        this.semiring = semiring;
+        this.stateSets = stateSets;
+        this.slots = slots;
     }
 
+    /**
+     * Runs in O(1).
+     *
+     * @param s State in the chart
+     */
     public void put(State s, double probability) {
-        innerScores.put(s, probability);
-        innerScoresAtom.put(s, atoms.getAtom(probability));
+        slots.setInner(getSlotOrThrow(stateSets, s), probability);
     }
 
     /**
@@ -34,16 +36,26 @@ public class InnerScores {
      * @return inner score so far
      */
     public double get(State state) {
-        return innerScores.get(state);
+        final int slot = stateSets.getSlot(state);
+        return slot == NO_SLOT ? semiring.zero() : slots.getInner(slot);
     }
 
     /**
-     * Default zero
+     * Runs in O(1).
      *
-     * @param state State for which to get inner score
+     * @param slot Slot of a state in the chart
      * @return inner score so far
      */
-    public Atom getAtom(State state) {
-        return innerScoresAtom.get(state);
+    public double get(int slot) {
+        return slots.getInner(slot);
+    }
+
+    /**
+     * Runs in O(1).
+     *
+     * @param slot Slot of a state in the chart
+     */
+    public void increment(int slot, double increment) {
+        slots.setInner(slot, semiring.plus(slots.getInner(slot), increment));
     }
 }
@@ -1,14 +1,19 @@
 package org.leibnizcenter.cfg.earleyparser.chart.statesets;
 
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
-import gnu.trove.map.hash.TObjectDoubleHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
 import org.leibnizcenter.cfg.algebra.semiring.dbl.DblSemiring;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
 import org.leibnizcenter.cfg.earleyparser.Complete;
 import org.leibnizcenter.cfg.earleyparser.Scan;
 import org.leibnizcenter.cfg.earleyparser.chart.state.ScannedToken;
 import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+import org.leibnizcenter.cfg.grammar.DottedRuleTable;
 import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.rule.Rule;
 import org.leibnizcenter.cfg.token.Token;
 
 import java.util.*;
@@ -37,23 +42,49 @@ public class StateSets<T> {
      * a certain non-terminal X
      */
     public final InnerScores innerScores;
-    public final Map<State, State.ViterbiScore> viterbiScores = new HashMap<>(500);
-    public final TObjectDoubleHashMap<State> viterbiScoresDbl;
     public final CompletedStates completedStates = new CompletedStates();
     public final ActiveStates<T> activeStates = new ActiveStates<>();
     public final Grammar<T> grammar;
-    private final Set<State> states = new HashSet<>(500);
-    private final TIntObjectHashMap<Set<State>> byIndex = new TIntObjectHashMap<>(500);
+    private final DottedRuleTable dottedRules;
+    /**
+     * States and their scores, by chart-local slot
+     */
+    private final StateSlots slots;
+    private final TIntObjectHashMap<StatesAtPosition> byIndex = new TIntObjectHashMap<>(500);
+    /**
+     * Cleared position indexes, to be reused after {@link #clear()}
+     */
+    private final ArrayDeque<StatesAtPosition> spareStatesAtPositions = new ArrayDeque<>();
     private final Map<State, ScannedToken<T>> scannedTokens = new HashMap<>(50);
     private final TIntObjectMap<Token<T>> scannedTokensAtPosition = new TIntObjectHashMap<>(50, 0.5F, -1);
 
 
     public StateSets(Grammar<T> grammar) {
         this.grammar = grammar;
+        this.dottedRules = grammar.dottedRules;
         DblSemiring semiring = grammar.semiring;
-        this.forwardScores = new ForwardScores(grammar);
-        this.innerScores = new InnerScores(semiring, grammar.atoms);
-        viterbiScoresDbl = new TObjectDoubleHashMap<>(500, 0.5F, Double.NaN);
+        this.slots = new StateSlots(semiring.zero());
+        this.forwardScores = new ForwardScores(semiring, this, slots);
+        this.innerScores = new InnerScores(semiring, this, slots);
+    }
+
+    /**
+     * Forgets all states, scores and scanned tokens, so that this chart can be reused for another parse with the same
+     * grammar. Keeps the capacity of the state columns and indexes, so a reused chart allocates little for sentences
+     * that are no longer than the ones before. Runs in O(N) for N is the number of states and positions.
+     */
+    public void clear() {
+        byIndex.forEachValue(states -> {
+            states.reset();
+            spareStatesAtPositions.push(states);
+            return true;
+        });
+        byIndex.clear();
+        completedStates.clear();
+        activeStates.clear();
+        slots.clear();
+        scannedTokens.clear();
+        scannedTokensAtPosition.clear();
     }
 
     /**
@@ -72,14 +103,111 @@ public class StateSets<T> {
      * @return State specified by parameter. May or may not be in the state table. If not, it is added.
      */
     public State getOrCreate(State state, Token<T> scannedToken) {
-        if (contains(state)) {
-            return state;
+        final State existing = get(state);
+        if (existing != null) {
+            return existing;
         } else {
             addState(state, scannedToken);
             return state;
         }
     }
 
+    private StatesAtPosition getOrCreateStatesAtPosition(int position) {
+        StatesAtPosition statesAtPosition = byIndex.get(position);
+        if (statesAtPosition == null) {
+            statesAtPosition = spareStatesAtPositions.isEmpty()
+                    ? new StatesAtPosition(dottedRules, slots)
+                    : spareStatesAtPositions.pop();
+            byIndex.put(position, statesAtPosition);
+        }
+        return statesAtPosition;
+    }
+
+    /**
+     * Runs in O(1), without allocating a {@link State}.
+     *
+     * @return The state in this chart with given properties, or null if there is none
+     */
+    public State get(int position, int ruleStart, int ruleDotPosition, Rule rule) {
+        final StatesAtPosition statesAtPosition = byIndex.get(position);
+        return statesAtPosition == null ? null
+                : statesAtPosition.get(DottedRuleTable.key(dottedRules.getId(rule, ruleDotPosition), ruleStart));
+    }
+
+    /**
+     * Runs in O(1)
+     *
+     * @return The state in this chart that is equal to given state, or null if there is none
+     */
+    public State get(State state) {
+        final StatesAtPosition statesAtPosition = byIndex.get(state.position);
+        return statesAtPosition == null ? null : statesAtPosition.get(statesAtPosition.keyOf(state));
+    }
+
+    /**
+     * Runs in O(1), without allocating a {@link State} or hashing its rule
+     *
+     * @param stateToAdvance State <code>j: X<sub>k</sub> → λ·Zμ</code> in this chart
+     * @return The state <code>position: X<sub>k</sub> → λZ·μ</code> in this chart, or null if there is none
+     */
+    public State getAdvanced(int position, State stateToAdvance) {
+        final StatesAtPosition statesAtPosition = byIndex.get(position);
+        return statesAtPosition == null ? null
+                : statesAtPosition.get(DottedRuleTable.key(dottedRules.getId(stateToAdvance) + 1, stateToAdvance.ruleStartPosition));
+    }
+
+    /**
+     * Runs in O(1)
+     *
+     * @return The slot of the state in this chart that is equal to given state, or {@link StateSlots#NO_SLOT} if
+     * there is none
+     */
+    public int getSlot(State state) {
+        final StatesAtPosition statesAtPosition = byIndex.get(state.position);
+        return statesAtPosition == null ? StateSlots.NO_SLOT : statesAtPosition.getSlot(statesAtPosition.keyOf(state));
+    }
+
+    /**
+     * Gets the state with given properties, or creates and adds it if it does not exist yet. Only allocates
+     * a new {@link State} if it did not exist.
+     *
+     * @return State in the chart with given properties
+     */
+    public State getOrCreate(int position, int ruleStart, int ruleDotPosition, Rule rule) {
+        return getOrCreate(position, ruleStart, ruleDotPosition, rule, dottedRules.getId(rule, ruleDotPosition));
+    }
+
+    /**
+     * Like {@link #getOrCreate(int, int, int, Rule)}, for the state that results from advancing the dot of given
+     * state. Does not hash the rule, because the dotted rule id of the result is one more than that of given state.
+     *
+     * @param stateToAdvance State <code>j: X<sub>k</sub> → λ·Zμ</code> in this chart
+     * @return The state <code>position: X<sub>k</sub> → λZ·μ</code> in this chart
+     */
+    public State getOrCreateAdvanced(int position, State stateToAdvance) {
+        return getOrCreate(
+                position,
+                stateToAdvance.ruleStartPosition,
+                stateToAdvance.advanceDot(),
+                stateToAdvance.rule,
+                dottedRules.getId(stateToAdvance) + 1
+        );
+    }
+
+    private State getOrCreate(int position, int ruleStart, int ruleDotPosition, Rule rule, int dottedRuleId) {
+        final StatesAtPosition statesAtPosition = getOrCreateStatesAtPosition(position);
+        final long key = DottedRuleTable.key(dottedRuleId, ruleStart);
+        final State existing = statesAtPosition.get(key);
+        if (existing != null) return existing;
+
+        final State state = State.create(position, ruleStart, ruleDotPosition, rule);
+        state.cacheDottedRuleId(dottedRules, dottedRuleId);
+        statesAtPosition.put(key, slots.add(state));
+        completedStates.addIfCompleted(state);
+        activeStates.addIfActive(position, state, grammar.unitStarScores);
+        return state;
+    }
+
     /**
      * Runs in O(N) for N is the number of NonTerminals with non-zero unit-star score on active category, which is bounded by the total number of non-terminals
      *
@@ -88,8 +216,8 @@ public class StateSets<T> {
     private void addState(final State state, Token<T> scannedToken) {
         final int index = state.position;
 
-        states.add(state);
-        add(byIndex, index, state);
+        final StatesAtPosition statesAtPosition = getOrCreateStatesAtPosition(index);
+        statesAtPosition.put(statesAtPosition.keyOf(state), slots.add(state));
 //        if (state.position>0 && state.rule.right.length>0 && state.rule.right[state.position-1] instanceof NonLexicalToken) {
 //            // Just scanned <NonLexicalToken>
 //            incrementCompletedErrorRulesCount(state.position);
@@ -109,6 +237,86 @@ public class StateSets<T> {
         }
     }
 
+    /**
+     * Removes state from all indexes and forgets its scores. Runs in O(N) for N is the number of NonTerminals with
+     * non-zero unit-star score on active category, which is bounded by the total number of non-terminals
+     *
+     * @param state State to remove
+     * @return whether the state was contained
+     */
+    public boolean remove(State state) {
+        final StatesAtPosition atIndex = byIndex.get(state.position);
+        if (atIndex == null) return false;
+        final int slot = atIndex.remove(atIndex.keyOf(state));
+        if (slot == StateSlots.NO_SLOT) return false;
+        completedStates.removeIfCompleted(state);
+        activeStates.removeIfActive(state.position, state, grammar.unitStarScores);
+        slots.clear(slot);
+        scannedTokens.remove(state);
+        return true;
+    }
+
+    /**
+     * Removes all positions before given frontier that no future completion can reach back to, together with their
+     * states, scores and indexes. A completion looks up the states at the start position of the completed state, so a
+     * position is reachable if it is the start position of an active state at the frontier, or the start position of
+     * a state at a reachable position that is active on a non-terminal. Runs in O(N) for N is the number of states
+     * at reachable positions, plus O(M) for M the number of states that are removed.
+     * <p>
+     * Viterbi back-pointers into removed positions are reset, so parse trees can't be reconstructed afterwards.
+     *
+     * @param frontier Latest position in the chart
+     * @return Positions that were removed
+     */
+    public TIntSet evictUnreachablePositions(int frontier) {
+        final TIntSet reachable = new TIntHashSet();
+        final TIntArrayList toVisit = new TIntArrayList();
+        reachable.add(frontier);
+        toVisit.add(frontier);
+        while (!toVisit.isEmpty()) {
+            final int position = toVisit.removeAt(toVisit.size() - 1);
+            final StatesAtPosition states = byIndex.get(position);
+            if (states != null) for (State state : states)
+                if (state.isActive()
+                        // States before the frontier that are active on a terminal can't be scanned anymore
+                        && (position == frontier || state.getActiveCategory() instanceof NonTerminal)
+                        && reachable.add(state.ruleStartPosition))
+                    toVisit.add(state.ruleStartPosition);
+        }
+
+        final TIntSet evicted = new TIntHashSet();
+        for (int position : byIndex.keys())
+            if (position < frontier && !reachable.contains(position)) evicted.add(position);
+        evicted.forEach(position -> {
+            evictPosition(position);
+            return true;
+        });
+
+        // Reclaim slots when most of them are empty
+        if (slots.getLiveCount() < slots.size() >> 1) {
+            final int[] newSlots = slots.compact();
+            byIndex.forEachValue(states -> {
+                states.remapSlots(newSlots);
+                return true;
+            });
+        }
+        return evicted;
+    }
+
+    private void evictPosition(int position) {
+        final StatesAtPosition states = byIndex.remove(position);
+        activeStates.removePosition(position, states);
+        completedStates.removePosition(position);
+        for (int slot : states.getSlots()) {
+            if (!scannedTokens.isEmpty()) scannedTokens.remove(slots.getState(slot));
+            slots.clear(slot);
+        }
+        scannedTokensAtPosition.remove(position);
+    }
+
+    /**
+     * @return Read-only view of the states at given position, or null if there are none
+     */
     public Set<State> getStates(int index) {
         return byIndex.get(index);
     }
@@ -127,13 +335,19 @@ public class StateSets<T> {
 
 
     public int countStates() {
-        //noinspection unchecked
-        return Arrays.stream(byIndex.values(new Set[byIndex.size()]))
+        return Arrays.stream(byIndex.values(new StatesAtPosition[byIndex.size()]))
                 .mapToInt(Set::size).sum();
     }
 
+    /**
+     * @return Number of states that were ever created in this chart, including those that were pruned or evicted
+     */
+    public long getCreatedStateCount() {
+        return slots.getAddedCount();
+    }
+
     public boolean contains(State s) {
-        return states.contains(s);
+        return get(s) != null;
     }
 
     public void createStateAndSetScores(
@@ -142,31 +356,74 @@ public class StateSets<T> {
             double postScanInner,
             State nextState
     ) {
-        Objects.requireNonNull(token);
-        final DblSemiring sr = this.grammar.semiring;
-        final State postScanState = this.getOrCreate(
-                nextState, token
-        );
-
-//                    if (checkNoNewStatesAreDoubles.contains(rule, position, ruleStart, dot))
-//                        throw new IssueRequest("Tried to scan same state twice. This is a bug.");
-//                    else checkNoNewStatesAreDoubles.put(postScanState, postScanState);
+        createStateAndSetScores(token, preScanState, postScanForward, postScanInner, postScanInner, nextState);
+    }
 
-        // Set forward score
+    /**
+     * Creates a state that was scanned from given state, and sets its scores
+     */
+    public void createStateAndSetScores(
+            Token<T> token, State preScanState,
+            double postScanForward,
+            double postScanInner,
+            double postScanViterbi,
+            State nextState
+    ) {
+        final State postScanState = createScannedState(token, preScanState, postScanViterbi, nextState);
         forwardScores.put(postScanState, postScanForward);
-        // Set inner score
         innerScores.put(postScanState, postScanInner);
-        // Set Viterbi score
-        setViterbiScore(new State.ViterbiScore(postScanInner, preScanState, postScanState, sr));
+    }
+
+    /**
+     * Creates a state that was scanned from given state, and sets only its Viterbi score
+     *
+     * @return The scanned state
+     */
+    public State createScannedState(Token<T> token, State preScanState, double postScanViterbi, State nextState) {
+        Objects.requireNonNull(token);
+        final State postScanState = this.getOrCreate(nextState, token);
+        setViterbiScore(new State.ViterbiScore(postScanViterbi, preScanState, postScanState, grammar.semiring));
+        return postScanState;
     }
 
     public void createStateAndSetScores(Scan.Delta<T> score) {
         createStateAndSetScores(score.token, score.preScanState, score.postScanForward, score.postScanInner, score.nextState);
     }
 
+    /**
+     * @param viterbiScore Viterbi score for a state in this chart, originating from a state in this chart
+     */
     public void setViterbiScore(State.ViterbiScore viterbiScore) {
-        this.viterbiScores.put(viterbiScore.resultingState, viterbiScore);
-        this.viterbiScoresDbl.put(viterbiScore.resultingState, viterbiScore.probabilityAsSemiringElement);
+        final int slot = ForwardScores.getSlotOrThrow(this, viterbiScore.resultingState);
+        final int originSlot = viterbiScore.origin == null ? StateSlots.NO_SLOT : ForwardScores.getSlotOrThrow(this, viterbiScore.origin);
+        slots.setViterbi(slot, viterbiScore.probabilityAsSemiringElement, originSlot);
+    }
+
+    /**
+     * Runs in O(1)
+     *
+     * @return Viterbi score for given state, or null if it is not set
+     */
+    public State.ViterbiScore getViterbiScore(State state) {
+        final int slot = getSlot(state);
+        if (slot == StateSlots.NO_SLOT || Double.isNaN(slots.getViterbi(slot))) return null;
+        final int originSlot = slots.getViterbiOrigin(slot);
+        return new State.ViterbiScore(
+                slots.getViterbi(slot),
+                originSlot == StateSlots.NO_SLOT ? null : slots.getState(originSlot),
+                slots.getState(slot),
+                grammar.semiring
+        );
+    }
+
+    /**
+     * Runs in O(1)
+     *
+     * @return Viterbi score for given state as a semiring element, or NaN if it is not set
+     */
+    public double getViterbiScoreDbl(State state) {
+        final int slot = getSlot(state);
+        return slot == StateSlots.NO_SLOT ? Double.NaN : slots.getViterbi(slot);
     }
 
     public ScannedToken<T> getScannedToken(State state) {
@@ -179,11 +436,13 @@ public class StateSets<T> {
 
 
     public State getOrCreate(State state) {
-        if (contains(state)) {
-            return state;
+        final StatesAtPosition statesAtPosition = getOrCreateStatesAtPosition(state.position);
+        final long key = statesAtPosition.keyOf(state);
+        final State existing = statesAtPosition.get(key);
+        if (existing != null) {
+            return existing;
         } else {
-            states.add(state);
-            add(byIndex, state.position, state);
+            statesAtPosition.put(key, slots.add(state));
             completedStates.addIfCompleted(state);
             activeStates.addIfActive(state.position, state, grammar.unitStarScores);
             return state;
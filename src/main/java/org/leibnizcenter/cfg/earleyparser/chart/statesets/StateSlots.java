@@ -0,0 +1,202 @@
+package org.leibnizcenter.cfg.earleyparser.chart.statesets;
+
+import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays storage for the states in a chart and their scores. Every state gets a chart-local int slot when
+ * it is added to the chart, and its forward score, inner score, Viterbi score and Viterbi back-pointer are stored
+ * in columns indexed by that slot, so reading a score is a plain array load.
+ * <p>
+ * Slots of removed states are not reused until the slots are {@link #compact() compacted}.
+ */
+public class StateSlots {
+    public static final int NO_SLOT = -1;
+    private static final int INITIAL_CAPACITY = 512;
+    /**
+     * Columns that have grown beyond this capacity are not kept when {@link #clear() clearing}, so that one long
+     * sentence does not pin its memory for the rest of the life time of the chart
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+
+    private final double zero;
+    private State[] states = new State[INITIAL_CAPACITY];
+    private double[] forward = new double[INITIAL_CAPACITY];
+    private double[] inner = new double[INITIAL_CAPACITY];
+    /**
+     * NaN if not set
+     */
+    private double[] viterbi = new double[INITIAL_CAPACITY];
+    /**
+     * Slot of the state that the Viterbi score came from, or {@link #NO_SLOT}
+     */
+    private int[] viterbiOrigin = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    /**
+     * Number of slots that hold a state
+     */
+    private int liveCount = 0;
+    /**
+     * Number of states ever added, which is not affected by removal or compaction
+     */
+    private long addedCount = 0;
+
+    StateSlots(double zero) {
+        this.zero = zero;
+    }
+
+    /**
+     * Runs in amortized O(1)
+     *
+     * @return Slot for the new state
+     */
+    int add(State state) {
+        if (size == states.length) grow();
+        final int slot = size++;
+        states[slot] = state;
+        forward[slot] = zero;
+        inner[slot] = zero;
+        viterbi[slot] = Double.NaN;
+        viterbiOrigin[slot] = NO_SLOT;
+        liveCount++;
+        addedCount++;
+        return slot;
+    }
+
+    private void grow() {
+        final int capacity = states.length << 1;
+        states = Arrays.copyOf(states, capacity);
+        forward = Arrays.copyOf(forward, capacity);
+        inner = Arrays.copyOf(inner, capacity);
+        viterbi = Arrays.copyOf(viterbi, capacity);
+        viterbiOrigin = Arrays.copyOf(viterbiOrigin, capacity);
+    }
+
+    /**
+     * Forgets the state in given slot and its scores
+     */
+    void clear(int slot) {
+        if (states[slot] != null) liveCount--;
+        states[slot] = null;
+        forward[slot] = zero;
+        inner[slot] = zero;
+        viterbi[slot] = Double.NaN;
+        viterbiOrigin[slot] = NO_SLOT;
+    }
+
+    /**
+     * Forgets all states, keeping the capacity of the columns unless they are very large
+     */
+    void clear() {
+        if (states.length > MAX_RETAINED_CAPACITY) {
+            states = new State[INITIAL_CAPACITY];
+            forward = new double[INITIAL_CAPACITY];
+            inner = new double[INITIAL_CAPACITY];
+            viterbi = new double[INITIAL_CAPACITY];
+            viterbiOrigin = new int[INITIAL_CAPACITY];
+        } else Arrays.fill(states, 0, size, null);
+        size = 0;
+        liveCount = 0;
+        addedCount = 0;
+    }
+
+    public State getState(int slot) {
+        return states[slot];
+    }
+
+    public double getForward(int slot) {
+        return forward[slot];
+    }
+
+    void setForward(int slot, double score) {
+        forward[slot] = score;
+    }
+
+    public double getInner(int slot) {
+        return inner[slot];
+    }
+
+    void setInner(int slot, double score) {
+        inner[slot] = score;
+    }
+
+    /**
+     * @return Viterbi score as semiring element, or NaN if not set
+     */
+    public double getViterbi(int slot) {
+        return viterbi[slot];
+    }
+
+    /**
+     * @return Slot of the state that the Viterbi score came from, or {@link #NO_SLOT}
+     */
+    public int getViterbiOrigin(int slot) {
+        return viterbiOrigin[slot];
+    }
+
+    void setViterbi(int slot, double score, int originSlot) {
+        viterbi[slot] = score;
+        viterbiOrigin[slot] = originSlot;
+    }
+
+    /**
+     * Moves all states and their scores to the lowest slots, keeping their order, and shrinks the columns if they
+     * have become mostly empty. Viterbi back-pointers to removed states are reset to {@link #NO_SLOT}. Runs in O(N)
+     * for N is the number of slots handed out.
+     *
+     * @return For every old slot, the new slot of its state, or {@link #NO_SLOT} if it held no state
+     */
+    int[] compact() {
+        final int[] newSlots = new int[size];
+        int live = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (states[slot] == null) {
+                newSlots[slot] = NO_SLOT;
+            } else {
+                newSlots[slot] = live;
+                states[live] = states[slot];
+                forward[live] = forward[slot];
+                inner[live] = inner[slot];
+                viterbi[live] = viterbi[slot];
+                viterbiOrigin[live] = viterbiOrigin[slot];
+                live++;
+            }
+        }
+        for (int slot = 0; slot < live; slot++)
+            if (viterbiOrigin[slot] != NO_SLOT) viterbiOrigin[slot] = newSlots[viterbiOrigin[slot]];
+        Arrays.fill(states, live, size, null);
+        size = live;
+
+        final int capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, live)) << 2);
+        if (capacity < states.length) {
+            states = Arrays.copyOf(states, capacity);
+            forward = Arrays.copyOf(forward, capacity);
+            inner = Arrays.copyOf(inner, capacity);
+            viterbi = Arrays.copyOf(viterbi, capacity);
+            viterbiOrigin = Arrays.copyOf(viterbiOrigin, capacity);
+        }
+        return newSlots;
+    }
+
+    /**
+     * @return Number of slots handed out so far, including those of removed states
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Number of slots that hold a state
+     */
+    public int getLiveCount() {
+        return liveCount;
+    }
+
+    /**
+     * @return Number of states ever added
+     */
+    public long getAddedCount() {
+        return addedCount;
+    }
+}
@@ -0,0 +1,122 @@
+package org.leibnizcenter.cfg.earleyparser.chart.statesets;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+import org.leibnizcenter.cfg.grammar.DottedRuleTable;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+
+import static org.leibnizcenter.cfg.earleyparser.chart.statesets.StateSlots.NO_SLOT;
+
+/**
+ * The states at a single chart position, indexed by a primitive key of dotted rule id and rule start position
+ * (see {@link DottedRuleTable#key(int, int)}), so that looking up a state does not need to hash or compare
+ * {@link org.leibnizcenter.cfg.rule.Rule rules}. Maps keys to {@link StateSlots slots}.
+ * <p>
+ * Is a read-only view from the outside; only {@link StateSets} mutates it.
+ */
+public class StatesAtPosition extends AbstractSet<State> {
+    private final DottedRuleTable dottedRules;
+    private final StateSlots slots;
+    private final TLongIntHashMap keyToSlot = new TLongIntHashMap(50, 0.5F, Long.MIN_VALUE, NO_SLOT);
+
+    StatesAtPosition(DottedRuleTable dottedRules, StateSlots slots) {
+        this.dottedRules = dottedRules;
+        this.slots = slots;
+    }
+
+    /**
+     * Runs in O(1)
+     *
+     * @return Slot of the state with given key, or {@link StateSlots#NO_SLOT} if there is none
+     */
+    int getSlot(long key) {
+        return keyToSlot.get(key);
+    }
+
+    /**
+     * Runs in O(1)
+     *
+     * @return State with given key, or null if there is none
+     */
+    State get(long key) {
+        final int slot = keyToSlot.get(key);
+        return slot == NO_SLOT ? null : slots.getState(slot);
+    }
+
+    /**
+     * Runs in O(1)
+     */
+    void put(long key, int slot) {
+        keyToSlot.put(key, slot);
+    }
+
+    /**
+     * Runs in O(1)
+     *
+     * @return Slot of the removed state, or {@link StateSlots#NO_SLOT} if there was none
+     */
+    int remove(long key) {
+        return keyToSlot.remove(key);
+    }
+
+    /**
+     * Forgets all states, keeping the capacity of the index. Not {@link #clear()}, because this set is read-only to
+     * the outside.
+     */
+    void reset() {
+        keyToSlot.clear();
+    }
+
+    /**
+     * Points all keys to new slots after the slots were {@link StateSlots#compact() compacted}
+     */
+    void remapSlots(int[] newSlots) {
+        keyToSlot.transformValues(slot -> newSlots[slot]);
+    }
+
+    /**
+     * @return Slots of all states at this position
+     */
+    int[] getSlots() {
+        return keyToSlot.values();
+    }
+
+    long keyOf(State state) {
+        return DottedRuleTable.key(dottedRules.getId(state), state.ruleStartPosition);
+    }
+
+    /**
+     * Runs in O(1)
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof State)) return false;
+        final State state = (State) o;
+        final State found = get(keyOf(state));
+        return found != null && found.position == state.position;
+    }
+
+    @Override
+    public Iterator<State> iterator() {
+        final TIntIterator iterator = keyToSlot.valueCollection().iterator();
+        return new Iterator<State>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public State next() {
+                return slots.getState(iterator.next());
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return keyToSlot.size();
+    }
+}
@@ -9,7 +9,7 @@ import org.leibnizcenter.cfg.token.Token;
 import org.leibnizcenter.cfg.token.TokenWithCategories;
 
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
 import static org.leibnizcenter.cfg.util.Collections2.nullOrEmpty;
@@ -47,16 +47,19 @@ public enum ParsingMode {
                 : processTokenNormal(chart, indexForChart, t, categories);
     }
 
-    private static <T> int processTokenPanicMode(Chart<T> chart, final int indexForChart, Token<T> t, Set<Terminal<T>> categories) {
+    private static <T> int processTokenPanicMode(Chart<T> chart, final int indexForChart, Token<T> t, Set<Terminal<T>> lexicalCategories) {
         //if (!Collections2.nullOrEmpty(categories)) {
+        // Copy, because we may add <error> and the given set may be shared by the grammar's token cache
+        Set<Terminal<T>> categories = new HashSet<>(lexicalCategories);
 
         if (categories.stream().noneMatch((Terminal<T> cat) -> {
             Collection<State> activeStates = chart.stateSets.activeStates.getActiveOn(indexForChart, cat);
             return activeStates != null;// && activeStates.stream().anyMatch(state -> state.rule instanceof LexicalErrorRule);
         })) {
             // TODO If there are no <error> rules active on this terminal, advance <error>
+            categories = new HashSet<>();
             //noinspection unchecked
-            categories = Collections.singleton(NonLexicalToken.INSTANCE);
+            categories.add(NonLexicalToken.INSTANCE);
         }
 
 
@@ -0,0 +1,141 @@
+package org.leibnizcenter.cfg.earleyparser.training;
+
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.earleyparser.Parser;
+import org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.rule.Rule;
+import org.leibnizcenter.cfg.token.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Re-estimates rule probabilities from a corpus of unannotated sentences with expectation maximization: every
+ * iteration computes the {@link InsideOutside expected rule counts} over the whole corpus with the current grammar,
+ * and then sets the probability of every rule to its count divided by the total count of its left hand side. Every
+ * iteration gives a grammar under which the corpus is at least as likely as under the previous one.
+ * </p>
+ * <p>
+ * Sentences are divided over a number of threads, each of which keeps its own counts; the counts are merged when all
+ * threads are done, so there is no contention while parsing.
+ * </p>
+ */
+public class GrammarTrainer<T> {
+    private final NonTerminal goal;
+    private final ParseOptions<T> parseOptions;
+    private final int threads;
+
+    /**
+     * @param goal         Goal category, typically S for Sentence
+     * @param parseOptions Parse options, may be null. Must compute inner scores, and must not use Leo items or
+     *                     streaming. Callbacks may be called from multiple threads at the same time.
+     * @param threads      Number of threads to parse with
+     */
+    public GrammarTrainer(NonTerminal goal, ParseOptions<T> parseOptions, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Need at least one thread: " + threads);
+        this.goal = goal;
+        this.parseOptions = parseOptions;
+        this.threads = threads;
+    }
+
+    public GrammarTrainer(NonTerminal goal) {
+        this(goal, null, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Runs a number of iterations of expectation maximization
+     *
+     * @return Re-estimated grammar
+     */
+    public Grammar<T> train(Grammar<T> grammar, List<? extends Iterable<Token<T>>> corpus, int iterations) {
+        if (iterations < 0) throw new IllegalArgumentException("Number of iterations can't be negative: " + iterations);
+        for (int i = 0; i < iterations; i++) grammar = reestimate(grammar, getExpectedRuleCounts(grammar, corpus));
+        return grammar;
+    }
+
+    /**
+     * @return Expected rule counts over given corpus. Sentences that do not match the goal are left out, and counted
+     * as unparsed.
+     */
+    public RuleCounts getExpectedRuleCounts(Grammar<T> grammar, List<? extends Iterable<Token<T>>> corpus) {
+        final Parser<T> parser = new Parser<>(grammar);
+        final int tasks = Math.min(threads, corpus.size());
+        if (tasks <= 1) return count(grammar, parser, corpus, 0, 1);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(tasks);
+        try {
+            final List<Future<RuleCounts>> futures = new ArrayList<>(tasks);
+            for (int t = 0; t < tasks; t++) {
+                final int offset = t;
+                futures.add(executor.submit(() -> count(grammar, parser, corpus, offset, tasks)));
+            }
+            final RuleCounts counts = new RuleCounts();
+            for (Future<RuleCounts> future : futures) counts.addAll(future.get());
+            return counts;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while counting rules", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Counts every sentence from given offset, skipping the sentences in between that belong to other threads
+     */
+    private RuleCounts count(Grammar<T> grammar,
+                             Parser<T> parser,
+                             List<? extends Iterable<Token<T>>> corpus,
+                             int offset,
+                             int stride) {
+        final RuleCounts counts = new RuleCounts();
+        for (int i = offset; i < corpus.size(); i += stride)
+            InsideOutside.addExpectedRuleCounts(grammar, parser.getParseForest(goal, corpus.get(i), parseOptions), counts);
+        return counts;
+    }
+
+    /**
+     * <p>
+     * Sets the probability of every rule to its expected count divided by the total expected count of the rules with
+     * the same left hand side.
+     * </p>
+     * <p>
+     * Rules whose left hand side was never used keep their probability. Rules that were never used while their left
+     * hand side was are left out of the new grammar, because they would get probability zero.
+     * </p>
+     *
+     * @param grammar Grammar that given counts were computed with
+     * @return New grammar with the same name and semiring
+     */
+    public static <T> Grammar<T> reestimate(Grammar<T> grammar, RuleCounts counts) {
+        final TObjectDoubleMap<NonTerminal> totals = new TObjectDoubleHashMap<>();
+        for (Rule rule : grammar.getAllRules()) {
+            final double count = counts.get(rule);
+            totals.adjustOrPutValue(rule.left, count, count);
+        }
+
+        final Grammar.Builder<T> builder = new Grammar.Builder<T>(grammar.name).withSemiring(grammar.semiring);
+        for (Rule rule : grammar.getAllRules()) {
+            final double total = totals.get(rule.left);
+            if (total <= 0.0) builder.addRule(rule);
+            else {
+                final double count = counts.get(rule);
+                if (count > 0.0) builder.addRule(rule.withProbability(grammar.semiring, count / total));
+            }
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,174 @@
+package org.leibnizcenter.cfg.earleyparser.training;
+
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.DblSemiring;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.earleyparser.ParseForest;
+import org.leibnizcenter.cfg.earleyparser.ParseForest.IntermediateNode;
+import org.leibnizcenter.cfg.earleyparser.ParseForest.Node;
+import org.leibnizcenter.cfg.earleyparser.ParseForest.PackedNode;
+import org.leibnizcenter.cfg.earleyparser.ParseForest.SymbolNode;
+import org.leibnizcenter.cfg.earleyparser.Parser;
+import org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.token.Token;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>
+ * Computes outside scores over a {@link ParseForest}, which together with the inner scores of the forest give the
+ * expected number of times that every rule is used in the parses of a sentence.
+ * </p>
+ * <p>
+ * The outside score of a node is the total score of everything around it: the score of all parses of the sentence
+ * that contain the node, divided by the inner score of the node. Scores are pushed from every node to its children,
+ * from long spans to short spans, so every node is finished before its children are visited. Unit productions do not
+ * shorten the span, and may form cycles. So for nodes over the same span, outside scores coming from other contexts
+ * are gathered first, and then spread over unit production chains in one step with the reflexive transitive unit
+ * closure of the grammar, like the parser does for inner scores.
+ * </p>
+ */
+public final class InsideOutside {
+    /**
+     * Longest spans first. Within a span, intermediate nodes first: they may have a symbol node over the same span as
+     * a child, but never the other way around.
+     */
+    private static final Comparator<Node> TOP_DOWN = Comparator
+            .comparingInt((Node node) -> node.start - node.end)
+            .thenComparingInt(node -> node.start)
+            .thenComparingInt(node -> node instanceof IntermediateNode ? 0 : 1);
+
+    private InsideOutside() {
+    }
+
+    /**
+     * Parses given tokens and counts the rules in the result
+     *
+     * @param options Parse options. Must compute inner scores, and must not use Leo items.
+     * @return Expected rule counts for the sentence, which are empty with one unparsed sentence if the tokens do not
+     * match given goal
+     * @see Parser#getParseForest(NonTerminal, Iterable, ParseOptions)
+     */
+    public static <T> RuleCounts getExpectedRuleCounts(Grammar<T> grammar,
+                                                       NonTerminal goal,
+                                                       Iterable<Token<T>> tokens,
+                                                       ParseOptions<T> options) {
+        final RuleCounts counts = new RuleCounts();
+        addExpectedRuleCounts(grammar, new Parser<>(grammar).getParseForest(goal, tokens, options), counts);
+        return counts;
+    }
+
+    /**
+     * @param grammar Grammar that the forest was parsed with
+     * @return Expected rule counts for the sentence of given forest
+     */
+    public static RuleCounts getExpectedRuleCounts(Grammar<?> grammar, ParseForest forest) {
+        final RuleCounts counts = new RuleCounts();
+        addExpectedRuleCounts(grammar, forest, counts);
+        return counts;
+    }
+
+    /**
+     * Adds the expected rule counts for the sentence of given forest to given counts
+     */
+    static void addExpectedRuleCounts(Grammar<?> grammar, ParseForest forest, RuleCounts counts) {
+        final SymbolNode root = forest.getRoot();
+        if (root == null) {
+            counts.addUnparsedSentence();
+            return;
+        }
+        final DblSemiring semiring = forest.semiring;
+        final double logSentenceProbability = semiring.toLogProbability(root.innerScore);
+        if (Double.isInfinite(logSentenceProbability)) {
+            counts.addUnparsedSentence();
+            return;
+        }
+
+        final List<Node> nodes = new ArrayList<>(forest.getNodes());
+        nodes.sort(TOP_DOWN);
+        final TObjectDoubleMap<Node> outside = new TObjectDoubleHashMap<>(nodes.size() * 2, 0.5F, semiring.zero());
+        outside.put(root, semiring.one());
+
+        final List<SymbolNode> span = new ArrayList<>();
+        int i = 0;
+        while (i < nodes.size()) {
+            final Node first = nodes.get(i);
+            span.clear();
+            for (; i < nodes.size() && nodes.get(i).start == first.start && nodes.get(i).end == first.end; i++) {
+                final Node node = nodes.get(i);
+                if (node instanceof IntermediateNode) pushDown(semiring, node, outside.get(node), outside);
+                else if (((SymbolNode) node).category instanceof NonTerminal) span.add((SymbolNode) node);
+            }
+
+            closeOverUnitProductions(grammar, semiring, span, outside);
+            for (SymbolNode node : span) {
+                final double outer = outside.get(node);
+                if (outer == semiring.zero()) continue;
+                pushDown(semiring, node, outer, outside);
+                for (PackedNode packed : node.getAlternatives()) {
+                    final double logCount = semiring.toLogProbability(semiring.times(outer, packed.innerScore)) - logSentenceProbability;
+                    if (!Double.isInfinite(logCount)) counts.add(packed.rule, Math.exp(logCount));
+                }
+            }
+        }
+        counts.addSentence(logSentenceProbability);
+    }
+
+    /**
+     * Adds the outside score of given node, times the inner score of the siblings, to the outside score of each
+     * child. Skips unit productions, which are handled by {@link #closeOverUnitProductions}.
+     */
+    private static void pushDown(DblSemiring semiring, Node node, double outer, TObjectDoubleMap<Node> outside) {
+        if (outer == semiring.zero()) return;
+        for (PackedNode packed : node.getAlternatives()) {
+            final SymbolNode right = packed.right;
+            if (packed.left == null) {
+                // Unit production
+                if (node instanceof SymbolNode && right.category instanceof NonTerminal) continue;
+                if (right.category instanceof NonTerminal)
+                    add(semiring, outside, right, semiring.times(outer, packed.rule.probabilityAsSemiringElement));
+            } else {
+                add(semiring, outside, packed.left, semiring.times(outer, right.innerScore));
+                if (right.category instanceof NonTerminal)
+                    add(semiring, outside, right, semiring.times(outer, packed.left.innerScore));
+            }
+        }
+    }
+
+    /**
+     * Replaces the outside scores of given nodes over one span, which come from contexts other than unit productions,
+     * by their outside scores through any chain of unit productions: outside(Y) = ⊕<sub>X</sub> outside(X) ⊗
+     * R<sub>U</sub>(X, Y)
+     */
+    private static void closeOverUnitProductions(Grammar<?> grammar,
+                                                 DblSemiring semiring,
+                                                 List<SymbolNode> span,
+                                                 TObjectDoubleMap<Node> outside) {
+        if (span.size() == 1) {
+            final SymbolNode node = span.get(0);
+            final NonTerminal category = (NonTerminal) node.category;
+            outside.put(node, semiring.times(outside.get(node), grammar.getUnitStarScore(category, category)));
+            return;
+        }
+        final double[] closed = new double[span.size()];
+        for (int y = 0; y < closed.length; y++) {
+            final NonTerminal Y = (NonTerminal) span.get(y).category;
+            double outer = semiring.zero();
+            for (SymbolNode X : span) {
+                final double fromX = outside.get(X);
+                if (fromX != semiring.zero())
+                    outer = semiring.plus(outer, semiring.times(fromX, grammar.getUnitStarScore(X.category, Y)));
+            }
+            closed[y] = outer;
+        }
+        for (int y = 0; y < closed.length; y++) outside.put(span.get(y), closed[y]);
+    }
+
+    private static void add(DblSemiring semiring, TObjectDoubleMap<Node> outside, Node node, double score) {
+        outside.put(node, semiring.plus(outside.get(node), score));
+    }
+}
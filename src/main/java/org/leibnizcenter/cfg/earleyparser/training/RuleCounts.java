@@ -0,0 +1,88 @@
+package org.leibnizcenter.cfg.earleyparser.training;
+
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+import org.leibnizcenter.cfg.rule.Rule;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Expected number of times that every rule is used in the parses of a number of sentences, along with the log
+ * likelihood of those sentences. Not thread-safe: use one instance per thread and {@link #addAll(RuleCounts) merge}
+ * them afterwards.
+ */
+public class RuleCounts {
+    private final TObjectDoubleMap<Rule> counts = new TObjectDoubleHashMap<>();
+    private double logLikelihood;
+    private int sentences;
+    private int unparsedSentences;
+
+    /**
+     * @return Expected number of times that given rule is used
+     */
+    public double get(Rule rule) {
+        return counts.get(rule);
+    }
+
+    public void add(Rule rule, double count) {
+        counts.adjustOrPutValue(rule, count, count);
+    }
+
+    /**
+     * Adds a parsed sentence
+     *
+     * @param logProbability Natural logarithm of the probability of the sentence
+     */
+    public void addSentence(double logProbability) {
+        logLikelihood += logProbability;
+        sentences++;
+    }
+
+    /**
+     * Adds a sentence that could not be parsed, and does not contribute to the counts
+     */
+    public void addUnparsedSentence() {
+        unparsedSentences++;
+    }
+
+    public void addAll(RuleCounts other) {
+        other.counts.forEachEntry((rule, count) -> {
+            add(rule, count);
+            return true;
+        });
+        logLikelihood += other.logLikelihood;
+        sentences += other.sentences;
+        unparsedSentences += other.unparsedSentences;
+    }
+
+    /**
+     * @return Rules with a count
+     */
+    public Set<Rule> getRules() {
+        return Collections.unmodifiableSet(counts.keySet());
+    }
+
+    /**
+     * @return Sum of the natural logarithms of the probabilities of the parsed sentences
+     */
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    public int getSentences() {
+        return sentences;
+    }
+
+    public int getUnparsedSentences() {
+        return unparsedSentences;
+    }
+
+    @Override
+    public String toString() {
+        return "RuleCounts{sentences = " + sentences +
+                ", unparsed = " + unparsedSentences +
+                ", log likelihood = " + logLikelihood +
+                ", rules = " + counts.size() + '}';
+    }
+}
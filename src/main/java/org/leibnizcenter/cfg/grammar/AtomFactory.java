@@ -9,14 +9,18 @@ import java.lang.ref.WeakReference;
 
 /**
  * For not re-creating atom objects all the time, a weak cache of atoms. Values might get garbage collected.
+ * Thread-safe.
  * <p>
  * Created by maarten on 22/01/17.
+ *
+ * @deprecated The parser no longer creates {@link Atom atoms}
  */
+@Deprecated
 public class AtomFactory {
     private final TDoubleObjectMap<AtomWeakReference> atoms = new TDoubleObjectHashMap<>();
     private final ReferenceQueue<Atom> referenceQueue = new ReferenceQueue<>();
 
-    public Atom getAtom(double dbl) {
+    public synchronized Atom getAtom(double dbl) {
 //        return new Atom(dbl);
         final WeakReference<Atom> atomWeakReference = atoms.get(dbl);
 
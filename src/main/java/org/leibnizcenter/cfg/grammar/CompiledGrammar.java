@@ -0,0 +1,329 @@
+package org.leibnizcenter.cfg.grammar;
+
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.ExpressionSemiring;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.ProbabilitySemiring;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.NonLexicalToken;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.CaseInsensitiveStringTerminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.RegexTerminal;
+import org.leibnizcenter.cfg.rule.LexicalErrorRule;
+import org.leibnizcenter.cfg.rule.Rule;
+import org.leibnizcenter.cfg.util.MyMultimap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Binary format for a {@link Grammar} with everything that its constructor pre-computes, so that loading a grammar
+ * does not parse rules or compute closures again. See {@link Grammar#writeCompiled(Path)} and
+ * {@link Grammar#loadCompiled(Path)}.
+ * <p>
+ * The file is a big-endian sequence of sections, each starting with its number of entries:
+ * <ol>
+ * <li>header: magic number, format version, semiring and grammar name</li>
+ * <li>category table; all other sections refer to categories by their index in this table</li>
+ * <li>rules, each marked as either a plain {@link Rule} or a {@link LexicalErrorRule}; later sections refer to rules by
+ * their index in this section</li>
+ * <li>left-corner probabilities</li>
+ * <li>left*-corner and unit*-corner scores, as semiring elements</li>
+ * <li>rules with a non-zero left*-score for every non-terminal</li>
+ * <li>FIRST terminals for every non-terminal</li>
+ * </ol>
+ * Only categories that are a {@link NonTerminal}, {@link ExactStringTerminal}, {@link CaseInsensitiveStringTerminal},
+ * {@link RegexTerminal} or the {@link NonLexicalToken} can be written, because other terminals may carry arbitrary
+ * code.
+ */
+final class CompiledGrammar {
+    static final int MAGIC = 0x50434647; // "PCFG"
+    static final int VERSION = 2;
+
+    private static final byte LOG_SEMIRING = 0;
+    private static final byte PROBABILITY_SEMIRING = 1;
+
+    private static final byte RULE = 0;
+    private static final byte LEXICAL_ERROR_RULE = 1;
+
+    private static final byte NON_TERMINAL = 0;
+    private static final byte EXACT_STRING_TERMINAL = 1;
+    private static final byte CASE_INSENSITIVE_STRING_TERMINAL = 2;
+    private static final byte REGEX_TERMINAL = 3;
+    private static final byte NON_LEXICAL_TOKEN = 4;
+
+    final String name;
+    final ExpressionSemiring semiring;
+    final MyMultimap<NonTerminal, Rule> rules = new MyMultimap<>();
+    final Set<NonTerminal> nonTerminals = new HashSet<>();
+    final Set<Terminal<String>> terminals = new HashSet<>();
+    final LeftCorners leftCorners = new LeftCorners();
+    final ScoresAsSemiringElements leftStarScores;
+    final ScoresAsSemiringElements unitStarScores;
+    final Map<Category, Set<Rule>> nonZeroLeftStartRules = new HashMap<>();
+    final Map<NonTerminal, Set<Terminal<String>>> firstTerminals = new HashMap<>();
+
+    private CompiledGrammar(ByteBuffer in) throws IOException {
+        if (in.getInt() != MAGIC) throw new IOException("Not a compiled grammar");
+        final int version = in.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported compiled grammar version " + version + ", expected " + VERSION);
+        semiring = readSemiring(in.get());
+        name = in.get() == 0 ? null : readString(in);
+
+        final Category[] categories = new Category[in.getInt()];
+        for (int i = 0; i < categories.length; i++) {
+            categories[i] = readCategory(in);
+            //noinspection unchecked
+            if (categories[i] instanceof Terminal) terminals.add((Terminal<String>) categories[i]);
+            else nonTerminals.add((NonTerminal) categories[i]);
+        }
+
+        final Rule[] ruleTable = new Rule[in.getInt()];
+        for (int r = 0; r < ruleTable.length; r++) {
+            final byte kind = in.get();
+            final NonTerminal left = (NonTerminal) categories[in.getInt()];
+            final double probability = in.getDouble();
+            final Category[] right = new Category[in.getInt()];
+            for (int i = 0; i < right.length; i++) right[i] = categories[in.getInt()];
+            switch (kind) {
+                case RULE:
+                    ruleTable[r] = Rule.create(semiring, probability, left, right);
+                    break;
+                case LEXICAL_ERROR_RULE:
+                    ruleTable[r] = LexicalErrorRule.create(semiring, probability, left, right);
+                    break;
+                default:
+                    throw new IOException("Unknown rule type " + kind);
+            }
+            rules.put(left, ruleTable[r]);
+        }
+        rules.lock();
+
+        for (int rows = in.getInt(); rows > 0; rows--) {
+            final NonTerminal from = (NonTerminal) categories[in.getInt()];
+            for (int entries = in.getInt(); entries > 0; entries--)
+                leftCorners.setProbability(from, (NonTerminal) categories[in.getInt()], in.getDouble(), semiring);
+        }
+        leftStarScores = readScores(in, categories);
+        unitStarScores = readScores(in, categories);
+
+        for (int rows = in.getInt(); rows > 0; rows--) {
+            final Category from = categories[in.getInt()];
+            final int entries = in.getInt();
+            final Set<Rule> ruleSet = new HashSet<>(entries * 2);
+            for (int i = 0; i < entries; i++) ruleSet.add(ruleTable[in.getInt()]);
+            nonZeroLeftStartRules.put(from, ruleSet);
+        }
+
+        for (int rows = in.getInt(); rows > 0; rows--) {
+            final NonTerminal X = (NonTerminal) categories[in.getInt()];
+            final int entries = in.getInt();
+            if (entries < 0) firstTerminals.put(X, null);
+            else {
+                final Set<Terminal<String>> first = new HashSet<>();
+                //noinspection unchecked
+                for (int i = 0; i < entries; i++) first.add((Terminal<String>) categories[in.getInt()]);
+                firstTerminals.put(X, first);
+            }
+        }
+    }
+
+    /**
+     * Maps the file into memory and decodes it
+     *
+     * @throws IOException If the file could not be read, or is not a compiled grammar of the current version
+     */
+    static CompiledGrammar read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CompiledGrammar(buffer);
+        } catch (BufferUnderflowException | ClassCastException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt compiled grammar: " + path, e);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException If the grammar contains a category that can't be written, or uses another
+     *                                  semiring than {@link LogSemiring} or {@link ProbabilitySemiring}
+     */
+    static void write(Grammar<?> grammar, Path path) throws IOException {
+        final byte semiringId = getSemiringId(grammar.semiring);
+
+        final List<Category> categories = new ArrayList<>();
+        final TObjectIntMap<Category> categoryIndex = new TObjectIntHashMap<>(10, 0.5F, -1);
+        final List<Rule> ruleTable = new ArrayList<>(grammar.getAllRules());
+        final TObjectIntMap<Rule> ruleIndex = new TObjectIntHashMap<>(ruleTable.size() * 2, 0.5F, -1);
+        for (Rule rule : ruleTable) {
+            ruleIndex.put(rule, ruleIndex.size());
+            addCategory(rule.left, categories, categoryIndex);
+            for (Category c : rule.right) addCategory(c, categories, categoryIndex);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(semiringId);
+            out.writeByte(grammar.name == null ? 0 : 1);
+            if (grammar.name != null) writeString(out, grammar.name);
+
+            out.writeInt(categories.size());
+            for (Category category : categories) writeCategory(out, category);
+
+            out.writeInt(ruleTable.size());
+            for (Rule rule : ruleTable) {
+                out.writeByte(rule instanceof LexicalErrorRule ? LEXICAL_ERROR_RULE : RULE);
+                out.writeInt(categoryIndex.get(rule.left));
+                out.writeDouble(rule.probability);
+                out.writeInt(rule.right.length);
+                for (Category c : rule.right) out.writeInt(categoryIndex.get(c));
+            }
+
+            writeRows(out, grammar.getLeftCorners().mapToProb, categoryIndex);
+            writeRows(out, grammar.getLeftStarScores().getRows(), categoryIndex);
+            writeRows(out, grammar.unitStarScores.getRows(), categoryIndex);
+
+            out.writeInt(grammar.nonZeroLeftStartRules.size());
+            for (Map.Entry<Category, Set<Rule>> entry : grammar.nonZeroLeftStartRules.entrySet()) {
+                out.writeInt(categoryIndex.get(entry.getKey()));
+                out.writeInt(entry.getValue().size());
+                for (Rule rule : entry.getValue()) out.writeInt(ruleIndex.get(rule));
+            }
+
+            final Map<NonTerminal, ? extends Set<? extends Terminal<?>>> firstTerminals = grammar.getFirstTerminals();
+            out.writeInt(firstTerminals.size());
+            for (Map.Entry<NonTerminal, ? extends Set<? extends Terminal<?>>> entry : firstTerminals.entrySet()) {
+                out.writeInt(categoryIndex.get(entry.getKey()));
+                final Set<? extends Terminal<?>> first = entry.getValue();
+                out.writeInt(first == null ? -1 : first.size());
+                if (first != null) for (Terminal<?> terminal : first) out.writeInt(categoryIndex.get(terminal));
+            }
+        }
+    }
+
+    private static byte getSemiringId(ExpressionSemiring semiring) {
+        if (semiring == LogSemiring.get()) return LOG_SEMIRING;
+        else if (semiring == ProbabilitySemiring.get()) return PROBABILITY_SEMIRING;
+        else throw new IllegalArgumentException("Can't write grammar with semiring " + semiring.getClass().getName());
+    }
+
+    private static ExpressionSemiring readSemiring(byte id) throws IOException {
+        switch (id) {
+            case LOG_SEMIRING:
+                return LogSemiring.get();
+            case PROBABILITY_SEMIRING:
+                return ProbabilitySemiring.get();
+            default:
+                throw new IOException("Unknown semiring " + id);
+        }
+    }
+
+    private static void addCategory(Category category, List<Category> categories, TObjectIntMap<Category> categoryIndex) {
+        if (categoryIndex.containsKey(category)) return;
+        if (!(category == NonLexicalToken.INSTANCE
+                || category.getClass() == NonTerminal.class
+                || category.getClass() == ExactStringTerminal.class
+                || category.getClass() == CaseInsensitiveStringTerminal.class
+                || category.getClass() == RegexTerminal.class))
+            throw new IllegalArgumentException("Can't write category " + category + " of type " + category.getClass().getName());
+        categoryIndex.put(category, categories.size());
+        categories.add(category);
+    }
+
+    private static void writeCategory(DataOutputStream out, Category category) throws IOException {
+        if (category == NonLexicalToken.INSTANCE) {
+            out.writeByte(NON_LEXICAL_TOKEN);
+        } else if (category instanceof NonTerminal) {
+            out.writeByte(NON_TERMINAL);
+            writeString(out, ((NonTerminal) category).name);
+        } else if (category instanceof ExactStringTerminal) {
+            out.writeByte(EXACT_STRING_TERMINAL);
+            writeString(out, ((ExactStringTerminal) category).string);
+        } else if (category instanceof CaseInsensitiveStringTerminal) {
+            out.writeByte(CASE_INSENSITIVE_STRING_TERMINAL);
+            writeString(out, ((CaseInsensitiveStringTerminal) category).string);
+            writeString(out, ((CaseInsensitiveStringTerminal) category).locale.toLanguageTag());
+        } else {
+            out.writeByte(REGEX_TERMINAL);
+            writeString(out, ((RegexTerminal) category).pattern.pattern());
+            out.writeInt(((RegexTerminal) category).pattern.flags());
+        }
+    }
+
+    private static Category readCategory(ByteBuffer in) throws IOException {
+        final byte kind = in.get();
+        switch (kind) {
+            case NON_LEXICAL_TOKEN:
+                return NonLexicalToken.INSTANCE;
+            case NON_TERMINAL:
+                return new NonTerminal(readString(in));
+            case EXACT_STRING_TERMINAL:
+                return new ExactStringTerminal(readString(in));
+            case CASE_INSENSITIVE_STRING_TERMINAL:
+                final String string = readString(in);
+                return new CaseInsensitiveStringTerminal(string, Locale.forLanguageTag(readString(in)));
+            case REGEX_TERMINAL:
+                final String pattern = readString(in);
+                return new RegexTerminal(pattern, in.getInt());
+            default:
+                throw new IOException("Unknown category type " + kind);
+        }
+    }
+
+    private static void writeRows(DataOutputStream out, Map<Category, TObjectDoubleMap<Category>> rows, TObjectIntMap<Category> categoryIndex) throws IOException {
+        out.writeInt(rows.size());
+        for (Map.Entry<Category, TObjectDoubleMap<Category>> row : rows.entrySet()) {
+            out.writeInt(categoryIndex.get(row.getKey()));
+            out.writeInt(row.getValue().size());
+            final IOException[] exception = new IOException[1];
+            row.getValue().forEachEntry((to, score) -> {
+                try {
+                    out.writeInt(categoryIndex.get(to));
+                    out.writeDouble(score);
+                    return true;
+                } catch (IOException e) {
+                    exception[0] = e;
+                    return false;
+                }
+            });
+            if (exception[0] != null) throw exception[0];
+        }
+    }
+
+    private ScoresAsSemiringElements readScores(ByteBuffer in, Category[] categories) {
+        final ScoresAsSemiringElements scores = new ScoresAsSemiringElements();
+        for (int rows = in.getInt(); rows > 0; rows--) {
+            final NonTerminal from = (NonTerminal) categories[in.getInt()];
+            final int entries = in.getInt();
+            for (int i = 0; i < entries; i++)
+                scores.set(from, (NonTerminal) categories[in.getInt()], in.getDouble(), semiring.zero(), entries);
+        }
+        return scores;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        final byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
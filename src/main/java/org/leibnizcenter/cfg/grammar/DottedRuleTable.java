@@ -0,0 +1,138 @@
+package org.leibnizcenter.cfg.grammar;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.DblSemiring;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+import org.leibnizcenter.cfg.rule.Rule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Assigns a dense int id to every (rule, dot position) pair in a grammar. The ids of all dot positions of a rule are
+ * consecutive, so advancing the dot of a dotted rule is the same as incrementing its id.
+ * <p>
+ * Together with a rule start position, a dotted rule id identifies a state at some chart position, so states can be
+ * looked up by a primitive {@link #key(int, int) key} instead of by hashing and comparing {@link Rule} objects.
+ * <p>
+ * The table contains all rules in the grammar, and a rule <code>START → X</code> for every non-terminal X. Rules
+ * that are not in the grammar are assigned ids on demand.
+ * <p>
+ * The id of a {@link State} is cached on the state, so that looking up a state that is already in a chart does not
+ * hash its rule again.
+ */
+public class DottedRuleTable {
+    private static final int NO_ID = -1;
+    private static final AtomicLong serials = new AtomicLong();
+
+    /**
+     * Tells the ids that are cached on states for this table apart from those for other tables. Never 0.
+     */
+    private final long serial = serials.incrementAndGet();
+
+    private final TObjectIntMap<Rule> firstId;
+    private final Rule[] rules;
+    private final int[] dots;
+    /**
+     * Rules that were not in the grammar when the table was compiled
+     */
+    private final TObjectIntMap<Rule> additionalFirstIds = new TObjectIntHashMap<>(10, 0.5F, NO_ID);
+    private int nextId;
+
+    DottedRuleTable(DblSemiring semiring, Collection<Rule> grammarRules, Collection<NonTerminal> nonTerminals) {
+        final List<Rule> allRules = new ArrayList<>(grammarRules.size() + nonTerminals.size());
+        allRules.addAll(grammarRules);
+        nonTerminals.forEach(X -> allRules.add(Rule.create(semiring, 1.0, Category.START, X)));
+
+        this.firstId = new TObjectIntHashMap<>(allRules.size(), 0.5F, NO_ID);
+        int size = 0;
+        for (Rule rule : allRules)
+            if (!firstId.containsKey(rule)) {
+                firstId.put(rule, size);
+                size += rule.right.length + 1;
+            }
+        this.rules = new Rule[size];
+        this.dots = new int[size];
+        firstId.forEachEntry((rule, id) -> {
+            for (int dot = 0; dot <= rule.right.length; dot++) {
+                rules[id + dot] = rule;
+                dots[id + dot] = dot;
+            }
+            return true;
+        });
+        this.nextId = size;
+    }
+
+    /**
+     * @return Key for a state with given dotted rule id and rule start position
+     */
+    public static long key(int dottedRuleId, int ruleStart) {
+        return ((long) dottedRuleId << 32) | (ruleStart & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Runs in O(1)
+     *
+     * @return Id for given rule with the dot at given position
+     */
+    public int getId(Rule rule, int dot) {
+        final int id = firstId.get(rule);
+        return (id == NO_ID ? getAdditionalId(rule) : id) + dot;
+    }
+
+    /**
+     * Runs in O(1). Only hashes the rule of given state the first time it is looked up in this table.
+     *
+     * @return Id for the rule of given state with the dot of given state
+     * @see State#getDottedRuleId(DottedRuleTable)
+     */
+    public int getId(State state) {
+        return state.getDottedRuleId(this);
+    }
+
+    /**
+     * @return Number that tells the ids that are cached on states for this table apart from those for other tables.
+     * Fits in 32 bits in practice, and is never 0.
+     */
+    public long getSerial() {
+        return serial;
+    }
+
+    private synchronized int getAdditionalId(Rule rule) {
+        int id = additionalFirstIds.get(rule);
+        if (id == NO_ID) {
+            id = nextId;
+            additionalFirstIds.put(rule, id);
+            nextId += rule.right.length + 1;
+        }
+        return id;
+    }
+
+    /**
+     * @return Number of dotted rules that were compiled from the grammar
+     */
+    public int size() {
+        return rules.length;
+    }
+
+    /**
+     * @param id Id of a dotted rule in the grammar, smaller than {@link #size()}
+     * @return Rule of the dotted rule
+     */
+    public Rule getRule(int id) {
+        return rules[id];
+    }
+
+    /**
+     * @param id Id of a dotted rule in the grammar, smaller than {@link #size()}
+     * @return Dot position of the dotted rule
+     */
+    public int getDot(int id) {
+        return dots[id];
+    }
+}
@@ -1,7 +1,6 @@
 
 package org.leibnizcenter.cfg.grammar;
 
-import org.leibnizcenter.cfg.algebra.matrix.Matrix;
 import org.leibnizcenter.cfg.algebra.semiring.dbl.DblSemiring;
 import org.leibnizcenter.cfg.algebra.semiring.dbl.ExpressionSemiring;
 import org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring;
@@ -12,22 +11,22 @@ import org.leibnizcenter.cfg.category.terminal.Terminal;
 import org.leibnizcenter.cfg.category.terminal.stringterminal.CaseInsensitiveStringTerminal;
 import org.leibnizcenter.cfg.rule.Rule;
 import org.leibnizcenter.cfg.rule.RuleFactory;
-import org.leibnizcenter.cfg.rule.RuleParser;
+import org.leibnizcenter.cfg.rule.RuleReader;
 import org.leibnizcenter.cfg.token.Token;
 import org.leibnizcenter.cfg.util.MyMultimap;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.function.Function;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 
@@ -45,8 +44,6 @@ import java.util.stream.Stream;
  */
 public final class Grammar<T> {
     private static final Function<String, Category> STRING_CATEGORY_FUNCTION = s -> NonLexicalToken.ERROR_SYMBOL.equals(s) ? (Terminal) NonLexicalToken.INSTANCE : Character.isUpperCase(s.charAt(0)) ? new NonTerminal(s) : new CaseInsensitiveStringTerminal(s);
-    private static final Pattern NEWLINE = Pattern.compile("\\n");
-    private static final Pattern TRAILING_COMMENT = Pattern.compile("#.*$");
     @SuppressWarnings("WeakerAccess")
     public final String name;
     /**
@@ -54,9 +51,17 @@ public final class Grammar<T> {
      */
     public final ScoresAsSemiringElements unitStarScores;
     public final ExpressionSemiring semiring;
+    /**
+     * @deprecated Not used by the parser
+     */
+    @Deprecated
     public final AtomFactory atoms = new AtomFactory();
     public final Map<Category, Set<Rule>> nonZeroLeftStartRules;
     public final Set<Terminal<T>> terminals = new HashSet<>();
+    /**
+     * Dense ids for all dotted rules in this grammar
+     */
+    public final DottedRuleTable dottedRules;
     private final MyMultimap<NonTerminal, Rule> rules;
     /**
      * Two non-terminals X and Y are said to be in a left-corner relation
@@ -71,7 +76,13 @@ public final class Grammar<T> {
     private final ScoresAsSemiringElements leftStarCornersAsSemiringElements;
 
     private final Set<NonTerminal> nonTerminals = new HashSet<>();
-    private final Map<Token<T>, Set<Terminal<T>>> tokenToTerminalsCache = new WeakHashMap<>();
+    private final TokenCategoryCache<T> tokenToTerminalsCache;
+    private final TerminalIndex<T> terminalIndex;
+    /**
+     * For every non-terminal, the terminals that may start a string it derives. Null values mean that this can't be
+     * told, because a rule with an empty right hand side or an error token is involved.
+     */
+    private final Map<NonTerminal, Set<Terminal<T>>> firstTerminals = new HashMap<>();
 
     /**
      * Creates a grammar with the given name, and given rules.
@@ -84,7 +95,16 @@ public final class Grammar<T> {
      * @param semiring Semiring
      */
     public Grammar(String name, MyMultimap<NonTerminal, Rule> rules, ExpressionSemiring semiring) {
+        this(name, rules, semiring, TokenCategoryCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param tokenCacheSize Maximum number of tokens for which to cache the matching terminals. See {@link #getCategories(Token)}.
+     * @see #Grammar(String, MyMultimap, ExpressionSemiring)
+     */
+    public Grammar(String name, MyMultimap<NonTerminal, Rule> rules, ExpressionSemiring semiring, int tokenCacheSize) {
         this.name = name;
+        this.tokenToTerminalsCache = new TokenCategoryCache<>(tokenCacheSize);
         this.rules = rules;
         rules.lock();
 
@@ -98,6 +118,7 @@ public final class Grammar<T> {
         });
 
         this.semiring = semiring;
+        terminalIndex = new TerminalIndex<>(terminals);
         leftCorners = new LeftCorners(semiring, nonTerminals, rules);
 
         final LeftCorners leftStarCorners;
@@ -119,37 +140,94 @@ public final class Grammar<T> {
         });
 
         nonZeroLeftStartRules = Collections.unmodifiableMap(nonZeroLeftStartRules_);
+        nonTerminals.forEach(X -> firstTerminals.put(X, computeFirstTerminals(X, leftStarCorners)));
+        dottedRules = new DottedRuleTable(semiring, rules.values(), nonTerminals);
+    }
+
+    /**
+     * Grammar with everything pre-computed, as read by {@link #loadCompiled(Path, int)}
+     */
+    @SuppressWarnings("unchecked")
+    private Grammar(CompiledGrammar compiled, int tokenCacheSize) {
+        this.name = compiled.name;
+        this.tokenToTerminalsCache = new TokenCategoryCache<>(tokenCacheSize);
+        this.rules = compiled.rules;
+        this.semiring = compiled.semiring;
+        nonTerminals.addAll(compiled.nonTerminals);
+        compiled.terminals.forEach(terminal -> terminals.add((Terminal<T>) (Terminal) terminal));
+        terminalIndex = new TerminalIndex<>(terminals);
+        leftCorners = compiled.leftCorners;
+        leftStarCornersAsSemiringElements = compiled.leftStarScores;
+        unitStarScores = compiled.unitStarScores;
+        nonZeroLeftStartRules = Collections.unmodifiableMap(compiled.nonZeroLeftStartRules);
+        compiled.firstTerminals.forEach((X, first) -> firstTerminals.put(X, (Set<Terminal<T>>) (Set) first));
+        dottedRules = new DottedRuleTable(semiring, rules.values(), nonTerminals);
+    }
+
+    /**
+     * Loads a grammar that was written by {@link #writeCompiled(Path)}. The file is memory-mapped, and the left-corner
+     * closures are read as they are instead of computed, so this is much quicker than building the grammar from
+     * its rules.
+     *
+     * @throws IOException If the file could not be read, or is not a compiled grammar of the current format version
+     */
+    public static Grammar<String> loadCompiled(Path path) throws IOException {
+        return loadCompiled(path, TokenCategoryCache.DEFAULT_MAXIMUM_SIZE);
     }
 
     /**
-     * Uses a trick to compute left*Corners (R_L), the reflexive transitive closure of leftCorners:
+     * @param tokenCacheSize Maximum number of tokens for which to cache the matching terminals. See {@link #getCategories(Token)}.
+     * @see #loadCompiled(Path)
+     */
+    public static Grammar<String> loadCompiled(Path path, int tokenCacheSize) throws IOException {
+        return new Grammar<>(CompiledGrammar.read(path), tokenCacheSize);
+    }
+
+    /**
+     * Writes this grammar, with its pre-computed left-corner closures, FIRST sets and rule tables, to a versioned
+     * binary file that {@link #loadCompiled(Path)} reads. Only grammars over the {@link LogSemiring} or
+     * {@link org.leibnizcenter.cfg.algebra.semiring.dbl.ProbabilitySemiring ProbabilitySemiring} whose terminals are
+     * exact, case-insensitive or regex string terminals can be written, because other terminals may carry arbitrary
+     * code.
+     *
+     * @throws IllegalArgumentException If this grammar contains a terminal or semiring that can't be written
+     */
+    public void writeCompiled(Path path) throws IOException {
+        CompiledGrammar.write(this, path);
+    }
+
+    /**
+     * Computes left*Corners (R_L), the reflexive transitive closure of leftCorners:
      * <p>
      * <code>R_L = I + P_L R_L = (I - P_L)^-1</code>
+     * <p>
+     * Only inverts the strongly connected components of P_L, see {@link SparseClosure}.
      */
     private static LeftCorners getReflexiveTransitiveClosure(DblSemiring semiring, Set<NonTerminal> nonTerminals, LeftCorners P) {
-        NonTerminal[] nonterminalsArr = nonTerminals.toArray(new NonTerminal[nonTerminals.size()]);
-        final Matrix R_L_inverse = new Matrix(nonTerminals.size(), nonTerminals.size());
-        for (int row = 0; row < nonterminalsArr.length; row++) {
-            NonTerminal X = nonterminalsArr[row];
-            for (int col = 0; col < nonterminalsArr.length; col++) {
-                NonTerminal Y = nonterminalsArr[col];
-                // I - P_L
-                R_L_inverse.set(row, col, (row == col ? 1 : 0) - P.getProbability(X, Y));
+        return SparseClosure.reflexiveTransitiveClosure(semiring, nonTerminals, P);
+    }
+
+    /**
+     * FIRST set of X, from the rules of all left*-corners of X
+     *
+     * @return Terminals that may start a string derived by X, or null if that can't be told
+     */
+    private Set<Terminal<T>> computeFirstTerminals(NonTerminal X, LeftCorners leftStarCorners) {
+        final Set<NonTerminal> leftStar = new HashSet<>();
+        leftStar.add(X);
+        final Collection<NonTerminal> nonZeroScores = leftStarCorners.getNonZeroScores(X);
+        if (nonZeroScores != null) leftStar.addAll(nonZeroScores);
+
+        final Set<Terminal<T>> first = new HashSet<>();
+        for (NonTerminal Y : leftStar) {
+            final Collection<Rule> rulesForY = getRules(Y);
+            if (rulesForY != null) for (Rule rule : rulesForY) {
+                if (rule.right.length == 0 || rule.right[0] instanceof NonLexicalToken) return null;
+                //noinspection unchecked
+                if (rule.right[0] instanceof Terminal) first.add((Terminal<T>) rule.right[0]);
             }
         }
-        final Matrix R_L = R_L_inverse.inverse();
-
-        LeftCorners R__L = new LeftCorners();
-        /*
-         * Copy all matrix values into our {@link LeftCorners} object
-         */
-        IntStream.range(0, R_L.getRowDimension())
-                .forEach(row ->
-                        IntStream.range(0, R_L.getColumnDimension()).forEach(col ->
-                                R__L.setProbability(nonterminalsArr[row], nonterminalsArr[col], R_L.get(row, col), semiring)
-                        )
-                );
-        return R__L;
+        return first;
     }
 
     @SuppressWarnings("SameParameterValue")
@@ -160,16 +238,11 @@ public final class Grammar<T> {
 
     @SuppressWarnings("WeakerAccess")
     public static Grammar<String> fromString(String s, Function<String, Category> parseCategory, DblSemiring semiring) {
-        Builder<String> b = new Builder<>();
-
-        RuleParser parser = new RuleParser(parseCategory, semiring);
-        b.addRules(Arrays.stream(NEWLINE.split(s.trim()))
-                .map(line -> TRAILING_COMMENT.matcher(line).replaceAll("").trim())
-                .filter(line -> !line.isEmpty())
-                .map(parser::fromString)
-                .collect(Collectors.toSet())
-        );
-        return b.build();
+        try {
+            return fromReader(new StringReader(s), parseCategory, semiring);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     public static Grammar<String> fromString(Path path, Charset charset) throws IOException {
@@ -181,17 +254,14 @@ public final class Grammar<T> {
         );
     }
 
+    /**
+     * @throws org.leibnizcenter.cfg.rule.RuleFormatException If a line is not a valid rule
+     */
     @SuppressWarnings("WeakerAccess")
     public static Grammar<String> fromString(Path path, Charset charset, Function<String, Category> parseCategory, DblSemiring semiring) throws IOException {
-        Builder<String> b = new Builder<>();
-        RuleParser ruleParser = new RuleParser(parseCategory, semiring);
-        final Collection<Rule> rules = Files.lines(path, charset).parallel()
-                .map(line -> TRAILING_COMMENT.matcher(line).replaceAll("").trim())
-                .filter(line -> !line.isEmpty())
-                .map(ruleParser::fromString)
-                .collect(Collectors.toSet());
-        b.addRules(rules);
-        return b.build();
+        try (Reader reader = Files.newBufferedReader(path, charset)) {
+            return fromReader(reader, parseCategory, semiring);
+        }
     }
 
 
@@ -206,20 +276,17 @@ public final class Grammar<T> {
 
     @SuppressWarnings("WeakerAccess")
     public static Grammar<String> fromString(InputStream inputStream, Charset charset, Function<String, Category> parseCategory, DblSemiring semiring) throws IOException {
-        Builder<String> b = new Builder<>();
-
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, charset));
-        RuleParser ruleParser = new RuleParser(parseCategory, semiring);
+        return fromReader(new InputStreamReader(inputStream, charset), parseCategory, semiring);
+    }
 
-        String line = reader.readLine();
-        Collection<Rule> rules = new HashSet<>();
-        while (line != null) {
-            line = TRAILING_COMMENT.matcher(line).replaceAll("").trim();
-            if (!line.isEmpty())
-                rules.add(ruleParser.fromString(line));
-            line = reader.readLine();
-        }
-        b.addRules(rules);
+    /**
+     * Reads rules in the <code>.cfg</code> format, see {@link RuleReader}
+     *
+     * @throws org.leibnizcenter.cfg.rule.RuleFormatException If a line is not a valid rule
+     */
+    public static Grammar<String> fromReader(Reader reader, Function<String, Category> parseCategory, DblSemiring semiring) throws IOException {
+        Builder<String> b = new Builder<>();
+        new RuleReader(parseCategory, semiring).read(reader, b::addRule);
         return b.build();
     }
 
@@ -323,6 +390,18 @@ public final class Grammar<T> {
         return getAllRules().size();
     }
 
+    LeftCorners getLeftCorners() {
+        return leftCorners;
+    }
+
+    ScoresAsSemiringElements getLeftStarScores() {
+        return leftStarCornersAsSemiringElements;
+    }
+
+    Map<NonTerminal, Set<Terminal<T>>> getFirstTerminals() {
+        return firstTerminals;
+    }
+
     public double getLeftScore(NonTerminal LHS, NonTerminal RHS) {
         return leftCorners.getProbability(LHS, RHS);
     }
@@ -331,6 +410,27 @@ public final class Grammar<T> {
         return unitStarScores.get(LHS, RHS);
     }
 
+    /**
+     * Runs in O(|categories|)
+     *
+     * @param rule       Rule to predict
+     * @param categories Categories of the next token
+     * @return Whether a string derived by given rule may start with a token of one of given categories. True if that
+     * can't be told, for example if the rule is not in this grammar or if it may derive the empty string.
+     */
+    public boolean mayStartWith(Rule rule, Collection<Terminal<T>> categories) {
+        if (rule.right.length == 0 || rule.right[0] instanceof NonLexicalToken) return true;
+        final Category first = rule.right[0];
+        if (first instanceof Terminal) //noinspection SuspiciousMethodCalls
+            return categories.contains(first);
+
+        final Set<Terminal<T>> firstTerminals = this.firstTerminals.get(first);
+        if (firstTerminals == null) return true;
+        for (Terminal<T> category : categories)
+            if (firstTerminals.contains(category)) return true;
+        return false;
+    }
+
     @SuppressWarnings("unused")
     public Set<NonTerminal> getNonTerminals() {
         return nonTerminals;
@@ -345,27 +445,33 @@ public final class Grammar<T> {
 //    }
 
     /**
-     * Runs in O(N) for N is the number of terminals. Weakly caches tokens on {@link Token#equals(Object)} to make subsequent
-     * calls potentially quicker.
+     * Finds string terminals through an index, and tries other terminals one by one (see {@link TerminalIndex}).
+     * Caches the most recently used tokens on {@link Token#equals(Object)} to make subsequent calls quicker.
+     * Safe to call from multiple threads.
      *
      * @return set of all terminals that match given token, usually a singleton set.
      */
     public Set<Terminal<T>> getCategories(Token<T> token) {
-        return tokenToTerminalsCache.computeIfAbsent(
+        return tokenToTerminalsCache.get(
                 token,
-                ignored -> this.terminals.stream()
-                        .filter(category -> !(category instanceof NonLexicalToken))
-                        .filter(category -> category.hasCategory(token))
-                        .collect(Collectors.toSet())
+                t -> Collections.unmodifiableSet(terminalIndex.getCategories(t))
         );
     }
 
+    /**
+     * @return Cache used by {@link #getCategories(Token)}, for inspecting its hit, miss and eviction counts
+     */
+    public TokenCategoryCache<T> getTokenCache() {
+        return tokenToTerminalsCache;
+    }
+
 
     public static class Builder<E> {
         private final MyMultimap<NonTerminal, Rule> rules = new MyMultimap<>();
         private String name;
         private ExpressionSemiring semiring = LogSemiring.get();
         private RuleFactory rf = new RuleFactory(semiring);
+        private int tokenCacheSize = TokenCategoryCache.DEFAULT_MAXIMUM_SIZE;
 
         public Builder(String name) {
             this.name = name;
@@ -381,6 +487,16 @@ public final class Grammar<T> {
             return this;
         }
 
+        /**
+         * @param maximumSize Maximum number of tokens for which to cache the matching terminals, least recently used
+         *                    tokens are evicted first. 0 disables caching.
+         */
+        public Builder<E> withTokenCacheSize(int maximumSize) {
+            if (maximumSize < 0) throw new IllegalArgumentException("Cache size can't be negative: " + maximumSize);
+            this.tokenCacheSize = maximumSize;
+            return this;
+        }
+
         @SuppressWarnings("unused")
         public Builder<E> setName(String name) {
             this.name = name;
@@ -412,7 +528,7 @@ public final class Grammar<T> {
         }
 
         public Grammar<E> build() {
-            return new Grammar<>(name, rules, semiring);
+            return new Grammar<>(name, rules, semiring, tokenCacheSize);
         }
 
         @SuppressWarnings({"unused", "WeakerAccess"})
@@ -8,6 +8,7 @@ import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
 import org.leibnizcenter.cfg.util.MyMultimap;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -18,11 +19,18 @@ public class ScoresAsSemiringElements {
     private final Map<Category, TObjectDoubleMap<Category>> mapToSemiringElements = new HashMap<>();
     private final MyMultimap<NonTerminal, NonTerminal> nonZeroNonTerminalScores;
 
+    /**
+     * Empty scores, to be filled by {@link #set}
+     */
+    ScoresAsSemiringElements() {
+        this.nonZeroNonTerminalScores = new MyMultimap<>();
+    }
+
     ScoresAsSemiringElements(LeftCorners leftCorners, DblSemiring semiring) {
         this.nonZeroNonTerminalScores = leftCorners.nonZeroScores;
         leftCorners.mapToProb.forEach(
                 (catFrom, m) -> {
-                    final TObjectDoubleMap<Category> toScore = getCategoryToScoreMap(semiring.zero(), catFrom);
+                    final TObjectDoubleMap<Category> toScore = getCategoryToScoreMap(semiring.zero(), catFrom, m.size());
                     m.forEachEntry((catTo, value) -> {
                         toScore.put(catTo, semiring.fromProbability(value));
                         return true;
@@ -31,17 +39,30 @@ public class ScoresAsSemiringElements {
         );
     }
 
-    private TObjectDoubleMap<Category> getCategoryToScoreMap(double zero, Category catFrom) {
+    private TObjectDoubleMap<Category> getCategoryToScoreMap(double zero, Category catFrom, int size) {
         if (mapToSemiringElements.containsKey(catFrom))
             return mapToSemiringElements.get(catFrom);
         else {
-            TObjectDoubleHashMap<Category> toScore = new TObjectDoubleHashMap<>(500, 0.5F, zero);
+            // Size to the row, because closures of large grammars have many short rows
+            TObjectDoubleHashMap<Category> toScore = new TObjectDoubleHashMap<>(Math.max(10, size * 2), 0.5F, zero);
             mapToSemiringElements.put(catFrom, toScore);
             return toScore;
         }
     }
 
 
+    /**
+     * @param rowSize Expected number of entries for given LHS
+     */
+    void set(NonTerminal lhs, NonTerminal rhs, double score, double zero, int rowSize) {
+        getCategoryToScoreMap(zero, lhs, rowSize).put(rhs, score);
+        if (score != zero) nonZeroNonTerminalScores.put(lhs, rhs);
+    }
+
+    Map<Category, TObjectDoubleMap<Category>> getRows() {
+        return Collections.unmodifiableMap(mapToSemiringElements);
+    }
+
     public Collection<NonTerminal> getNonZeroNonTerminals(NonTerminal Y) {
         return nonZeroNonTerminalScores.get(Y);
     }
@@ -0,0 +1,204 @@
+package org.leibnizcenter.cfg.grammar;
+
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.leibnizcenter.cfg.algebra.matrix.Matrix;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.DblSemiring;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+
+import java.util.*;
+
+/**
+ * Computes the reflexive transitive closure <code>R = I + P R = (I - P)<sup>-1</sup></code> of a sparse relation P
+ * between non-terminals, such as the left-corner or unit production relation.
+ * <p>
+ * Instead of inverting the dense |N|×|N| matrix, this splits the graph of P into strongly connected components, and
+ * handles them in reverse topological order. Only the block of P within each component is inverted, which is small
+ * for practical grammars (a single entry for non-terminals that are not part of any cycle). Rows of R for the members
+ * of a component are then composed from the inverted block and the rows of R for the components it leads to, which
+ * are already known:
+ * <p>
+ * <code>R[X] = Σ<sub>Z ∈ C</sub> (I - P<sub>C</sub>)<sup>-1</sup>[X][Z] (e<sub>Z</sub> + Σ<sub>W ∉ C</sub> P[Z][W] R[W])</code>
+ * <p>
+ * Runs in O(Σ |C|³ + Σ |C|² r) for r the size of the rows of R, and takes memory in the order of the non-zero
+ * entries of R.
+ */
+final class SparseClosure {
+    private final NonTerminal[] nonTerminals;
+    private final TObjectIntHashMap<NonTerminal> indexOf;
+    /**
+     * Non-zero entries of P, by row
+     */
+    private final int[][] successors;
+    private final double[][] successorProbabilities;
+
+    private SparseClosure(Set<NonTerminal> nonTerminalSet, LeftCorners P) {
+        nonTerminals = nonTerminalSet.toArray(new NonTerminal[nonTerminalSet.size()]);
+        indexOf = new TObjectIntHashMap<>(nonTerminals.length * 2, 0.5F, -1);
+        for (int i = 0; i < nonTerminals.length; i++) indexOf.put(nonTerminals[i], i);
+
+        successors = new int[nonTerminals.length][];
+        successorProbabilities = new double[nonTerminals.length][];
+        for (int i = 0; i < nonTerminals.length; i++) {
+            final Collection<NonTerminal> nonZero = P.getNonZeroScores(nonTerminals[i]);
+            final TIntArrayList to = new TIntArrayList();
+            final TIntSet seen = new TIntHashSet();
+            if (nonZero != null) for (NonTerminal Y : nonZero) {
+                final int j = indexOf.get(Y);
+                if (j >= 0 && P.getProbability(nonTerminals[i], Y) != 0.0 && seen.add(j)) to.add(j);
+            }
+            successors[i] = to.toArray();
+            successorProbabilities[i] = new double[successors[i].length];
+            for (int k = 0; k < successors[i].length; k++)
+                successorProbabilities[i][k] = P.getProbability(nonTerminals[i], nonTerminals[successors[i][k]]);
+        }
+    }
+
+    /**
+     * @return Reflexive transitive closure of given relation, with only non-zero entries set
+     */
+    static LeftCorners reflexiveTransitiveClosure(DblSemiring semiring, Set<NonTerminal> nonTerminals, LeftCorners P) {
+        return new SparseClosure(nonTerminals, P).compute(semiring);
+    }
+
+    private LeftCorners compute(DblSemiring semiring) {
+        final TIntDoubleHashMap[] rows = new TIntDoubleHashMap[nonTerminals.length];
+        // Tarjan finds components in reverse topological order, so every component only leads to finished ones
+        for (int[] component : stronglyConnectedComponents()) computeRows(component, rows);
+
+        final LeftCorners closure = new LeftCorners();
+        for (int i = 0; i < rows.length; i++) {
+            final NonTerminal X = nonTerminals[i];
+            for (TIntDoubleIterator it = rows[i].iterator(); it.hasNext(); ) {
+                it.advance();
+                if (it.value() != 0.0) closure.setProbability(X, nonTerminals[it.key()], it.value(), semiring);
+            }
+        }
+        return closure;
+    }
+
+    private void computeRows(int[] component, TIntDoubleHashMap[] rows) {
+        final int size = component.length;
+        final TIntIntHashMap memberPosition = new TIntIntHashMap(size * 2, 0.5F, -1, -1);
+        for (int m = 0; m < size; m++) memberPosition.put(component[m], m);
+
+        // I - P restricted to this component
+        final Matrix block = new Matrix(size, size);
+        for (int m = 0; m < size; m++) block.set(m, m, 1.0);
+        // e_Z + Σ_{W ∉ C} P[Z][W] R[W] for every member Z
+        final TIntDoubleHashMap[] exitRows = new TIntDoubleHashMap[size];
+        for (int m = 0; m < size; m++) {
+            final int Z = component[m];
+            final TIntDoubleHashMap exitRow = new TIntDoubleHashMap();
+            exitRow.put(Z, 1.0);
+            for (int k = 0; k < successors[Z].length; k++) {
+                final int W = successors[Z][k];
+                final double p = successorProbabilities[Z][k];
+                final int inComponent = memberPosition.get(W);
+                if (inComponent >= 0) block.set(m, inComponent, block.get(m, inComponent) - p);
+                else addScaled(exitRow, rows[W], p);
+            }
+            exitRows[m] = exitRow;
+        }
+
+        if (size == 1) {
+            // No need for LU decomposition of a 1×1 matrix
+            final double r = 1.0 / block.get(0, 0);
+            rows[component[0]] = scaled(exitRows[0], r);
+        } else {
+            final Matrix inverse = block.inverse();
+            for (int x = 0; x < size; x++) {
+                final TIntDoubleHashMap row = new TIntDoubleHashMap();
+                for (int z = 0; z < size; z++) {
+                    final double r = inverse.get(x, z);
+                    if (r != 0.0) addScaled(row, exitRows[z], r);
+                }
+                rows[component[x]] = row;
+            }
+        }
+    }
+
+    private static void addScaled(TIntDoubleHashMap target, TIntDoubleHashMap source, double factor) {
+        for (TIntDoubleIterator it = source.iterator(); it.hasNext(); ) {
+            it.advance();
+            target.adjustOrPutValue(it.key(), factor * it.value(), factor * it.value());
+        }
+    }
+
+    private static TIntDoubleHashMap scaled(TIntDoubleHashMap source, double factor) {
+        if (factor == 1.0) return source;
+        final TIntDoubleHashMap result = new TIntDoubleHashMap(source.size() * 2);
+        for (TIntDoubleIterator it = source.iterator(); it.hasNext(); ) {
+            it.advance();
+            result.put(it.key(), factor * it.value());
+        }
+        return result;
+    }
+
+    /**
+     * Iterative version of Tarjan's algorithm, so that long chains of non-terminals don't overflow the stack
+     *
+     * @return Strongly connected components of the graph of P, in reverse topological order
+     */
+    private int[][] stronglyConnectedComponents() {
+        final int n = nonTerminals.length;
+        final int[] index = new int[n];
+        final int[] lowLink = new int[n];
+        final boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+        final TIntArrayList stack = new TIntArrayList();
+        final TIntArrayList callStack = new TIntArrayList();
+        final TIntArrayList nextSuccessor = new TIntArrayList();
+        final List<int[]> components = new ArrayList<>();
+        int counter = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0) continue;
+            callStack.add(root);
+            nextSuccessor.add(0);
+            index[root] = lowLink[root] = counter++;
+            stack.add(root);
+            onStack[root] = true;
+
+            while (!callStack.isEmpty()) {
+                final int top = callStack.size() - 1;
+                final int v = callStack.get(top);
+                final int k = nextSuccessor.get(top);
+                if (k < successors[v].length) {
+                    nextSuccessor.set(top, k + 1);
+                    final int w = successors[v][k];
+                    if (index[w] < 0) {
+                        index[w] = lowLink[w] = counter++;
+                        stack.add(w);
+                        onStack[w] = true;
+                        callStack.add(w);
+                        nextSuccessor.add(0);
+                    } else if (onStack[w]) lowLink[v] = Math.min(lowLink[v], index[w]);
+                } else {
+                    callStack.removeAt(top);
+                    nextSuccessor.removeAt(top);
+                    if (top > 0) {
+                        final int parent = callStack.get(top - 1);
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                    }
+                    if (lowLink[v] == index[v]) {
+                        final TIntArrayList component = new TIntArrayList();
+                        int w;
+                        do {
+                            w = stack.removeAt(stack.size() - 1);
+                            onStack[w] = false;
+                            component.add(w);
+                        } while (w != v);
+                        components.add(component.toArray());
+                    }
+                }
+            }
+        }
+        return components.toArray(new int[components.size()][]);
+    }
+}
@@ -0,0 +1,137 @@
+package org.leibnizcenter.cfg.grammar;
+
+import org.leibnizcenter.cfg.category.nonterminal.NonLexicalToken;
+import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.CaseInsensitiveStringTerminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.RegexTerminal;
+import org.leibnizcenter.cfg.token.Token;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index for finding all terminals that match a token, built once per grammar.
+ * <ul>
+ * <li>{@link ExactStringTerminal ExactStringTerminals} are found through a hash map on their string</li>
+ * <li>{@link CaseInsensitiveStringTerminal CaseInsensitiveStringTerminals} are found through a hash map on their
+ * case-folded string</li>
+ * <li>{@link RegexTerminal RegexTerminals} are merged into a single alternation, which rejects tokens that
+ * match none of them in one pass, and otherwise tells which is the first pattern to match. Patterns that can't be
+ * merged safely (back references, named groups, quotes, comments or flags that have no inline form) are tried one by one.</li>
+ * <li>All other terminals are tried one by one</li>
+ * </ul>
+ * Subclasses of the string terminals are not indexed, because they may override {@link Terminal#hasCategory(Token)}.
+ */
+class TerminalIndex<T> {
+    private static final Pattern NOT_MERGEABLE = Pattern.compile("\\\\(?:[1-9]|k<|Q)|\\(\\?<[a-zA-Z]");
+    private static final int NOT_INLINEABLE_FLAGS = Pattern.LITERAL | Pattern.CANON_EQ | Pattern.COMMENTS;
+    private static final String GROUP_PREFIX = "t";
+
+    private final Map<String, Set<Terminal<T>>> exact = new HashMap<>();
+    private final Map<String, Set<Terminal<T>>> caseInsensitive = new HashMap<>();
+    private final RegexTerminal[] mergedRegexes;
+    private final ThreadLocal<Matcher> mergedMatcher;
+    private final List<RegexTerminal> separateRegexes = new ArrayList<>();
+    private final List<Terminal<T>> other = new ArrayList<>();
+
+    TerminalIndex(Collection<Terminal<T>> terminals) {
+        final List<RegexTerminal> mergeable = new ArrayList<>();
+        for (Terminal<T> terminal : terminals) {
+            if (terminal instanceof NonLexicalToken) continue;
+            final Class<?> type = terminal.getClass();
+            if (type == ExactStringTerminal.class)
+                exact.computeIfAbsent(((ExactStringTerminal) terminal).string, k -> new HashSet<>(2)).add(terminal);
+            else if (type == CaseInsensitiveStringTerminal.class)
+                caseInsensitive.computeIfAbsent(foldCase(((CaseInsensitiveStringTerminal) terminal).string), k -> new HashSet<>(2)).add(terminal);
+            else if (type == RegexTerminal.class && canMerge(((RegexTerminal) terminal).pattern))
+                mergeable.add((RegexTerminal) terminal);
+            else if (type == RegexTerminal.class)
+                separateRegexes.add((RegexTerminal) terminal);
+            else
+                other.add(terminal);
+        }
+
+        mergedRegexes = mergeable.toArray(new RegexTerminal[mergeable.size()]);
+        if (mergedRegexes.length > 0) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < mergedRegexes.length; i++) {
+                if (i > 0) sb.append('|');
+                sb.append("(?<").append(GROUP_PREFIX).append(i).append(">(?")
+                        .append(inlineFlags(mergedRegexes[i].pattern.flags())).append(':')
+                        .append(mergedRegexes[i].pattern.pattern()).append("))");
+            }
+            final Pattern merged = Pattern.compile(sb.toString());
+            mergedMatcher = ThreadLocal.withInitial(() -> merged.matcher(""));
+        } else mergedMatcher = null;
+    }
+
+    /**
+     * Folds case such that two strings have the same folded form iff they are equal according to
+     * {@link String#equalsIgnoreCase(String)}, which is what {@link CaseInsensitiveStringTerminal} uses.
+     */
+    static String foldCase(String s) {
+        final char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        return new String(chars);
+    }
+
+    private static boolean canMerge(Pattern pattern) {
+        return (pattern.flags() & NOT_INLINEABLE_FLAGS) == 0
+                && !NOT_MERGEABLE.matcher(pattern.pattern()).find();
+    }
+
+    private static String inlineFlags(int flags) {
+        final StringBuilder sb = new StringBuilder();
+        if ((flags & Pattern.UNIX_LINES) != 0) sb.append('d');
+        if ((flags & Pattern.CASE_INSENSITIVE) != 0) sb.append('i');
+        if ((flags & Pattern.MULTILINE) != 0) sb.append('m');
+        if ((flags & Pattern.DOTALL) != 0) sb.append('s');
+        if ((flags & Pattern.UNICODE_CASE) != 0) sb.append('u');
+        if ((flags & Pattern.UNICODE_CHARACTER_CLASS) != 0) sb.append('U');
+        return sb.toString();
+    }
+
+    /**
+     * @return All terminals that match given token
+     */
+    Set<Terminal<T>> getCategories(Token<T> token) {
+        final Set<Terminal<T>> result = new HashSet<>();
+        for (Terminal<T> terminal : other)
+            if (terminal.hasCategory(token)) result.add(terminal);
+
+        if (token.obj instanceof String) {
+            final String string = (String) token.obj;
+            final Set<Terminal<T>> exactMatches = exact.get(string);
+            if (exactMatches != null) result.addAll(exactMatches);
+            if (!caseInsensitive.isEmpty()) {
+                final Set<Terminal<T>> caseInsensitiveMatches = caseInsensitive.get(foldCase(string));
+                if (caseInsensitiveMatches != null) result.addAll(caseInsensitiveMatches);
+            }
+            addMatchingRegexes(string, result);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addMatchingRegexes(String string, Set<Terminal<T>> result) {
+        //noinspection unchecked
+        final Token<String> token = (Token<String>) new Token<>(string);
+        for (RegexTerminal terminal : separateRegexes)
+            if (terminal.hasCategory(token)) result.add((Terminal<T>) terminal);
+
+        if (mergedMatcher != null) {
+            final Matcher matcher = mergedMatcher.get().reset(string);
+            if (matcher.matches()) {
+                // Alternatives are tried in order, so no pattern before the first matching one matches
+                int first = 0;
+                while (matcher.group(GROUP_PREFIX + first) == null) first++;
+                result.add((Terminal<T>) mergedRegexes[first]);
+                for (int i = first + 1; i < mergedRegexes.length; i++)
+                    if (mergedRegexes[i].hasCategory(token)) result.add((Terminal<T>) mergedRegexes[i]);
+            }
+            matcher.reset("");
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.leibnizcenter.cfg.grammar;
+
+import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.token.Token;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Thread-safe, size-bounded cache from tokens to the terminals that match them. The cache is split into
+ * independently locked segments by token hash, and each segment evicts its least recently used token when full.
+ * <p>
+ * Keeps hit, miss and eviction counts, so the cache can be sized for the token distribution at hand. Natural
+ * language token streams are roughly Zipfian, so a cache holding the few thousand most frequent tokens usually
+ * serves the large majority of lookups.
+ */
+public class TokenCategoryCache<T> {
+    /**
+     * Maximum size of the cache if none is given
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+    private static final int MAX_SEGMENTS = 16;
+
+    private final int maximumSize;
+    private final Segment<T>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumSize Maximum number of tokens to keep. If 0, nothing is cached.
+     */
+    TokenCategoryCache(int maximumSize) {
+        if (maximumSize < 0) throw new IllegalArgumentException("Cache size can't be negative: " + maximumSize);
+        this.maximumSize = maximumSize;
+        final int segmentCount = Math.max(1, Math.min(MAX_SEGMENTS, maximumSize / MAX_SEGMENTS));
+        //noinspection unchecked
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++)
+            // Spread remainder over the first segments, so that the capacities sum up to the maximum size
+            segments[i] = new Segment<>(maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0), evictions);
+    }
+
+    /**
+     * Gets the cached terminals for given token, or computes and caches them
+     *
+     * @param token             Token to look up
+     * @param computeCategories Function that computes the terminals for a token that is not in the cache. Is called
+     *                          outside of any lock, so it may be called more than once for the same token.
+     * @return Terminals for given token
+     */
+    Set<Terminal<T>> get(Token<T> token, Function<Token<T>, Set<Terminal<T>>> computeCategories) {
+        if (maximumSize == 0) {
+            misses.increment();
+            return computeCategories.apply(token);
+        }
+        final Segment<T> segment = segmentFor(token);
+        Set<Terminal<T>> categories = segment.get(token);
+        if (categories != null) {
+            hits.increment();
+            return categories;
+        }
+        misses.increment();
+        categories = computeCategories.apply(token);
+        segment.put(token, categories);
+        return categories;
+    }
+
+    private Segment<T> segmentFor(Token<T> token) {
+        int h = token.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & 0x7FFFFFFF) % segments.length];
+    }
+
+    /**
+     * @return Number of lookups that were served from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of lookups that were not served from the cache
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Number of tokens that were evicted to make room for other tokens
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Fraction of lookups that were served from the cache, or NaN if there were no lookups yet
+     */
+    public double getHitRate() {
+        final long hitCount = getHitCount();
+        final long total = hitCount + getMissCount();
+        return total == 0 ? Double.NaN : (double) hitCount / total;
+    }
+
+    /**
+     * @return Number of tokens currently in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<T> segment : segments) size += segment.size();
+        return size;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenCategoryCache{size=" + size() + "/" + maximumSize +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", evictions=" + getEvictionCount() + '}';
+    }
+
+    private static final class Segment<T> {
+        private final LinkedHashMap<Token<T>, Set<Terminal<T>>> map;
+
+        private Segment(int capacity, LongAdder evictions) {
+            this.map = new LinkedHashMap<Token<T>, Set<Terminal<T>>>(Math.min(capacity, 1024), 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Token<T>, Set<Terminal<T>>> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    } else return false;
+                }
+            };
+        }
+
+        private synchronized Set<Terminal<T>> get(Token<T> token) {
+            return map.get(token);
+        }
+
+        private synchronized void put(Token<T> token, Set<Terminal<T>> categories) {
+            map.put(token, categories);
+        }
+
+        private synchronized int size() {
+            return map.size();
+        }
+    }
+}
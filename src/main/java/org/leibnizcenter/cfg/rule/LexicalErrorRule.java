@@ -46,6 +46,11 @@ public class LexicalErrorRule extends Rule {
         return new LexicalErrorRule(probability, semiring.fromProbability(probability), LHS, RHS);
     }
 
+    @Override
+    public LexicalErrorRule withProbability(DblSemiring semiring, double probability) {
+        return new LexicalErrorRule(probability, semiring.fromProbability(probability), left, right);
+    }
+
     @Override
     public boolean equals(Object o) {
         return o instanceof LexicalErrorRule && super.equals(o);
@@ -97,6 +97,15 @@ public class Rule {
         return new Rule(probability, semiring.fromProbability(probability), LHS, RHS);
     }
 
+    /**
+     * @param semiring    Semiring to use
+     * @param probability New probability (between 0.0 and 1.0)
+     * @return Rule with the same categories as this one and given probability
+     */
+    public Rule withProbability(DblSemiring semiring, double probability) {
+        return new Rule(probability, semiring.fromProbability(probability), left, right);
+    }
+
 //    /**
 //     * Tests whether this rule is a pre-terminal production rule. A rule is a
 //     * preterminal rule if its right side contains a
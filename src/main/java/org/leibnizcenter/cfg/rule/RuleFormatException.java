@@ -0,0 +1,21 @@
+package org.leibnizcenter.cfg.rule;
+
+/**
+ * When a line in a grammar file is not a valid rule
+ */
+public class RuleFormatException extends IllegalArgumentException {
+    /**
+     * Line of the error, starting at 1
+     */
+    public final int line;
+    /**
+     * Column of the error, starting at 1
+     */
+    public final int column;
+
+    public RuleFormatException(String message, int line, int column) {
+        super("Line " + line + ", column " + column + ": " + message);
+        this.line = line;
+        this.column = column;
+    }
+}
@@ -0,0 +1,281 @@
+package org.leibnizcenter.cfg.rule;
+
+import org.leibnizcenter.cfg.algebra.semiring.dbl.DblSemiring;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.NonLexicalToken;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.RegexTerminal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import static java.lang.Character.isWhitespace;
+
+/**
+ * <p>
+ * Reads rules in the <code>.cfg</code> format in a single pass, one character at a time. Every line contains at most
+ * one rule:
+ * </p>
+ * <pre>
+ * LHS -&gt; RHS1 RHS2 ... (probability)   # comment
+ * </pre>
+ * <ul>
+ * <li>The arrow may also be written as <code>→</code></li>
+ * <li>The probability is optional and defaults to 1.0</li>
+ * <li>Everything from <code>#</code> up to the end of the line is a comment</li>
+ * <li>A right hand side category between slashes, as in <code>/[a-z]+/i</code>, is a {@link RegexTerminal}, which
+ * may be followed by the modifiers <code>x</code>, <code>m</code>, <code>s</code>, <code>u</code>, <code>d</code>
+ * and <code>i</code></li>
+ * <li>A slash can be escaped with a backslash</li>
+ * <li>Other right hand side categories, such as <code>&lt;error&gt;</code>, are parsed by a given function</li>
+ * </ul>
+ * <p>
+ * The given function is called only once for every distinct category string, so equal categories share one
+ * instance. Not thread-safe.
+ * </p>
+ */
+public class RuleReader {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Function<String, Category> parseCategory;
+    private final DblSemiring semiring;
+    private final Map<String, NonTerminal> leftHandSides = new HashMap<>();
+    private final Map<String, Category> categories = new HashMap<>();
+    private final StringBuilder sb = new StringBuilder();
+    private final List<Category> right = new ArrayList<>();
+
+    /**
+     * Line that is being parsed
+     */
+    private char[] chars;
+    private int position;
+    private int end;
+    private int lineNumber;
+
+    /**
+     * @param parseCategory how to parse category string into category
+     * @param semiring      semiring to use
+     */
+    public RuleReader(Function<String, Category> parseCategory, DblSemiring semiring) {
+        this.parseCategory = parseCategory;
+        this.semiring = semiring;
+    }
+
+    private static int regexFlag(char modifier) {
+        switch (Character.toLowerCase(modifier)) {
+            case 'x':
+                return Pattern.COMMENTS;
+            case 'm':
+                return Pattern.MULTILINE;
+            case 's':
+                return Pattern.DOTALL;
+            case 'u':
+                return Pattern.UNICODE_CASE;
+            case 'd':
+                return Pattern.UNIX_LINES;
+            case 'i':
+                return Pattern.CASE_INSENSITIVE;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @throws RuleFormatException If a line is not a valid rule
+     */
+    public List<Rule> readAll(Path path, Charset charset) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, charset)) {
+            return readAll(reader);
+        }
+    }
+
+    /**
+     * @throws RuleFormatException If a line is not a valid rule
+     */
+    public List<Rule> readAll(Reader reader) throws IOException {
+        final List<Rule> rules = new ArrayList<>();
+        read(reader, rules::add);
+        return rules;
+    }
+
+    /**
+     * Reads given reader up to the end, and passes every rule to given consumer as soon as its line has been read.
+     * Does not close the reader.
+     *
+     * @throws RuleFormatException If a line is not a valid rule
+     */
+    public void read(Reader reader, Consumer<Rule> consumer) throws IOException {
+        final char[] buffer = new char[BUFFER_SIZE];
+        char[] line = new char[256];
+        int lineLength = 0;
+        int lineNumber = 1;
+        int read;
+        while ((read = reader.read(buffer)) >= 0)
+            for (int i = 0; i < read; i++) {
+                final char c = buffer[i];
+                if (c == '\n') {
+                    readLine(line, lineLength, lineNumber++, consumer);
+                    lineLength = 0;
+                } else {
+                    if (lineLength == line.length) line = Arrays.copyOf(line, line.length * 2);
+                    line[lineLength++] = c;
+                }
+            }
+        readLine(line, lineLength, lineNumber, consumer);
+    }
+
+    private void readLine(char[] line, int length, int lineNumber, Consumer<Rule> consumer) {
+        int end = 0;
+        while (end < length && line[end] != '#') end++;
+        int start = 0;
+        while (start < end && isWhitespace(line[start])) start++;
+        if (start < end) consumer.accept(parseRule(line, start, end, lineNumber));
+    }
+
+    /**
+     * Parses a single rule, without comment
+     *
+     * @throws RuleFormatException If given string is not a valid rule
+     */
+    public Rule parseRule(String rule) {
+        final char[] chars = rule.toCharArray();
+        return parseRule(chars, 0, chars.length, 1);
+    }
+
+    private Rule parseRule(char[] chars, int start, int end, int lineNumber) {
+        this.chars = chars;
+        this.position = start;
+        this.end = end;
+        this.lineNumber = lineNumber;
+
+        skipWhitespace();
+        final NonTerminal left = parseLeftHandSide();
+        skipWhitespace();
+        if (!isArrow()) throw error("Expected -> or →");
+        position += chars[position] == '→' ? 1 : 2;
+
+        final double probability = parseRightHandSide();
+        final Category[] RHS = right.toArray(new Category[right.size()]);
+        final double semiringElement = semiring.fromProbability(probability);
+        for (Category category : RHS)
+            if (category instanceof NonLexicalToken) return new LexicalErrorRule(probability, semiringElement, left, RHS);
+        return new Rule(probability, semiringElement, left, RHS);
+    }
+
+    /**
+     * Parses a right hand side, without probability
+     */
+    Category[] parseRightHandSide(String rhs) {
+        this.chars = rhs.toCharArray();
+        this.position = 0;
+        this.end = chars.length;
+        this.lineNumber = 1;
+        parseRightHandSide();
+        return right.toArray(new Category[right.size()]);
+    }
+
+    /**
+     * Collects the right hand side categories in {@link #right}
+     *
+     * @return Rule probability
+     */
+    private double parseRightHandSide() {
+        right.clear();
+        double probability = 1.0;
+        while (true) {
+            skipWhitespace();
+            if (position >= end) break;
+            final char c = chars[position];
+            if (c == '(') {
+                probability = parseProbability();
+                break;
+            } else if (c == '/') right.add(parseRegex());
+            else right.add(parseCategory());
+        }
+        if (right.isEmpty()) throw error("Rule has no right hand side");
+        return probability;
+    }
+
+    private NonTerminal parseLeftHandSide() {
+        final int start = position;
+        while (position < end && !isWhitespace(chars[position]) && !isArrow()) position++;
+        if (position == start) throw error("Expected left hand side");
+        final String name = new String(chars, start, position - start);
+        return leftHandSides.computeIfAbsent(name, NonTerminal::new);
+    }
+
+    /**
+     * Category up to the next whitespace or probability, with escaped slashes unescaped
+     */
+    private Category parseCategory() {
+        sb.setLength(0);
+        while (position < end && !isWhitespace(chars[position]) && chars[position] != '(') appendUnescaped();
+        return categories.computeIfAbsent(sb.toString(), parseCategory);
+    }
+
+    private RegexTerminal parseRegex() {
+        final int start = position;
+        position++;
+        sb.setLength(0);
+        while (position < end && chars[position] != '/') appendUnescaped();
+        if (position >= end) throw error("Unterminated regular expression", start);
+        if (sb.length() == 0) throw error("Empty regular expression", start);
+        position++;
+
+        int flags = 0;
+        while (position < end && !isWhitespace(chars[position]) && chars[position] != '(') {
+            final int flag = regexFlag(chars[position]);
+            if (flag < 0) throw error("Unknown regular expression modifier '" + chars[position] + "'");
+            flags |= flag;
+            position++;
+        }
+        return new RegexTerminal(sb.toString(), flags);
+    }
+
+    private double parseProbability() {
+        final int start = ++position;
+        while (position < end && chars[position] >= '0' && chars[position] <= '9') position++;
+        if (position == start) throw error("Expected probability");
+        if (position < end && chars[position] == '.') {
+            position++;
+            final int decimals = position;
+            while (position < end && chars[position] >= '0' && chars[position] <= '9') position++;
+            if (position == decimals) throw error("Expected decimals");
+        }
+        if (position >= end || chars[position] != ')') throw error("Expected )");
+        final double probability = Double.parseDouble(new String(chars, start, position - start));
+        position++;
+        skipWhitespace();
+        if (position < end) throw error("Unexpected characters after probability");
+        return probability;
+    }
+
+    private void appendUnescaped() {
+        if (chars[position] == '\\' && position + 1 < end && chars[position + 1] == '/') position++;
+        sb.append(chars[position++]);
+    }
+
+    private boolean isArrow() {
+        return position < end && (chars[position] == '→'
+                || (chars[position] == '-' && position + 1 < end && chars[position + 1] == '>'));
+    }
+
+    private void skipWhitespace() {
+        while (position < end && isWhitespace(chars[position])) position++;
+    }
+
+    private RuleFormatException error(String message) {
+        return error(message, position);
+    }
+
+    private RuleFormatException error(String message, int at) {
+        return new RuleFormatException(message, lineNumber, at + 1);
+    }
+}
@@ -28,6 +28,20 @@ public class MyMultimap<T, T1> {
         values.add(v);
     }
 
+    /**
+     * Removes given value for given key. Runs in O(1), except when the value was to be removed from
+     * {@link #values()}, which runs in O(K) for K is the number of keys.
+     *
+     * @return whether the value was contained for the given key
+     */
+    public boolean remove(T k, T1 v) {
+        final Set<T1> s = map.get(k);
+        if (s == null || !s.remove(v)) return false;
+        if (s.isEmpty()) map.remove(k);
+        if (map.values().stream().noneMatch(set -> set.contains(v))) values.remove(v);
+        return true;
+    }
+
     public boolean containsKey(T s) {
         return map.containsKey(s);
     }
@@ -45,4 +59,9 @@ public class MyMultimap<T, T1> {
         return values;
     }
 
+    public void clear() {
+        map.clear();
+        values.clear();
+    }
+
 }
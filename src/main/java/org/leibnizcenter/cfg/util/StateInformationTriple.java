@@ -5,7 +5,10 @@ import org.leibnizcenter.cfg.earleyparser.chart.state.State;
 
 /**
  * Created by maarten on 22/01/17.
+ *
+ * @deprecated Was used to complete states with deferred scores, which the parser no longer does
  */
+@Deprecated
 public class StateInformationTriple {
     public final State stateToAdvance;
     public final State completedState;
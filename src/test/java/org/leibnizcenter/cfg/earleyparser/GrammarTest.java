@@ -6,6 +6,7 @@ import org.junit.Test;
 import org.leibnizcenter.cfg.algebra.semiring.dbl.ProbabilitySemiring;
 import org.leibnizcenter.cfg.category.Category;
 import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.Terminal;
 import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
 import org.leibnizcenter.cfg.grammar.Grammar;
 import org.leibnizcenter.cfg.rule.LexicalErrorRule;
@@ -13,6 +14,7 @@ import org.leibnizcenter.cfg.rule.Rule;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -78,6 +80,23 @@ public class GrammarTest {
         assertEquals(Rule.create(sr, 1.0, X, e), Rule.create(sr, 1.0, X, e));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public final void mayStartWith() {
+        final Set<Terminal<String>> startsWithA = Collections.singleton((Terminal<String>) a);
+        final Set<Terminal<String>> startsWithE = Collections.singleton((Terminal<String>) e);
+        final Set<Terminal<String>> startsWithX = Collections.singleton(new ExactStringTerminal("x"));
+
+        // A -> B C D E, where B ->* C ->* D ->* a | E ->* e
+        assertTrue(g.mayStartWith(rule1, startsWithA));
+        assertTrue(g.mayStartWith(rule1, startsWithE));
+        assertFalse(g.mayStartWith(rule1, startsWithX));
+        assertTrue(g.mayStartWith(rule2, startsWithE));
+        assertFalse(g.mayStartWith(rule2, startsWithA));
+        // Y has no rules
+        assertFalse(g.mayStartWith(rule3, startsWithA));
+    }
+
     @Test
     public final void testLeftRelation() {
         assertEquals(g.getLeftScore(A, B), 1.0, 0.01);
@@ -0,0 +1,84 @@
+package org.leibnizcenter.cfg.earleyparser;
+
+import org.junit.Test;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
+import org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.token.Token;
+import org.leibnizcenter.cfg.token.Tokens;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ParseForestTest {
+    private static final NonTerminal S = Category.nonTerminal("S");
+    private static final NonTerminal A = Category.nonTerminal("A");
+    private static final ExactStringTerminal a = new ExactStringTerminal("a");
+
+    private static final Grammar<String> grammar = new Grammar.Builder<String>()
+            .withSemiring(LogSemiring.get())
+            .addRule(0.4, S, S, S)
+            .addRule(0.3, S, A)
+            .addRule(0.3, S, a)
+            .addRule(1.0, A, a)
+            .build();
+
+    private static long countTrees(ParseForest.Node node, Map<ParseForest.Node, Long> counts) {
+        if (node == null || node.getAlternatives().isEmpty()) return 1;
+        Long count = counts.get(node);
+        if (count == null) {
+            count = 0L;
+            for (ParseForest.PackedNode alternative : node.getAlternatives())
+                count += countTrees(alternative.left, counts) * countTrees(alternative.right, counts);
+            counts.put(node, count);
+        }
+        return count;
+    }
+
+    @Test
+    public void allParses() {
+        final Parser<String> parser = new Parser<>(grammar);
+        final List<Token<String>> tokens = Tokens.tokenize("a a a a a a");
+        final ParseForest forest = parser.getParseForest(S, tokens);
+
+        assertEquals(parser.recognize(S, tokens), forest.getProbability(), 1E-10);
+        // Catalan number C5 binary bracketings, each with 2^6 ways to derive the leaves
+        assertEquals(42 * 64, countTrees(forest.getRoot(), new HashMap<>()));
+        assertTrue(forest.getRoot().isAmbiguous());
+
+        int symbolNodes = 0;
+        for (ParseForest.Node node : forest.getNodes()) {
+            if (node instanceof ParseForest.SymbolNode && ((ParseForest.SymbolNode) node).category == S) symbolNodes++;
+            if (node.getAlternatives().isEmpty()) continue;
+            double inner = forest.semiring.zero();
+            for (ParseForest.PackedNode alternative : node.getAlternatives())
+                inner = forest.semiring.plus(inner, alternative.innerScore);
+            assertEquals(node.toString(), forest.semiring.toProbability(node.innerScore), forest.semiring.toProbability(inner), 1E-10);
+        }
+        // One node for every span
+        assertEquals(6 * 7 / 2, symbolNodes);
+    }
+
+    @Test
+    public void noParse() {
+        final ParseForest forest = new Parser<>(grammar).getParseForest(A, Tokens.tokenize("a a"));
+        assertNull(forest.getRoot());
+        assertEquals(0, forest.size());
+        assertEquals(0.0, forest.getProbability(), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresInnerScores() {
+        // Rejects the options before reading any tokens
+        final Iterable<Token<String>> unread = () -> {
+            throw new AssertionError("Parsed before checking options");
+        };
+        new Parser<>(grammar).getParseForest(S, unread, new ParseOptions.Builder<String>().withViterbiOnly(true).build());
+    }
+}
@@ -0,0 +1,59 @@
+package org.leibnizcenter.cfg.earleyparser;
+
+import org.junit.Test;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
+import org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.token.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParseSessionTest {
+    private static final NonTerminal S = Category.nonTerminal("S");
+    private static final Terminal<String> a = new ExactStringTerminal("a");
+    private static final Terminal<String> b = new ExactStringTerminal("b");
+    private static final Grammar<String> grammar = new Grammar.Builder<String>()
+            .addRule(0.6, S, a, S)
+            .addRule(0.3, S, a)
+            .addRule(0.1, S, b)
+            .build();
+
+    @Test
+    public void prefixProbabilityAndSurprisal() throws Exception {
+        final ParseSession<String> session = new Parser<>(grammar).startSession(S, null);
+
+        ParseSession.PrefixProbability<String> p = session.next(new Token<>("a"));
+        assertEquals(0.9, p.getProbability(), 1e-9);
+        assertEquals(-Math.log(0.9) / Math.log(2), p.surprisal, 1e-9);
+        assertEquals(0.3, session.getSentenceProbability(), 1e-9);
+
+        p = session.next(new Token<>("a"));
+        assertEquals(0.54, session.getPrefixProbability(), 1e-9);
+        assertEquals(-Math.log(0.6) / Math.log(2), p.surprisal, 1e-9);
+
+        p = session.next(new Token<>("b"));
+        assertEquals(0.036, p.getProbability(), 1e-9);
+        assertEquals(-Math.log(0.036 / 0.54) / Math.log(2), p.surprisal, 1e-9);
+        assertEquals(0.036, session.getSentenceProbability(), 1e-9);
+    }
+
+    @Test
+    public void longStreamDoesNotUnderflow() throws Exception {
+        final ParseSession<String> session = new ParseSession<>(grammar, S, new ParseOptions.Builder<String>()
+                .withStreaming(true)
+                .withLeoItems(true)
+                .build());
+        final List<ParseSession.PrefixProbability<String>> results = new ArrayList<>();
+        for (int i = 0; i < 1600; i++) results.add(session.next(new Token<>("a")));
+
+        assertEquals(Math.log(0.9) + 1599 * Math.log(0.6), session.getPrefixLogProbability(), 1e-6);
+        assertEquals(-Math.log(0.6) / Math.log(2), results.get(1599).surprisal, 1e-9);
+        assertEquals(1599, results.get(1599).tokenIndex);
+    }
+}
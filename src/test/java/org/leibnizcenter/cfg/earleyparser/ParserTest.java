@@ -9,12 +9,24 @@ import org.leibnizcenter.cfg.category.terminal.Terminal;
 import org.leibnizcenter.cfg.category.terminal.stringterminal.CaseInsensitiveStringTerminal;
 import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
 import org.leibnizcenter.cfg.category.terminal.stringterminal.StringTerminal;
+import org.leibnizcenter.cfg.earleyparser.callbacks.CancellationToken;
+import org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions;
+import org.leibnizcenter.cfg.earleyparser.chart.Beam;
 import org.leibnizcenter.cfg.earleyparser.scan.TokenNotInLexiconException;
 import org.leibnizcenter.cfg.grammar.Grammar;
 import org.leibnizcenter.cfg.token.Token;
 import org.leibnizcenter.cfg.token.Tokens;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertEquals;
@@ -150,6 +162,60 @@ public class ParserTest {
     }
 
 
+    /**
+     * The Viterbi score of a scanned state used to be the inner score of the state it was scanned from, which sums
+     * over both ways to derive A
+     */
+    @Test
+    public void viterbiAfterAmbiguousPrefix() throws Exception {
+        Grammar<String> grammar = new Grammar.Builder<String>()
+                .addRule(1.0, S, A, b)
+                .addRule(0.5, A, C)
+                .addRule(0.5, A, D)
+                .addRule(1.0, C, a)
+                .addRule(1.0, D, a)
+                .build();
+
+        ParseTreeWithScore parse = new Parser<>(grammar).getViterbiParseWithScore(S, Tokens.tokenize("a b"));
+
+        Assert.assertEquals(0.5, parse.getProbability(), 0.0001);
+    }
+
+    @Test
+    public void viterbiOnly() throws Exception {
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .addRule(1.0, S, A)
+                .addRule(0.1, S, S, S)
+                .addRule(1.0, A, B)
+                .addRule(0.5, A, D)
+                .addRule(0.5, B, C)
+                .addRule(1.0, B, a)
+                .addRule(0.5, C, D)
+                .addRule(0.5, C, a)
+                .addRule(0.5, D, a)
+                .addRule(0.5, D, b, D)
+                .build();
+        final Parser<String> parser = new Parser<>(grammar);
+        final ParseOptions<String> viterbiOnly = new ParseOptions.Builder<String>().withViterbiOnly(true).build();
+        final ParseOptions<String> viterbiOnlyWithLeoItems = new ParseOptions.Builder<String>().withViterbiOnly(true).withLeoItems(true).build();
+
+        for (String sentence : new String[]{"a", "a a a", "b b b a", "a b a b b a a"}) {
+            final List<Token<String>> tokens = Tokens.tokenize(sentence);
+            final ParseTreeWithScore expected = parser.getViterbiParseWithScore(S, tokens);
+            for (ParseOptions<String> options : Arrays.asList(viterbiOnly, viterbiOnlyWithLeoItems)) {
+                final ParseTreeWithScore parse = parser.getViterbiParseWithScore(S, tokens, options);
+                assertEquals(expected.getProbability(), parse.getProbability(), 0.0000001);
+                assertEquals(expected.getParseTree().toString(), parse.getParseTree().toString());
+                assertEquals(expected.getProbability(), parser.recognize(S, tokens, options), 0.0000001);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void viterbiOnlyWithBeam() {
+        new ParseOptions.Builder<String>().withViterbiOnly(true).withBeam(Beam.topK(10)).build();
+    }
+
     @Test
     public final void ambiguous() {
         final NonTerminal BV = new NonTerminal("BV");
@@ -203,6 +269,180 @@ public class ParserTest {
         Assert.assertEquals(parser.recognize(S, Tokens.tokenize("the")), 0.0, 0.0001);
     }
 
+    @Test
+    public void deepViterbiParse() {
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .addRule(0.5, S, S, a)
+                .addRule(0.5, S, a)
+                .build();
+        final List<Token<String>> tokens = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) tokens.add(new Token<>("a"));
+
+        ParseTree tree = new Parser<>(grammar).getViterbiParse(S, tokens);
+        int depth = 0;
+        while (tree.category != a) {
+            assertEquals(tree.category == S && depth > 0 ? (depth < 20000 ? 2 : 1) : 1, tree.children.size());
+            tree = tree.children.get(0);
+            depth++;
+        }
+        assertEquals(20001, depth);
+    }
+
+    @Test
+    public void kBestParses() {
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .addRule(0.3, S, S, S)
+                .addRule(0.5, S, A)
+                .addRule(0.2, S, B, S)
+                .addRule(0.6, A, a)
+                .addRule(0.4, A, A, a)
+                .addRule(1.0, B, a)
+                .build();
+        final Parser<String> parser = new Parser<>(grammar);
+        final List<Token<String>> tokens = Tokens.tokenize("a a a a a");
+
+        final List<ParseTreeWithScore> parses = parser.getKBestParses(S, tokens, 10000);
+        assertEquals(parser.getViterbiParse(S, tokens), parses.get(0).getParseTree());
+        assertEquals(parser.getViterbiParseWithScore(S, tokens).getProbability(), parses.get(0).getProbability(), 1E-10);
+        // All derivations, without duplicates
+        assertEquals(parses.size(), parses.stream().map(ParseTreeWithScore::getParseTree).distinct().count());
+        assertEquals(parser.recognize(S, tokens), parses.stream().mapToDouble(ParseTreeWithScore::getProbability).sum(), 1E-10);
+        for (int i = 1; i < parses.size(); i++)
+            Assert.assertTrue(parses.get(i - 1).getProbability() >= parses.get(i).getProbability());
+
+        assertEquals(parses.subList(0, 5), parser.getKBestParses(S, tokens, 5));
+        Assert.assertTrue(parser.getKBestParses(B, Tokens.tokenize("a a"), 5).isEmpty());
+    }
+
+    @Test
+    public void kBestParsesWithUnitCycle() {
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .addRule(0.5, S, A)
+                .addRule(0.5, S, a)
+                .addRule(0.5, A, S)
+                .addRule(0.5, A, a)
+                .build();
+        final List<ParseTreeWithScore> parses = new Parser<>(grammar).getKBestParses(S, Tokens.tokenize("a"), 4);
+
+        assertEquals(4, parses.size());
+        assertEquals(0.5, parses.get(0).getProbability(), 1E-10);
+        assertEquals(0.25, parses.get(1).getProbability(), 1E-10);
+        assertEquals(0.125, parses.get(2).getProbability(), 1E-10);
+        assertEquals(0.0625, parses.get(3).getProbability(), 1E-10);
+    }
+
+    @Test
+    public void accepts() {
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .addRule(0.5, S, S, A)
+                .addRule(0.5, S, B)
+                .addRule(0.6, A, a, B)
+                .addRule(0.4, A, C)
+                .addRule(0.7, B, b)
+                .addRule(0.3, B, C, a)
+                .addRule(0.5, C, B)
+                .addRule(0.5, C, a, a)
+                .build();
+        final Parser<String> parser = new Parser<>(grammar);
+
+        for (int length = 0; length <= 7; length++)
+            for (int bits = 0; bits < 1 << length; bits++) {
+                final List<Token<String>> tokens = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) tokens.add(new Token<>((bits & (1 << i)) == 0 ? "a" : "b"));
+                for (NonTerminal goal : Arrays.asList(S, A, C))
+                    assertEquals(tokens + " " + goal, parser.recognize(goal, tokens) > 0.0, parser.accepts(goal, tokens));
+            }
+
+        Assert.assertFalse(parser.accepts(S, Tokens.tokenize("b c")));
+        Assert.assertFalse(parser.accepts(D, Tokens.tokenize("b")));
+    }
+
+    @Test
+    public void parseLimits() {
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .addRule(0.5, S, S, S)
+                .addRule(0.5, S, a)
+                .build();
+        final Parser<String> parser = new Parser<>(grammar);
+        final List<Token<String>> tokens = new ArrayList<>();
+        for (int i = 0; i < 60; i++) tokens.add(new Token<>("a"));
+
+        final ParseAbortedException tooManyStates = abort(parser, tokens, new ParseOptions.Builder<String>().withMaxStates(500));
+        assertEquals(ParseAbortedException.Reason.STATE_LIMIT, tooManyStates.reason);
+        Assert.assertTrue(tooManyStates.createdStates > 500);
+        Assert.assertTrue(tooManyStates.lastFinishedPosition > 0 && tooManyStates.lastFinishedPosition <= tooManyStates.position);
+        final ParseTreeWithScore partial = tooManyStates.getBestPartialParse(S);
+        final List<Token<String>> prefix = tokens.subList(0, tooManyStates.lastFinishedPosition);
+        assertEquals(S, partial.getParseTree().category);
+        // Every bracketing has the same probability
+        assertEquals(parser.getViterbiParseWithScore(S, prefix).getProbability(), partial.getProbability(), 1E-10);
+
+        assertEquals(ParseAbortedException.Reason.TIMEOUT,
+                abort(parser, tokens, new ParseOptions.Builder<String>().withTimeout(1, TimeUnit.NANOSECONDS)).reason);
+
+        final CancellationToken cancelled = new CancellationToken();
+        cancelled.cancel();
+        final ParseAbortedException cancelledBeforehand = abort(parser, tokens, new ParseOptions.Builder<String>().withCancellationToken(cancelled));
+        assertEquals(ParseAbortedException.Reason.CANCELLED, cancelledBeforehand.reason);
+        assertEquals(0, cancelledBeforehand.position);
+        Assert.assertNull(cancelledBeforehand.getBestPartialParse(S));
+
+        final CancellationToken cancellation = new CancellationToken();
+        final ParseAbortedException cancelledWhileParsing = abort(parser, tokens, new ParseOptions.Builder<String>()
+                .withCancellationToken(cancellation)
+                .onPostScan((position, token, chart) -> {
+                    if (position == 10) cancellation.cancel();
+                }));
+        assertEquals(ParseAbortedException.Reason.CANCELLED, cancelledWhileParsing.reason);
+        Assert.assertTrue(cancelledWhileParsing.position >= 10);
+
+        final List<Token<String>> shortTokens = tokens.subList(0, 5);
+        assertEquals(parser.recognize(S, shortTokens), parser.recognize(S, shortTokens, new ParseOptions.Builder<String>()
+                .withMaxStates(100000)
+                .withTimeout(1, TimeUnit.HOURS)
+                .withCancellationToken(new CancellationToken())
+                .build()), 1E-10);
+    }
+
+    private static ParseAbortedException abort(Parser<String> parser, List<Token<String>> tokens, ParseOptions.Builder<String> options) {
+        try {
+            parser.recognize(S, tokens, options.build());
+        } catch (ParseAbortedException e) {
+            return e;
+        }
+        throw new AssertionError("Expected the parse to be aborted");
+    }
+
+    @Test
+    public void reuseStateSetsAcrossParses() {
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .addRule(0.5, S, S, S)
+                .addRule(0.5, S, a)
+                .addRule(1.0, A, a)
+                .build();
+        final Parser<String> parser = new Parser<>(grammar);
+        final List<Token<String>> longer = Tokens.tokenize("a a a a");
+        final List<Token<String>> shorter = Tokens.tokenize("a a");
+
+        final double longerProbability = new Parser<>(grammar).recognize(S, longer);
+        final double shorterProbability = new Parser<>(grammar).recognize(S, shorter);
+        final double viterbiProbability = new Parser<>(grammar).getViterbiParseWithScore(S, longer).getProbability();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(longerProbability, parser.recognize(S, longer), 1E-10);
+            assertEquals(shorterProbability, parser.recognize(S, shorter), 1E-10);
+            assertEquals(0.0, parser.recognize(A, longer), 1E-10);
+            assertEquals(viterbiProbability, parser.getViterbiParseWithScore(S, longer).getProbability(), 1E-10);
+            assertEquals(5, parser.getKBestParses(S, longer, 10).size());
+        }
+
+        final List<Token<String>> tooLong = new ArrayList<>();
+        for (int i = 0; i < 30; i++) tooLong.add(new Token<>("a"));
+        final ParseAbortedException aborted = abort(parser, tooLong, new ParseOptions.Builder<String>().withMaxStates(100));
+        final int statesInAbortedChart = aborted.getChart().stateSets.countStates();
+        assertEquals(longerProbability, parser.recognize(S, longer), 1E-10);
+        assertEquals(statesInAbortedChart, aborted.getChart().stateSets.countStates());
+    }
+
     @Test(expected = TokenNotInLexiconException.class)
     public final void unparseable() {
 
@@ -243,5 +483,86 @@ public class ParserTest {
         Assert.assertEquals(Parser.recognize(S, grammar, Tokens.tokenize("the notinlexicon left")), 0.0, 0.0001);
     }
 
+    @Test
+    public void parseAll() throws Exception {
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .addRule(0.6, S, a)
+                .addRule(0.4, S, S, b, S)
+                .build();
+        final Parser<String> parser = new Parser<>(grammar);
+        final List<List<Token<String>>> sentences = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            final StringBuilder sb = new StringBuilder("a");
+            for (int j = 0; j < i % 6; j++) sb.append(" b a");
+            sentences.add(Tokens.tokenize(sb.toString()));
+        }
+        sentences.add(Tokens.tokenize("b"));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<CompletableFuture<ParseTreeWithScore>> futures = parser.parseAll(S, sentences, null, executor);
+            assertEquals(sentences.size(), futures.size());
+            for (int i = 0; i < sentences.size() - 1; i++)
+                assertEquals(
+                        parser.getViterbiParseWithScore(S, sentences.get(i)).getProbability(),
+                        futures.get(i).get().getProbability(),
+                        0.0000001
+                );
+            try {
+                futures.get(sentences.size() - 1).get();
+                Assert.fail("Expected unparseable sentence to fail");
+            } catch (ExecutionException expected) {
+                // empty
+            }
+
+            final List<CompletableFuture<ParseTreeWithScore>> fromStream = parser.parseAll(S, sentences.stream().limit(3), null, executor);
+            assertEquals(3, fromStream.size());
+            assertEquals(0.6, fromStream.get(0).get().getProbability(), 0.0000001);
+        } finally {
+            executor.shutdown();
+        }
+    }
 
-}
\ No newline at end of file
+    @Test
+    public void parseAllWithLimitedConcurrency() throws Exception {
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .addRule(0.6, S, a)
+                .addRule(0.4, S, S, b, S)
+                .build();
+        final Parser<String> parser = new Parser<>(grammar);
+        final List<List<Token<String>>> sentences = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            final StringBuilder sb = new StringBuilder("a");
+            for (int j = 0; j < i % 6; j++) sb.append(" b a");
+            sentences.add(Tokens.tokenize(sb.toString()));
+        }
+        sentences.add(Tokens.tokenize("b"));
+
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final Executor executor = task -> pool.execute(() -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            task.run();
+        });
+        final ParseTreeWithScore[] parses = new ParseTreeWithScore[sentences.size()];
+        final Throwable[] errors = new Throwable[sentences.size()];
+        try {
+            parser.parseAll(S, sentences, null, executor, 2, (index, parse, error) -> {
+                running.decrementAndGet();
+                parses[index] = parse;
+                errors[index] = error;
+            });
+        } finally {
+            pool.shutdown();
+        }
+
+        Assert.assertTrue(maxRunning.get() <= 2);
+        for (int i = 0; i < sentences.size() - 1; i++) {
+            Assert.assertNull(errors[i]);
+            assertEquals(parser.getViterbiParseWithScore(S, sentences.get(i)).getProbability(), parses[i].getProbability(), 0.0000001);
+        }
+        Assert.assertNull(parses[sentences.size() - 1]);
+        Assert.assertNotNull(errors[sentences.size() - 1]);
+    }
+}
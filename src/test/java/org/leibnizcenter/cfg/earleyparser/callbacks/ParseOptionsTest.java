@@ -1,7 +1,12 @@
 package org.leibnizcenter.cfg.earleyparser.callbacks;
 
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class ParseOptionsTest {
     @Test
     public void onPredict() throws Exception {
@@ -20,7 +25,13 @@ public class ParseOptionsTest {
 
     @Test
     public void beforePredict() throws Exception {
-
+        final List<String> calls = new ArrayList<>();
+        final ParseOptions<String> options = new ParseOptions.Builder<String>()
+                .onPrePredict((position, token, chart) -> calls.add("pre predict"))
+                .onPostComplete((position, token, chart) -> calls.add("post complete"))
+                .build();
+        options.beforePredict(0, null, null);
+        Assert.assertEquals(Collections.singletonList("pre predict"), calls);
     }
 
     @Test
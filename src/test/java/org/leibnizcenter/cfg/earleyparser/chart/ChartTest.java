@@ -11,9 +11,18 @@ import org.leibnizcenter.cfg.category.terminal.Terminal;
 import org.leibnizcenter.cfg.category.terminal.stringterminal.CaseInsensitiveStringTerminal;
 import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
 import org.leibnizcenter.cfg.category.terminal.stringterminal.StringTerminal;
+import org.leibnizcenter.cfg.earleyparser.Parser;
+import org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions;
+import org.leibnizcenter.cfg.earleyparser.callbacks.ParseProfile;
+import org.leibnizcenter.cfg.earleyparser.callbacks.PositionMetrics;
 import org.leibnizcenter.cfg.earleyparser.chart.state.State;
 import org.leibnizcenter.cfg.grammar.Grammar;
 import org.leibnizcenter.cfg.rule.Rule;
+import org.leibnizcenter.cfg.token.Token;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static org.leibnizcenter.cfg.earleyparser.Fixture.*;
 
@@ -72,6 +81,226 @@ public class ChartTest {
 
     }
 
+    @Test
+    public final void beam() {
+        final LogSemiring sr = LogSemiring.get();
+        final Category a = new ExactStringTerminal("a");
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .withSemiring(sr)
+                .addRule(1.0, S, A)
+                .addRule(0.1, S, S, S)
+                .addRule(1.0, A, B)
+                .addRule(0.5, A, D)
+                .addRule(0.5, B, C)
+                .addRule(1.0, B, a)
+                .addRule(0.5, C, a)
+                .addRule(0.5, D, a)
+                .build();
+        final List<Token<String>> tokens = new ArrayList<>();
+        for (int i = 0; i < 12; i++) tokens.add(new Token<>("a"));
+        final Parser<String> parser = new Parser<>(grammar);
+
+        final Chart<String> full = parser.parse(S, tokens, new ParseOptions.Builder<String>().build());
+        Assert.assertEquals(0, full.getPrunedStatesCount());
+        Assert.assertEquals(0.0, full.getPrunedProbabilityMass(), 0.0);
+
+        final Chart<String> noOpBeam = parser.parse(S, tokens, new ParseOptions.Builder<String>().withBeam(Beam.relative(0.0)).build());
+        Assert.assertEquals(0, noOpBeam.getPrunedStatesCount());
+        Assert.assertEquals(full.countStates(), noOpBeam.countStates());
+
+        final ParseOptions<String> topK = new ParseOptions.Builder<String>().withBeam(Beam.topK(2)).build();
+        final Chart<String> pruned = parser.parse(S, tokens, topK);
+        Assert.assertTrue(pruned.getPrunedStatesCount() > 0);
+        Assert.assertTrue(pruned.getPrunedProbabilityMass() > 0.0);
+        Assert.assertTrue(pruned.countStates() < full.countStates());
+        for (int i = 1; i <= tokens.size(); i++)
+            Assert.assertTrue(pruned.getStates(i).stream()
+                    .filter(State::isActive)
+                    .filter(state -> !Category.START.equals(state.rule.left))
+                    .filter(state -> state.ruleDotPosition > 0)
+                    .count() <= 2);
+        Assert.assertNotNull(parser.getViterbiParse(S, tokens, topK));
+
+        final Chart<String> relative = parser.parse(S, tokens, new ParseOptions.Builder<String>().withBeam(Beam.relative(0.5)).build());
+        Assert.assertTrue(relative.getPrunedStatesCount() > 0);
+        Assert.assertTrue(relative.countStates() < full.countStates());
+    }
+
+    @Test
+    public final void leoItems() {
+        final LogSemiring sr = LogSemiring.get();
+        final Category a = new ExactStringTerminal("a");
+        final Category b = new ExactStringTerminal("b");
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .withSemiring(sr)
+                // Right recursion, with some ambiguity on b
+                .addRule(0.6, S, a, S)
+                .addRule(0.3, S, a)
+                .addRule(0.1, S, b, A)
+                .addRule(0.5, A, S)
+                .addRule(0.3, A, b, S)
+                .addRule(0.2, A, A, A)
+                .build();
+        final List<Token<String>> tokens = new ArrayList<>();
+        for (int i = 0; i < 40; i++) tokens.add(new Token<>(i % 13 == 3 || i % 13 == 4 || i == 20 ? "b" : "a"));
+        final Parser<String> parser = new Parser<>(grammar);
+        final ParseOptions<String> leo = new ParseOptions.Builder<String>().withLeoItems(true).build();
+
+        final Chart<String> full = parser.parse(S, tokens, new ParseOptions.Builder<String>().build());
+        final Chart<String> withLeo = parser.parse(S, tokens, leo);
+        Assert.assertTrue(withLeo.countStates() < full.countStates());
+        Assert.assertEquals(1.0, parser.recognize(S, tokens, leo) / parser.recognize(S, tokens), 1e-9);
+        Assert.assertEquals(
+                1.0,
+                parser.getViterbiParseWithScore(S, tokens, leo).score.getProbability()
+                        / parser.getViterbiParseWithScore(S, tokens, null).score.getProbability(),
+                1e-9
+        );
+        Assert.assertEquals(
+                parser.getViterbiParse(S, tokens).toString(),
+                parser.getViterbiParse(S, tokens, leo).toString()
+        );
+
+        final Grammar<String> rightRecursive = new Grammar.Builder<String>()
+                .withSemiring(sr)
+                .addRule(0.6, S, a, S)
+                .addRule(0.4, S, a)
+                .build();
+        final List<Token<String>> as = new ArrayList<>();
+        for (int i = 0; i < 100; i++) as.add(new Token<>("a"));
+        final Parser<String> rrParser = new Parser<>(rightRecursive);
+        // Linear instead of quadratic in the number of tokens
+        Assert.assertTrue(rrParser.parse(S, as, leo).countStates() <= 6 * as.size() + 6);
+        Assert.assertTrue(rrParser.parse(S, as, (ParseOptions<String>) null).countStates() > 50 * as.size());
+        Assert.assertEquals(1.0, rrParser.recognize(S, as, leo) / rrParser.recognize(S, as), 1e-9);
+        Assert.assertEquals(
+                rrParser.getViterbiParse(S, as).toString(),
+                rrParser.getViterbiParse(S, as, leo).toString()
+        );
+    }
+
+    @Test
+    public final void lookaheadPrediction() {
+        final LogSemiring sr = LogSemiring.get();
+        final Category a = new ExactStringTerminal("a");
+        final Category b = new ExactStringTerminal("b");
+        final Category c = new ExactStringTerminal("c");
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .withSemiring(sr)
+                .addRule(0.5, S, S, A)
+                .addRule(0.5, S, A)
+                .addRule(0.4, A, B)
+                .addRule(0.3, A, C)
+                .addRule(0.3, A, a, C)
+                .addRule(0.5, B, b)
+                .addRule(0.5, B, b, B)
+                .addRule(1.0, C, c)
+                .build();
+        final List<Token<String>> tokens = new ArrayList<>();
+        for (String s : "b a c c b b c a c".split(" ")) tokens.add(new Token<>(s));
+        final Parser<String> parser = new Parser<>(grammar);
+        final ParseOptions<String> lookahead = new ParseOptions.Builder<String>().withLookaheadPrediction(true).build();
+
+        Assert.assertTrue(parser.parse(S, tokens, lookahead).countStates() < parser.parse(S, tokens).countStates());
+        Assert.assertEquals(1.0, parser.recognize(S, tokens, lookahead) / parser.recognize(S, tokens), 1e-9);
+        Assert.assertEquals(
+                parser.getViterbiParse(S, tokens).toString(),
+                parser.getViterbiParse(S, tokens, lookahead).toString()
+        );
+    }
+
+    @Test
+    public final void streaming() {
+        final LogSemiring sr = LogSemiring.get();
+        final Category w = new ExactStringTerminal("w");
+        final Category eol = new ExactStringTerminal("eol");
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .withSemiring(sr)
+                .addRule(0.9, S, S, A)
+                .addRule(0.1, S, A)
+                .addRule(1.0, A, w, B)
+                .addRule(0.5, B, w, B)
+                .addRule(0.5, B, eol)
+                .build();
+        final List<Token<String>> tokens = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            tokens.add(new Token<>("w"));
+            tokens.add(new Token<>("w"));
+            tokens.add(new Token<>("eol"));
+        }
+        final Parser<String> parser = new Parser<>(grammar);
+        final ParseOptions<String> streaming = new ParseOptions.Builder<String>().withStreaming(true).build();
+
+        final Chart<String> full = parser.parse(S, tokens, new ParseOptions.Builder<String>().build());
+        final Chart<String> streamed = parser.parse(S, tokens, streaming);
+        Assert.assertTrue(full.countStates() > 1000);
+        Assert.assertTrue(streamed.countStates() < 50);
+        Assert.assertNull(streamed.getStates(1));
+        Assert.assertEquals(1.0, parser.recognize(S, tokens, streaming) / parser.recognize(S, tokens), 1e-9);
+        final State fullEnd = full.stateSets.completedStates.getCompletedStates(tokens.size(), Category.START).iterator().next();
+        final State streamedEnd = streamed.stateSets.completedStates.getCompletedStates(tokens.size(), Category.START).iterator().next();
+        Assert.assertEquals(1.0, streamed.getViterbiScore(streamedEnd).getProbability() / full.getViterbiScore(fullEnd).getProbability(), 1e-9);
+    }
+
+    /**
+     * With right recursion, the completed states at the last position form a chain that is as long as the input
+     */
+    @Test
+    public final void rightRecursiveCompletionChain() {
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .addRule(0.6, S, a, S)
+                .addRule(0.4, S, a)
+                .build();
+        final List<Token<String>> tokens = new ArrayList<>();
+        for (int i = 0; i < 200; i++) tokens.add(new Token<>("a"));
+        final ParseProfile profile = new ParseProfile();
+
+        final double probability = new Parser<>(grammar).recognize(S, tokens, new ParseOptions.Builder<String>().withInstrumentation(profile).build());
+
+        Assert.assertEquals(1.0, probability / (Math.pow(0.6, tokens.size() - 1) * 0.4), 1e-9);
+        for (PositionMetrics metrics : profile.getPositions()) {
+            // One round per start position, and one advanced state per completed state
+            Assert.assertEquals(metrics.position + 1, metrics.completionDepth);
+            Assert.assertEquals(metrics.position + 1, metrics.scoreUpdates);
+        }
+    }
+
+    @Test
+    public final void instrumentation() {
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .addRule(0.5, S, S, S)
+                .addRule(0.5, S, a)
+                .build();
+        final List<Token<String>> tokens = new ArrayList<>();
+        for (int i = 0; i < 10; i++) tokens.add(new Token<>("a"));
+        final ParseProfile profile = new ParseProfile();
+
+        final Chart<String> chart = new Parser<>(grammar).parse(S, tokens, new ParseOptions.Builder<String>().withInstrumentation(profile).build());
+
+        Assert.assertEquals(tokens.size(), profile.getPositions().size());
+        for (int i = 0; i < tokens.size(); i++) {
+            final PositionMetrics metrics = profile.getPositions().get(i);
+            Assert.assertEquals(i, metrics.position);
+            Assert.assertTrue(metrics.statesScanned > 0);
+            Assert.assertTrue(metrics.completionDepth > 0);
+            Assert.assertTrue(metrics.scoreUpdates > 0);
+            Assert.assertTrue(metrics.getTotalNanos() > 0);
+        }
+        // Only the initial state is created outside of the instrumented phases
+        Assert.assertEquals(chart.countStates(), profile.getStatesCreated() + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void noParseTreesWhenStreaming() {
+        final Parser<String> parser = new Parser<>(new Grammar.Builder<String>().addRule(S, a).build());
+        parser.getViterbiParse(S, Collections.singletonList(new Token<>("a")), new ParseOptions.Builder<String>().withStreaming(true).build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void beamThresholdMustBeProbability() {
+        Beam.relative(1.5);
+    }
+
     @Test
     public final void parse() {
         final LogSemiring semiring = LogSemiring.get();
@@ -1,30 +1,55 @@
 package org.leibnizcenter.cfg.earleyparser.chart.statesets;
 
 import org.junit.Test;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
+import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+import org.leibnizcenter.cfg.errors.IssueRequest;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.rule.Rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.leibnizcenter.cfg.earleyparser.Fixture.A;
+import static org.leibnizcenter.cfg.earleyparser.Fixture.B;
 
 /**
- * TODO
  * Created by maarten on 27-1-17.
  */
 public class ForwardScoresTest {
+    private final LogSemiring sr = LogSemiring.get();
+    private final Rule AB = Rule.create(sr, 0.5, A, B);
+    private final StateSets<String> stateSets = new StateSets<>(new Grammar.Builder<String>()
+            .withSemiring(sr)
+            .addRule(AB)
+            .addRule(1.0, B, new ExactStringTerminal("b"))
+            .build());
+
     @Test
     public void get() throws Exception {
-
+        final State state = stateSets.getOrCreate(0, 0, 0, AB);
+        assertEquals(sr.zero(), stateSets.forwardScores.get(state), 0.0);
+        assertEquals(sr.zero(), stateSets.forwardScores.get(new State(AB, 1, 1, 0)), 0.0);
     }
 
     @Test
     public void put() throws Exception {
-
+        final State state = stateSets.getOrCreate(0, 0, 0, AB);
+        stateSets.forwardScores.put(state, sr.fromProbability(0.25));
+        assertEquals(0.25, sr.toProbability(stateSets.forwardScores.get(new State(AB, 0))), 0.0001);
+        assertEquals(0.25, sr.toProbability(stateSets.forwardScores.get(stateSets.getSlot(state))), 0.0001);
     }
 
-    @Test
-    public void add() throws Exception {
-
+    @Test(expected = IssueRequest.class)
+    public void putStateNotInChart() throws Exception {
+        stateSets.forwardScores.put(new State(AB, 0), sr.one());
     }
 
     @Test
-    public void getAtom() throws Exception {
-
+    public void add() throws Exception {
+        final State state = stateSets.getOrCreate(0, 0, 0, AB);
+        stateSets.forwardScores.increment(state, sr.fromProbability(0.25));
+        stateSets.forwardScores.increment(state, sr.fromProbability(0.5));
+        assertEquals(0.75, sr.toProbability(stateSets.forwardScores.get(state)), 0.0001);
     }
 
-}
\ No newline at end of file
+}
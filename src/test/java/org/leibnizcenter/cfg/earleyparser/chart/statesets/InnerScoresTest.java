@@ -1,25 +1,38 @@
 package org.leibnizcenter.cfg.earleyparser.chart.statesets;
 
 import org.junit.Test;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
+import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.rule.Rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.leibnizcenter.cfg.earleyparser.Fixture.A;
+import static org.leibnizcenter.cfg.earleyparser.Fixture.B;
 
 /**
- * TODO
  * Created by maarten on 27-1-17.
  */
 public class InnerScoresTest {
+    private final LogSemiring sr = LogSemiring.get();
+    private final Rule AB = Rule.create(sr, 0.5, A, B);
+    private final StateSets<String> stateSets = new StateSets<>(new Grammar.Builder<String>()
+            .withSemiring(sr)
+            .addRule(AB)
+            .addRule(1.0, B, new ExactStringTerminal("b"))
+            .build());
+
     @Test
     public void put() throws Exception {
-
+        final State state = stateSets.getOrCreate(1, 0, 1, AB);
+        stateSets.innerScores.put(state, sr.fromProbability(0.5));
+        assertEquals(0.5, sr.toProbability(stateSets.innerScores.get(new State(AB, 1, 0, 1))), 0.0001);
     }
 
     @Test
     public void get() throws Exception {
-
-    }
-
-    @Test
-    public void getAtom() throws Exception {
-
+        assertEquals(sr.zero(), stateSets.innerScores.get(new State(AB, 0)), 0.0);
     }
 
-}
\ No newline at end of file
+}
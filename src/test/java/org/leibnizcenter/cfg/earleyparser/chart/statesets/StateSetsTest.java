@@ -1,12 +1,29 @@
 package org.leibnizcenter.cfg.earleyparser.chart.statesets;
 
 import org.junit.Test;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
+import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.rule.Rule;
+
+import static org.junit.Assert.*;
+import static org.leibnizcenter.cfg.earleyparser.Fixture.A;
+import static org.leibnizcenter.cfg.earleyparser.Fixture.B;
 
 /**
  * TODO
  * Created by maarten on 27-1-17.
  */
 public class StateSetsTest {
+    private final LogSemiring sr = LogSemiring.get();
+    private final Rule AB = Rule.create(sr, 0.5, A, B, B);
+    private final Grammar<String> grammar = new Grammar.Builder<String>()
+            .withSemiring(sr)
+            .addRule(AB)
+            .addRule(1.0, B, new ExactStringTerminal("a"))
+            .build();
+
     @Test
     public void add() throws Exception {
 
@@ -14,12 +31,24 @@ public class StateSetsTest {
 
     @Test
     public void getOrCreate() throws Exception {
-
+        final StateSets<String> stateSets = new StateSets<>(grammar);
+        final State created = stateSets.getOrCreate(2, 1, 1, AB);
+        assertSame(created, stateSets.getOrCreate(2, 1, 1, AB));
+        assertSame(created, stateSets.getOrCreate(new State(Rule.create(sr, 0.5, A, B, B), 2, 1, 1)));
+        assertNotSame(created, stateSets.getOrCreate(2, 0, 1, AB));
+        assertEquals(2, stateSets.countStates());
     }
 
     @Test
     public void getStates() throws Exception {
-
+        final StateSets<String> stateSets = new StateSets<>(grammar);
+        assertNull(stateSets.getStates(0));
+        stateSets.getOrCreate(0, 0, 0, AB);
+        stateSets.getOrCreate(1, 0, 1, AB);
+        assertEquals(1, stateSets.getStates(0).size());
+        assertTrue(stateSets.getStates(0).contains(new State(AB, 0)));
+        assertFalse(stateSets.getStates(0).contains(new State(AB, 1, 0, 1)));
+        assertTrue(stateSets.getStates(1).contains(new State(AB, 1, 0, 1)));
     }
 
     @Test
@@ -33,13 +62,49 @@ public class StateSetsTest {
     }
 
     @Test
-    public void contains() throws Exception {
+    public void clear() throws Exception {
+        final StateSets<String> stateSets = new StateSets<>(grammar);
+        final State origin = stateSets.getOrCreate(1, 1, 2, AB);
+        final State state = stateSets.getOrCreate(1, 0, 1, AB);
+        stateSets.innerScores.put(origin, sr.fromProbability(0.5));
+        stateSets.setViterbiScore(new State.ViterbiScore(sr.fromProbability(0.5), origin, state, sr));
+        stateSets.clear();
+
+        assertEquals(0, stateSets.countStates());
+        assertEquals(0, stateSets.getCreatedStateCount());
+        assertNull(stateSets.getStates(1));
+        assertFalse(stateSets.contains(new State(AB, 1, 1, 2)));
+
+        final State recreated = stateSets.getOrCreate(1, 1, 2, AB);
+        assertEquals(sr.zero(), stateSets.innerScores.get(recreated), 0.0);
+        assertNull(stateSets.getViterbiScore(stateSets.getOrCreate(1, 0, 1, AB)));
+        assertEquals(2, stateSets.countStates());
+    }
 
+    @Test
+    public void contains() throws Exception {
+        final StateSets<String> stateSets = new StateSets<>(grammar);
+        stateSets.getOrCreate(new State(AB, 3, 1, 2));
+        assertTrue(stateSets.contains(new State(AB, 3, 1, 2)));
+        assertFalse(stateSets.contains(new State(AB, 3, 1, 1)));
+        assertFalse(stateSets.contains(new State(AB, 3, 2, 2)));
+        assertNull(stateSets.get(3, 1, 1, AB));
     }
 
     @Test
     public void setScores() throws Exception {
-
+        final StateSets<String> stateSets = new StateSets<>(grammar);
+        final State origin = stateSets.getOrCreate(1, 1, 2, AB);
+        final State state = stateSets.getOrCreate(1, 0, 1, AB);
+        assertNull(stateSets.getViterbiScore(state));
+        assertTrue(Double.isNaN(stateSets.getViterbiScoreDbl(state)));
+
+        stateSets.setViterbiScore(new State.ViterbiScore(sr.fromProbability(0.5), origin, state, sr));
+        final State.ViterbiScore viterbiScore = stateSets.getViterbiScore(new State(AB, 1, 0, 1));
+        assertSame(origin, viterbiScore.origin);
+        assertSame(state, viterbiScore.resultingState);
+        assertEquals(0.5, viterbiScore.getProbability(), 0.0001);
+        assertEquals(sr.fromProbability(0.5), stateSets.getViterbiScoreDbl(state), 0.0001);
     }
 
     @Test
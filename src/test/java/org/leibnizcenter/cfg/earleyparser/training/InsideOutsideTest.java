@@ -0,0 +1,122 @@
+package org.leibnizcenter.cfg.earleyparser.training;
+
+import org.junit.Test;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
+import org.leibnizcenter.cfg.earleyparser.Parser;
+import org.leibnizcenter.cfg.grammar.Grammar;
+import org.leibnizcenter.cfg.rule.Rule;
+import org.leibnizcenter.cfg.token.Token;
+import org.leibnizcenter.cfg.token.Tokens;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InsideOutsideTest {
+    private static final NonTerminal S = Category.nonTerminal("S");
+    private static final NonTerminal A = Category.nonTerminal("A");
+    private static final ExactStringTerminal a = new ExactStringTerminal("a");
+    private static final ExactStringTerminal b = new ExactStringTerminal("b");
+
+    /**
+     * Ambiguous, with a unit production cycle S → A → S
+     */
+    private static Rule[] rules(double... p) {
+        final LogSemiring semiring = LogSemiring.get();
+        return new Rule[]{
+                Rule.create(semiring, p[0], S, S, S),
+                Rule.create(semiring, p[1], S, A),
+                Rule.create(semiring, p[2], S, a),
+                Rule.create(semiring, p[3], A, S),
+                Rule.create(semiring, p[4], A, A, b),
+                Rule.create(semiring, p[5], A, a)
+        };
+    }
+
+    private static Grammar<String> grammar(double... p) {
+        return new Grammar.Builder<String>()
+                .withSemiring(LogSemiring.get())
+                .addRules(Arrays.asList(rules(p)))
+                .build();
+    }
+
+    private static final double[] PROBABILITIES = {0.3, 0.2, 0.5, 0.4, 0.3, 0.3};
+
+    /**
+     * The expected count of a rule with probability p is p · ∂ ln P(sentence) / ∂p, which we approximate with central
+     * differences
+     */
+    @Test
+    public void expectedCountsAreDerivativesOfLikelihood() {
+        final List<Token<String>> tokens = Tokens.tokenize("a a b a");
+        final Grammar<String> grammar = grammar(PROBABILITIES);
+        final RuleCounts counts = InsideOutside.getExpectedRuleCounts(grammar, S, tokens, null);
+
+        final double probability = new Parser<>(grammar).recognize(S, tokens);
+        assertEquals(1, counts.getSentences());
+        assertEquals(Math.log(probability), counts.getLogLikelihood(), 1E-10);
+
+        final double h = 1E-6;
+        for (int r = 0; r < PROBABILITIES.length; r++) {
+            final double[] up = PROBABILITIES.clone();
+            final double[] down = PROBABILITIES.clone();
+            up[r] += h;
+            down[r] -= h;
+            final double derivative = (Math.log(new Parser<>(grammar(up)).recognize(S, tokens))
+                    - Math.log(new Parser<>(grammar(down)).recognize(S, tokens))) / (2 * h);
+            final Rule rule = rules(PROBABILITIES)[r];
+            assertEquals(rule.toString(), PROBABILITIES[r] * derivative, counts.get(rule), 1E-6);
+        }
+    }
+
+    @Test
+    public void unparsedSentence() {
+        final RuleCounts counts = InsideOutside.getExpectedRuleCounts(grammar(PROBABILITIES), S, Tokens.tokenize("b"), null);
+        assertEquals(0, counts.getSentences());
+        assertEquals(1, counts.getUnparsedSentences());
+        assertTrue(counts.getRules().isEmpty());
+    }
+
+    @Test
+    public void training() {
+        final List<List<Token<String>>> corpus = Arrays.asList(
+                Tokens.tokenize("a"),
+                Tokens.tokenize("a b"),
+                Tokens.tokenize("a a"),
+                Tokens.tokenize("a b b a"),
+                Tokens.tokenize("a a a"),
+                Tokens.tokenize("b a"),
+                Tokens.tokenize("a b a b")
+        );
+        final Grammar<String> grammar = grammar(PROBABILITIES);
+        final GrammarTrainer<String> singleThreaded = new GrammarTrainer<>(S, null, 1);
+        final GrammarTrainer<String> multiThreaded = new GrammarTrainer<>(S, null, 3);
+
+        final RuleCounts counts = singleThreaded.getExpectedRuleCounts(grammar, corpus);
+        final RuleCounts parallelCounts = multiThreaded.getExpectedRuleCounts(grammar, corpus);
+        assertEquals(6, counts.getSentences());
+        assertEquals(1, counts.getUnparsedSentences());
+        assertEquals(counts.getSentences(), parallelCounts.getSentences());
+        assertEquals(counts.getUnparsedSentences(), parallelCounts.getUnparsedSentences());
+        assertEquals(counts.getLogLikelihood(), parallelCounts.getLogLikelihood(), 1E-10);
+        for (Rule rule : grammar.getAllRules()) assertEquals(counts.get(rule), parallelCounts.get(rule), 1E-10);
+
+        Grammar<String> trained = grammar;
+        double logLikelihood = counts.getLogLikelihood();
+        for (int i = 0; i < 5; i++) {
+            trained = multiThreaded.train(trained, corpus, 1);
+            for (NonTerminal left : new NonTerminal[]{S, A}) {
+                double total = 0.0;
+                for (Rule rule : trained.getRules(left)) total += rule.probability;
+                assertEquals(1.0, total, 1E-10);
+            }
+            final double next = multiThreaded.getExpectedRuleCounts(trained, corpus).getLogLikelihood();
+            assertTrue(next + " < " + logLikelihood, next >= logLikelihood - 1E-10);
+            logLikelihood = next;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.leibnizcenter.cfg.grammar;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.NonLexicalToken;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.CaseInsensitiveStringTerminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.RegexTerminal;
+import org.leibnizcenter.cfg.earleyparser.Parser;
+import org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions;
+import org.leibnizcenter.cfg.earleyparser.scan.ScanMode;
+import org.leibnizcenter.cfg.rule.LexicalErrorRule;
+import org.leibnizcenter.cfg.token.Token;
+import org.leibnizcenter.cfg.token.Tokens;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class CompiledGrammarTest {
+    private static final NonTerminal S = Category.nonTerminal("S");
+    private static final NonTerminal NP = Category.nonTerminal("NP");
+    private static final NonTerminal VP = Category.nonTerminal("VP");
+    private static final NonTerminal N = Category.nonTerminal("N");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Grammar<String> grammar() {
+        return new Grammar.Builder<String>("compiled")
+                .addRule(1.0, S, NP, VP)
+                .addRule(0.6, NP, N)
+                .addRule(0.3, NP, NP, N)
+                .addRule(0.1, NP, NonLexicalToken.INSTANCE)
+                .addRule(0.5, N, new CaseInsensitiveStringTerminal("Cats"))
+                .addRule(0.5, N, new RegexTerminal("[0-9]+"))
+                .addRule(1.0, VP, new ExactStringTerminal("sleep"))
+                .build();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        final Grammar<String> grammar = grammar();
+        final Path path = folder.getRoot().toPath().resolve("grammar.bin");
+        grammar.writeCompiled(path);
+        final Grammar<String> loaded = Grammar.loadCompiled(path);
+
+        Assert.assertEquals(grammar.name, loaded.name);
+        Assert.assertEquals(grammar.semiring, loaded.semiring);
+        Assert.assertEquals(grammar.getNonTerminals(), loaded.getNonTerminals());
+        // Regex terminals only equal themselves, so compare rules by their string representation
+        Assert.assertEquals(toStrings(grammar.getAllRules()), toStrings(loaded.getAllRules()));
+        Assert.assertEquals(grammar.nonZeroLeftStartRules.keySet(), loaded.nonZeroLeftStartRules.keySet());
+        grammar.nonZeroLeftStartRules.forEach((X, rules) ->
+                Assert.assertEquals(toStrings(rules), toStrings(loaded.nonZeroLeftStartRules.get(X))));
+        Assert.assertEquals(grammar.getFirstTerminals().keySet(), loaded.getFirstTerminals().keySet());
+        for (NonTerminal X : grammar.getNonTerminals()) {
+            final Set<Terminal<String>> first = grammar.getFirstTerminals().get(X);
+            if (first == null) Assert.assertNull(loaded.getFirstTerminals().get(X));
+            else Assert.assertEquals(toStrings(first), toStrings(loaded.getFirstTerminals().get(X)));
+            for (NonTerminal Y : grammar.getNonTerminals()) {
+                Assert.assertEquals(grammar.getLeftScore(X, Y), loaded.getLeftScore(X, Y), 0.0);
+                Assert.assertEquals(grammar.getLeftStarScore(X, Y), loaded.getLeftStarScore(X, Y), 0.0);
+                Assert.assertEquals(grammar.getUnitStarScore(X, Y), loaded.getUnitStarScore(X, Y), 0.0);
+            }
+        }
+
+        final String sentence = "cats 42 sleep";
+        Assert.assertEquals(
+                new Parser<>(grammar).recognize(S, Tokens.tokenize(sentence)),
+                new Parser<>(loaded).recognize(S, Tokens.tokenize(sentence)),
+                0.0
+        );
+        Assert.assertEquals(1, loaded.getCategories(Tokens.tokenize("CATS").get(0)).size());
+    }
+
+    @Test
+    public void roundTripErrorRules() throws IOException {
+        final NonTerminal A = Category.nonTerminal("A");
+        final Terminal<String> a = new ExactStringTerminal("a");
+        final Terminal<String> period = new ExactStringTerminal(".");
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .addRule(0.8, S, A)
+                .addRule(0.7, S, S, A)
+                .addRule(0.6, A, a, a, period)
+                .addRule(LexicalErrorRule.create(LogSemiring.get(), 0.5, A, NonLexicalToken.INSTANCE, period))
+                .build();
+        final Path path = folder.getRoot().toPath().resolve("grammar.bin");
+        grammar.writeCompiled(path);
+        final Grammar<String> loaded = Grammar.loadCompiled(path);
+
+        Assert.assertEquals(new HashSet<>(grammar.getAllRules()), new HashSet<>(loaded.getAllRules()));
+        Assert.assertTrue(loaded.getRules(A).stream().anyMatch(rule -> rule instanceof LexicalErrorRule));
+
+        final List<Token<String>> tokens = Tokens.tokenize("a a . a b c . a a .");
+        final ParseOptions<String> options = new ParseOptions.Builder<String>().withScanMode(ScanMode.SYNCHRONIZE).build();
+        Assert.assertEquals(
+                new Parser<>(grammar).recognize(S, tokens, options),
+                new Parser<>(loaded).recognize(S, tokens, options),
+                0.0
+        );
+    }
+
+    private static Set<String> toStrings(Collection<?> objects) {
+        return objects.stream().map(Object::toString).collect(Collectors.toSet());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsArbitraryTerminals() throws IOException {
+        final Terminal<String> anything = token -> true;
+        new Grammar.Builder<String>()
+                .addRule(1.0, S, anything)
+                .build()
+                .writeCompiled(folder.getRoot().toPath().resolve("grammar.bin"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("grammar.cfg");
+        Files.write(path, "S -> a (1.0)".getBytes("UTF-8"));
+        Grammar.loadCompiled(path);
+    }
+}
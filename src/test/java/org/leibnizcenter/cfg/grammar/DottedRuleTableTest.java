@@ -0,0 +1,80 @@
+package org.leibnizcenter.cfg.grammar;
+
+import org.junit.Test;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
+import org.leibnizcenter.cfg.earleyparser.chart.state.State;
+import org.leibnizcenter.cfg.rule.Rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.leibnizcenter.cfg.earleyparser.Fixture.A;
+import static org.leibnizcenter.cfg.earleyparser.Fixture.B;
+
+public class DottedRuleTableTest {
+    private final LogSemiring sr = LogSemiring.get();
+    private final Rule AB = Rule.create(sr, 0.5, A, B, B);
+    private final Rule Ba = Rule.create(sr, 1.0, B, new ExactStringTerminal("a"));
+    private final Grammar<String> grammar = new Grammar.Builder<String>()
+            .withSemiring(sr)
+            .addRule(AB)
+            .addRule(Ba)
+            .build();
+
+    @Test
+    public void getId() throws Exception {
+        final DottedRuleTable table = grammar.dottedRules;
+        final int id = table.getId(AB, 0);
+        assertEquals(id + 1, table.getId(AB, 1));
+        assertEquals(id + 2, table.getId(AB, 2));
+        assertEquals(AB, table.getRule(id + 2));
+        assertEquals(2, table.getDot(id + 2));
+        // Equal rules get the same id
+        assertEquals(id, table.getId(Rule.create(sr, 0.5, A, B, B), 0));
+        assertNotEquals(table.getId(Ba, 0), table.getId(AB, 0));
+        // Rules for the initial state are in the table
+        assertEquals(Rule.create(sr, 1.0, Category.START, A), table.getRule(table.getId(Rule.create(sr, 1.0, Category.START, A), 0)));
+    }
+
+    @Test
+    public void getIdForRuleNotInGrammar() throws Exception {
+        final DottedRuleTable table = grammar.dottedRules;
+        final Rule notInGrammar = Rule.create(sr, 1.0, B, A, A);
+        final int id = table.getId(notInGrammar, 0);
+        assertEquals(table.size(), id);
+        assertEquals(id + 1, table.getId(notInGrammar, 1));
+        assertEquals(id, table.getId(Rule.create(sr, 1.0, B, A, A), 0));
+    }
+
+    @Test
+    public void getIdOfState() throws Exception {
+        final DottedRuleTable table = grammar.dottedRules;
+        final DottedRuleTable other = new Grammar.Builder<String>()
+                .withSemiring(sr)
+                .addRule(Ba)
+                .addRule(AB)
+                .build()
+                .dottedRules;
+        final State state = new State(AB, 3, 1, 1);
+        assertEquals(table.getId(AB, 1), table.getId(state));
+        // The id cached for one table is not used for another
+        assertEquals(other.getId(AB, 1), other.getId(state));
+        assertEquals(table.getId(AB, 1), table.getId(state));
+
+        // Ids that don't belong to the dotted rule of a state are not cached
+        final State cached = new State(AB, 3, 1, 2);
+        cached.cacheDottedRuleId(table, table.getId(AB, 1));
+        cached.cacheDottedRuleId(table, 12345);
+        assertEquals(table.getId(AB, 2), table.getId(cached));
+        cached.cacheDottedRuleId(table, table.getId(AB, 2));
+        assertEquals(table.getId(AB, 2), table.getId(cached));
+        assertEquals(other.getId(AB, 2), other.getId(cached));
+    }
+
+    @Test
+    public void key() throws Exception {
+        assertNotEquals(DottedRuleTable.key(1, 2), DottedRuleTable.key(2, 1));
+        assertEquals(DottedRuleTable.key(3, 4), DottedRuleTable.key(3, 4));
+    }
+}
@@ -0,0 +1,72 @@
+package org.leibnizcenter.cfg.grammar;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.leibnizcenter.cfg.algebra.matrix.Matrix;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+
+import java.util.*;
+
+public class SparseClosureTest {
+    private static final LogSemiring semiring = LogSemiring.get();
+
+    /**
+     * Inverts the dense matrix, as the closure used to be computed
+     */
+    private static Matrix denseClosure(NonTerminal[] nonTerminals, LeftCorners P) {
+        final Matrix R_inverse = new Matrix(nonTerminals.length, nonTerminals.length);
+        for (int row = 0; row < nonTerminals.length; row++)
+            for (int col = 0; col < nonTerminals.length; col++)
+                R_inverse.set(row, col, (row == col ? 1 : 0) - P.getProbability(nonTerminals[row], nonTerminals[col]));
+        return R_inverse.inverse();
+    }
+
+    @Test
+    public void agreesWithDenseInverse() {
+        final Random random = new Random(1);
+        final NonTerminal[] nonTerminals = new NonTerminal[60];
+        for (int i = 0; i < nonTerminals.length; i++) nonTerminals[i] = Category.nonTerminal("N" + i);
+        final LeftCorners P = new LeftCorners();
+        for (NonTerminal X : nonTerminals) {
+            // Sparse relation with cycles; outgoing probabilities sum to less than 1
+            final int edges = random.nextInt(3);
+            for (int e = 0; e < edges; e++)
+                P.plusProbability(X, nonTerminals[random.nextInt(nonTerminals.length)], 0.3 * random.nextDouble(), semiring);
+        }
+
+        final LeftCorners sparse = SparseClosure.reflexiveTransitiveClosure(semiring, new LinkedHashSet<>(Arrays.asList(nonTerminals)), P);
+        final Matrix dense = denseClosure(nonTerminals, P);
+
+        for (int row = 0; row < nonTerminals.length; row++) {
+            final Collection<NonTerminal> nonZero = sparse.getNonZeroScores(nonTerminals[row]);
+            for (int col = 0; col < nonTerminals.length; col++) {
+                final double expected = dense.get(row, col);
+                Assert.assertEquals(expected, sparse.getProbability(nonTerminals[row], nonTerminals[col]), 1e-12);
+                if (Math.abs(expected) > 1e-12) Assert.assertTrue(nonZero.contains(nonTerminals[col]));
+            }
+        }
+    }
+
+    @Test
+    public void cycle() {
+        final NonTerminal A = Category.nonTerminal("A");
+        final NonTerminal B = Category.nonTerminal("B");
+        final NonTerminal C = Category.nonTerminal("C");
+        final LeftCorners P = new LeftCorners();
+        P.plusProbability(A, B, 0.5, semiring);
+        P.plusProbability(B, A, 0.5, semiring);
+        P.plusProbability(B, C, 0.25, semiring);
+
+        final LeftCorners R = SparseClosure.reflexiveTransitiveClosure(semiring, new HashSet<>(Arrays.asList(A, B, C)), P);
+
+        // Going around the cycle of probability 0.25 any number of times
+        Assert.assertEquals(4.0 / 3.0, R.getProbability(A, A), 1e-12);
+        Assert.assertEquals(2.0 / 3.0, R.getProbability(A, B), 1e-12);
+        Assert.assertEquals(1.0 / 6.0, R.getProbability(A, C), 1e-12);
+        Assert.assertEquals(1.0, R.getProbability(C, C), 1e-12);
+        Assert.assertEquals(0.0, R.getProbability(C, A), 0.0);
+        Assert.assertFalse(R.getNonZeroScores(C).contains(A));
+    }
+}
@@ -0,0 +1,63 @@
+package org.leibnizcenter.cfg.grammar;
+
+import org.junit.Test;
+import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.CaseInsensitiveStringTerminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.RegexTerminal;
+import org.leibnizcenter.cfg.token.Token;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class TerminalIndexTest {
+    @SuppressWarnings("unchecked")
+    private static final List<Terminal<String>> terminals = Arrays.asList(
+            new ExactStringTerminal("the"),
+            new ExactStringTerminal("The"),
+            new CaseInsensitiveStringTerminal("the"),
+            new CaseInsensitiveStringTerminal("istanbul"),
+            new RegexTerminal("[a-z]+"),
+            new RegexTerminal("t.*"),
+            new RegexTerminal("THE", Pattern.CASE_INSENSITIVE),
+            new RegexTerminal("(t)h\\1?e"),
+            new RegexTerminal("t.*", Pattern.LITERAL),
+            new RegexTerminal("\\Qt.*"),
+            new RegexTerminal("[0-9]+"),
+            (Token<String> token) -> token.obj.length() == 3
+    );
+
+    private static Set<Terminal<String>> linear(Token<String> token) {
+        return terminals.stream().filter(t -> t.hasCategory(token)).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void findsSameTerminalsAsLinearScan() throws Exception {
+        final TerminalIndex<String> index = new TerminalIndex<>(terminals);
+        for (String s : new String[]{"the", "The", "THE", "thhe", "t.*", "tea", "istanbul", "İSTANBUL", "ISTANBUL", "123", "", "x"}) {
+            final Token<String> token = new Token<>(s);
+            assertEquals(s, linear(token), index.getCategories(token));
+        }
+    }
+
+    @Test
+    public void foldCaseIsIndependentOfLocale() throws Exception {
+        final Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            final TerminalIndex<String> index = new TerminalIndex<>(terminals);
+            for (String s : new String[]{"ISTANBUL", "istanbul", "İstanbul", "ıstanbul"}) {
+                final Token<String> token = new Token<>(s);
+                assertEquals(s, linear(token), index.getCategories(token));
+            }
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.leibnizcenter.cfg.grammar;
+
+import org.junit.Test;
+import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.CaseInsensitiveStringTerminal;
+import org.leibnizcenter.cfg.token.Token;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.leibnizcenter.cfg.earleyparser.Fixture.A;
+
+public class TokenCategoryCacheTest {
+    private static final Terminal<String> a = new CaseInsensitiveStringTerminal("a");
+
+    @Test
+    public void countsHitsAndMisses() throws Exception {
+        final TokenCategoryCache<String> cache = new TokenCategoryCache<>(100);
+        final AtomicInteger computed = new AtomicInteger();
+        for (int i = 0; i < 10; i++)
+            cache.get(new Token<>("a"), t -> {
+                computed.incrementAndGet();
+                return Collections.singleton(a);
+            });
+        assertEquals(1, computed.get());
+        assertEquals(9, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.9, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        final TokenCategoryCache<String> cache = new TokenCategoryCache<>(2);
+        cache.get(new Token<>("x"), t -> Collections.emptySet());
+        cache.get(new Token<>("y"), t -> Collections.emptySet());
+        cache.get(new Token<>("x"), t -> Collections.emptySet());
+        cache.get(new Token<>("z"), t -> Collections.emptySet());
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        // y was least recently used
+        cache.get(new Token<>("x"), t -> Collections.emptySet());
+        assertEquals(2, cache.getHitCount());
+        cache.get(new Token<>("y"), t -> Collections.emptySet());
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        final TokenCategoryCache<String> cache = new TokenCategoryCache<>(0);
+        cache.get(new Token<>("x"), t -> Collections.emptySet());
+        cache.get(new Token<>("x"), t -> Collections.emptySet());
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void sharedGrammar() throws Exception {
+        final Grammar<String> grammar = new Grammar.Builder<String>()
+                .withTokenCacheSize(50)
+                .addRule(A, a)
+                .build();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++)
+                results.add(executor.submit(() -> {
+                    boolean correct = true;
+                    for (int i = 0; i < 2000; i++) {
+                        final Set<Terminal<String>> categories = grammar.getCategories(new Token<>(i % 2 == 0 ? "A" : "b" + (i % 200)));
+                        correct &= (i % 2 == 0) == categories.contains(a);
+                    }
+                    return correct;
+                }));
+            for (Future<Boolean> result : results) assertTrue(result.get());
+        } finally {
+            executor.shutdown();
+        }
+        final TokenCategoryCache<String> cache = grammar.getTokenCache();
+        assertTrue(cache.size() <= 50);
+        assertEquals(8 * 2000, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+}
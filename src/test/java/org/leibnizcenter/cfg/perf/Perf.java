@@ -1,77 +1,264 @@
 package org.leibnizcenter.cfg.perf;
 
-import org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring;
 import org.leibnizcenter.cfg.category.Category;
 import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.Terminal;
 import org.leibnizcenter.cfg.category.terminal.stringterminal.ExactStringTerminal;
 import org.leibnizcenter.cfg.earleyparser.Parser;
 import org.leibnizcenter.cfg.earleyparser.callbacks.ParseOptions;
+import org.leibnizcenter.cfg.earleyparser.chart.ChartWithInputPosition;
 import org.leibnizcenter.cfg.grammar.Grammar;
 import org.leibnizcenter.cfg.token.Token;
-import org.leibnizcenter.cfg.token.Tokens;
 
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Test performance todo linear / exponential regression
+ * Guards against changes that silently make parsing asymptotically slower. Parses inputs of increasing length n for
+ * grammars of different classes, and fits the growth of both the number of states in the chart and the parse time in
+ * two ways: the exponent k of n<sup>k</sup>, which is the slope of a {@link LinearRegression} on log-log scale, and
+ * the lowest degree of a {@link PolynomialRegression} that fits the measurements.
+ * <p>
+ * State counts are deterministic, so {@link PerfTest} checks them on every build. Times are noisy, so they are only
+ * checked when running this class, which exits with status 1 if any fitted exponent exceeds its bound. For throughput
+ * and allocation numbers, use the JMH benchmarks in <code>benchmarks/</code>.
  * <p>
  * Created by Maarten on 23-8-2016.
  */
 public class Perf {
-    public static void main(String[] ignored) {
-        List<long[]> l = run();
-        //l.forEach(line -> System.out.println(line[0] + "\t" + line[1]));
+    /**
+     * Fitted exponents may exceed their bound by this much, because lower order terms skew the fit on small inputs
+     */
+    public static final double TOLERANCE = 0.3;
+    /**
+     * Fitted time exponents may exceed their bound by this much, because garbage collection and cache effects make
+     * even linear parses look somewhat superlinear
+     */
+    public static final double TIME_TOLERANCE = 0.5;
+    /**
+     * A higher polynomial degree is only used if it removes at least this fraction of the variance that the lower
+     * degree leaves unexplained, so that noise is not fitted
+     */
+    public static final double DEGREE_GAIN = 0.75;
+    /**
+     * Highest polynomial degree to try
+     */
+    public static final int MAX_DEGREE = 4;
+
+    private static final NonTerminal S = Category.nonTerminal("S");
+    private static final Terminal<String> a = new ExactStringTerminal("a");
+    private static final Terminal<String> b = new ExactStringTerminal("b");
+
+    public static void main(String[] args) {
+        final int[] lengths = {50, 75, 100, 125, 150, 175, 200, 225, 250, 275, 300};
+        boolean failed = false;
+        for (GrammarClass grammarClass : GrammarClass.values()) {
+            final Result result = measure(grammarClass, lengths, true);
+            System.out.println(result);
+            failed |= result.stateExponent > grammarClass.maxStateExponent + TOLERANCE
+                    || result.stateDegree > grammarClass.maxStateExponent
+                    || result.timeExponent > grammarClass.maxTimeExponent + TIME_TOLERANCE;
+        }
+        if (failed) {
+            System.err.println("Fitted exponent exceeds its bound");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param lengths     Input lengths to parse, increasing
+     * @param measureTime Whether to measure parse times, which warms up first and takes the best of a few runs
+     */
+    public static Result measure(GrammarClass grammarClass, int[] lengths, boolean measureTime) {
+        final Parser<String> parser = new Parser<>(grammarClass.grammar);
+        if (measureTime) for (int i = 0; i < 5; i++) parse(parser, grammarClass, lengths[lengths.length - 1]);
+
+        final double[] n = new double[lengths.length];
+        final double[] states = new double[lengths.length];
+        final double[] times = new double[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            n[i] = lengths[i];
+            states[i] = parse(parser, grammarClass, lengths[i]).chart.countStates();
+            if (measureTime) {
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < 3; run++) {
+                    final long start = System.nanoTime();
+                    parse(parser, grammarClass, lengths[i]);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                times[i] = best;
+            }
+        }
+        return new Result(grammarClass, n, states, measureTime ? times : null);
+    }
+
+    private static ChartWithInputPosition<String> parse(Parser<String> parser, GrammarClass grammarClass, int length) {
+        return parser.parseAndCountTokens(S, grammarClass.tokens(length), grammarClass.parseOptions);
+    }
+
+    private static LinearRegression fitExponent(double[] n, double[] y) {
+        final double[] logN = new double[n.length];
+        final double[] logY = new double[y.length];
+        for (int i = 0; i < n.length; i++) {
+            logN[i] = Math.log(n[i]);
+            logY[i] = Math.log(y[i]);
+        }
+        return new LinearRegression(logN, logY);
+    }
+
+    /**
+     * @return Polynomial of the lowest degree that a higher degree does not improve by {@link #DEGREE_GAIN}. Needs more
+     * measurements than {@link #MAX_DEGREE} + 1 to try every degree.
+     */
+    private static PolynomialRegression fitDegree(double[] n, double[] y) {
+        PolynomialRegression fit = new PolynomialRegression(n, y, 1);
+        for (int degree = 2; degree <= MAX_DEGREE && degree < n.length - 1; degree++) {
+            final PolynomialRegression higher = new PolynomialRegression(n, y, degree);
+            final double unexplained = 1.0 - fit.R2();
+            if (unexplained < 1E-9 || 1.0 - higher.R2() > unexplained * (1.0 - DEGREE_GAIN)) break;
+            fit = higher;
+        }
+        return fit;
+    }
+
+    private static List<Token<String>> repeat(String token, int length) {
+        final List<Token<String>> tokens = new ArrayList<>(length);
+        final Token<String> t = new Token<>(token);
+        for (int i = 0; i < length; i++) tokens.add(t);
+        return tokens;
     }
 
-    public static List<long[]> run() {
-        NonTerminal A = Category.nonTerminal("A");
-        NonTerminal B = Category.nonTerminal("B");
-        NonTerminal C = Category.nonTerminal("C");
-        NonTerminal D = Category.nonTerminal("D");
-        NonTerminal S = Category.nonTerminal("S");
-        Category aa = new ExactStringTerminal("a");
-
-        final LogSemiring sr = LogSemiring.get();
-        Grammar<String> grammar = new Grammar.Builder<String>()
-                .withSemiring(sr)
-                .addRule(1.0, S, A)
+    /**
+     * Grammar classes, with the exponents that an Earley parser should achieve for them
+     */
+    public enum GrammarClass {
+        /**
+         * Left recursive, LR(0): S → S a | a
+         */
+        DETERMINISTIC(1, 1, new Grammar.Builder<String>()
+                .addRule(0.5, S, S, a)
+                .addRule(0.5, S, a)
+                .build(), null) {
+            @Override
+            List<Token<String>> tokens(int length) {
+                return repeat("a", length);
+            }
+        },
+        /**
+         * Right recursive, LR(1): S → a S | a. Quadratic without {@link ParseOptions.Builder#withLeoItems(boolean)
+         * Leo items}.
+         */
+        RIGHT_RECURSIVE(1, 1, new Grammar.Builder<String>()
+                .addRule(0.5, S, a, S)
+                .addRule(0.5, S, a)
+                .build(), new ParseOptions.Builder<String>().withLeoItems(true).build()) {
+            @Override
+            List<Token<String>> tokens(int length) {
+                return repeat("a", length);
+            }
+        },
+        /**
+         * Odd length palindromes: S → a S a | b S b | a | b. Unambiguous, but the parser can't know where the middle is.
+         */
+        UNAMBIGUOUS(2, 2, new Grammar.Builder<String>()
+                .addRule(0.25, S, a, S, a)
+                .addRule(0.25, S, b, S, b)
+                .addRule(0.25, S, a)
+                .addRule(0.25, S, b)
+                .build(), null) {
+            @Override
+            List<Token<String>> tokens(int length) {
+                final int odd = length % 2 == 0 ? length + 1 : length;
+                final List<Token<String>> tokens = new ArrayList<>(odd);
+                for (int i = 0; i < odd; i++) tokens.add(new Token<>(Math.min(i, odd - 1 - i) % 3 == 0 ? "b" : "a"));
+                return tokens;
+            }
+        },
+        /**
+         * Highly ambiguous: S → S S | a
+         */
+        AMBIGUOUS(2, 3, new Grammar.Builder<String>()
                 .addRule(0.1, S, S, S)
-                .addRule(1.0, A, B)
-                .addRule(0.5, A, D)
-                .addRule(0.5, B, C)
-                .addRule(1.0, B, aa)
-                .addRule(0.5, C, aa)
-                .addRule(0.5, D, aa)
-                .build();
-
-        final Token<String> a = new Token<>("a");
-        List<Token<String>> tokens = Tokens.tokenize();
-
-        List<long[]> l = new ArrayList<>();
-
-        for (int i = 0; i <= 1; i++)
-            tokens.add(a);
-
-        final ParseOptions<String> parseOptions = new ParseOptions.Builder<String>()
-//                .parallelizeScan()
-//                .parallelizeComplete()
-//                .parallelizePredict()
-                .build();
-
-        Parser<String> p = new Parser<>(grammar);
-        for (int i = 0; i <= 200; i++) {
-            long timeStart = System.currentTimeMillis();
-            p.getViterbiParseWithScore(S, tokens, parseOptions);
-            long timeEnd = System.currentTimeMillis();
-            final long time = timeEnd - timeStart;
-            //noinspection ObjectAllocationInLoop
-            l.add(new long[]{i, time});
-            System.out.println(i + "\t" + (i == 0 ? 0 : time));
-            tokens.add(a);
+                .addRule(0.9, S, a)
+                .build(), null) {
+            @Override
+            List<Token<String>> tokens(int length) {
+                return repeat("a", length);
+            }
+        };
+
+        public final double maxStateExponent;
+        public final double maxTimeExponent;
+        final Grammar<String> grammar;
+        final ParseOptions<String> parseOptions;
+
+        GrammarClass(double maxStateExponent, double maxTimeExponent, Grammar<String> grammar, ParseOptions<String> parseOptions) {
+            this.maxStateExponent = maxStateExponent;
+            this.maxTimeExponent = maxTimeExponent;
+            this.grammar = grammar;
+            this.parseOptions = parseOptions;
         }
 
-        return l;
+        abstract List<Token<String>> tokens(int length);
     }
-}
 
+    public static class Result {
+        public final GrammarClass grammarClass;
+        /**
+         * Exponent of the number of states, fitted on log-log scale
+         */
+        public final double stateExponent;
+        public final double stateExponentR2;
+        /**
+         * Lowest degree of a polynomial that fits the number of states
+         */
+        public final int stateDegree;
+        public final double stateDegreeR2;
+        /**
+         * Exponent of the parse time, fitted on log-log scale, or NaN if times were not measured
+         */
+        public final double timeExponent;
+        public final double timeExponentR2;
+        /**
+         * Lowest degree of a polynomial that fits the parse time, or -1 if times were not measured
+         */
+        public final int timeDegree;
+        public final double timeDegreeR2;
+
+        Result(GrammarClass grammarClass, double[] n, double[] states, double[] times) {
+            this.grammarClass = grammarClass;
+
+            final LinearRegression stateExponentFit = fitExponent(n, states);
+            this.stateExponent = stateExponentFit.slope();
+            this.stateExponentR2 = stateExponentFit.R2();
+            final PolynomialRegression stateDegreeFit = fitDegree(n, states);
+            this.stateDegree = stateDegreeFit.degree();
+            this.stateDegreeR2 = stateDegreeFit.R2();
+
+            if (times == null) {
+                this.timeExponent = Double.NaN;
+                this.timeExponentR2 = Double.NaN;
+                this.timeDegree = -1;
+                this.timeDegreeR2 = Double.NaN;
+            } else {
+                final LinearRegression timeExponentFit = fitExponent(n, times);
+                this.timeExponent = timeExponentFit.slope();
+                this.timeExponentR2 = timeExponentFit.R2();
+                final PolynomialRegression timeDegreeFit = fitDegree(n, times);
+                this.timeDegree = timeDegreeFit.degree();
+                this.timeDegreeR2 = timeDegreeFit.R2();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return grammarClass +
+                    ": states ~ n^" + String.format("%.2f (R^2 = %.3f)", stateExponent, stateExponentR2) +
+                    ", degree " + String.format("%d (R^2 = %.3f)", stateDegree, stateDegreeR2) +
+                    " (bound " + grammarClass.maxStateExponent + ")" +
+                    "; time ~ n^" + String.format("%.2f (R^2 = %.3f)", timeExponent, timeExponentR2) +
+                    ", degree " + String.format("%d (R^2 = %.3f)", timeDegree, timeDegreeR2) +
+                    " (bound " + grammarClass.maxTimeExponent + ")";
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.leibnizcenter.cfg.perf;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.leibnizcenter.cfg.perf.Perf.GrammarClass;
+import org.leibnizcenter.cfg.perf.Perf.Result;
+
+/**
+ * Checks that the number of chart states grows no faster than expected for each grammar class
+ */
+public class PerfTest {
+    private static final int[] LENGTHS = {20, 30, 40, 50, 60, 70, 80, 90, 100};
+
+    @Test
+    public void stateCountsScale() {
+        for (GrammarClass grammarClass : GrammarClass.values()) {
+            final Result result = Perf.measure(grammarClass, LENGTHS, false);
+            Assert.assertTrue(result.toString(), result.stateExponent <= grammarClass.maxStateExponent + Perf.TOLERANCE);
+            Assert.assertTrue(result.toString(), result.stateDegree <= grammarClass.maxStateExponent);
+        }
+    }
+}
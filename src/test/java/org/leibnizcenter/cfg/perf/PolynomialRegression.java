@@ -4,8 +4,6 @@ package org.leibnizcenter.cfg.perf;
 import org.leibnizcenter.cfg.algebra.matrix.Matrix;
 import org.leibnizcenter.cfg.algebra.matrix.QRDecomposition;
 
-import java.util.List;
-
 /**
  * The {@code PolynomialRegression} class performs a polynomial regression
  * on an set of <em>N</em> data points (<em>y<sub>i</sub></em>, <em>x<sub>i</sub></em>).
@@ -106,25 +104,6 @@ public class PolynomialRegression {
         sse = residuals.norm2() * residuals.norm2();
     }
 
-    /**
-     * Unit tests the {@code PolynomialRegression} data type.
-     *
-     * @param args the command-line arguments
-     */
-    public static void main(String[] args) {
-        List<long[]> results = Perf.run();
-        double[] x = new double[results.size()];
-        double[] y = new double[results.size()];
-        for (int i = 0; i < results.size(); i++) {
-            final long[] r = results.get(i);
-            x[i] = r[0];
-            y[i] = r[1];
-        }
-
-        PolynomialRegression regression = new PolynomialRegression(x, y, 3);
-        System.out.println(regression);
-    }
-
     /**
      * Returns the {@code j}th regression coefficient.
      *
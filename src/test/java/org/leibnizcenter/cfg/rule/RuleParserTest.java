@@ -10,8 +10,6 @@ import org.leibnizcenter.cfg.category.terminal.stringterminal.CaseInsensitiveStr
 import org.leibnizcenter.cfg.category.terminal.stringterminal.RegexTerminal;
 
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 
@@ -19,22 +17,6 @@ import static org.junit.Assert.*;
  * Created by maarten on 6-2-17.
  */
 public class RuleParserTest {
-    @Test
-    public void lexRhs() throws Exception {
-        assertEquals(
-                Stream.of(
-                        new RuleParser.RhsToken("AA"),
-                        new RuleParser.RhsToken("/"),
-                        new RuleParser.RhsToken("  "),
-                        new RuleParser.RhsToken("/"),
-                        new RuleParser.RhsToken("A"),
-                        new RuleParser.RhsToken("\t"),
-                        new RuleParser.RhsToken("A")
-                ).collect(Collectors.toList()),
-                RuleParser.lexRhs("AA/  /A\tA".toCharArray())
-        );
-    }
-
     @Test
     public void fromString() throws Exception {
         final RuleParser ruleParser = new RuleParser(s -> Character.isUpperCase(s.charAt(0)) ? new NonTerminal(s) : new CaseInsensitiveStringTerminal(s), LogSemiring.get());
@@ -0,0 +1,81 @@
+package org.leibnizcenter.cfg.rule;
+
+import org.junit.Test;
+import org.leibnizcenter.cfg.algebra.semiring.dbl.LogSemiring;
+import org.leibnizcenter.cfg.category.Category;
+import org.leibnizcenter.cfg.category.nonterminal.NonLexicalToken;
+import org.leibnizcenter.cfg.category.nonterminal.NonTerminal;
+import org.leibnizcenter.cfg.category.terminal.Terminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.CaseInsensitiveStringTerminal;
+import org.leibnizcenter.cfg.category.terminal.stringterminal.RegexTerminal;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class RuleReaderTest {
+    private static final Function<String, Category> PARSE_CATEGORY = s -> NonLexicalToken.ERROR_SYMBOL.equals(s)
+            ? (Terminal) NonLexicalToken.INSTANCE
+            : Character.isUpperCase(s.charAt(0)) ? new NonTerminal(s) : new CaseInsensitiveStringTerminal(s);
+
+    private static RuleFormatException readError(String cfg) throws IOException {
+        try {
+            new RuleReader(PARSE_CATEGORY, LogSemiring.get()).readAll(new StringReader(cfg));
+        } catch (RuleFormatException e) {
+            return e;
+        }
+        throw new AssertionError("Expected an error");
+    }
+
+    @Test
+    public void readAll() throws IOException {
+        final List<Rule> rules = new RuleReader(PARSE_CATEGORY, LogSemiring.get()).readAll(new StringReader(
+                "# comment\r\n" +
+                        "S -> NP VP (0.5)\r\n" +
+                        "\n" +
+                        "  NP → /[0-9]+(st|nd)/i  # ordinals\n" +
+                        "VP -> <error> sleep(1)"
+        ));
+
+        assertEquals(3, rules.size());
+        assertEquals(Rule.create(LogSemiring.get(), 0.5, new NonTerminal("S"), new NonTerminal("NP"), new NonTerminal("VP")), rules.get(0));
+
+        final Pattern pattern = ((RegexTerminal) rules.get(1).right[0]).pattern;
+        assertEquals("[0-9]+(st|nd)", pattern.pattern());
+        assertEquals(Pattern.CASE_INSENSITIVE, pattern.flags());
+
+        assertTrue(rules.get(2) instanceof LexicalErrorRule);
+        assertEquals(new CaseInsensitiveStringTerminal("sleep"), rules.get(2).right[1]);
+    }
+
+    @Test
+    public void sharesCategories() throws IOException {
+        final List<Rule> rules = new RuleReader(PARSE_CATEGORY, LogSemiring.get()).readAll(new StringReader("S -> a\nA -> a"));
+        assertSame(rules.get(0).right[0], rules.get(1).right[0]);
+    }
+
+    @Test
+    public void reportsPosition() throws IOException {
+        RuleFormatException e = readError("S -> a\nS a");
+        assertEquals(2, e.line);
+        assertEquals(3, e.column);
+
+        e = readError("S -> /a+/q");
+        assertEquals(1, e.line);
+        assertEquals(10, e.column);
+
+        e = readError("\n\nS -> a (0.5) b");
+        assertEquals(3, e.line);
+        assertEquals(14, e.column);
+
+        e = readError("S -> /a+ b");
+        assertEquals(6, e.column);
+
+        e = readError("S -> (0.5)");
+        assertEquals(11, e.column);
+    }
+}